@@ -29,17 +29,28 @@ import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.os.AsyncTask;
 import android.os.Environment;
-import android.util.SparseArray;
 import android.widget.Toast;
 
+import com.paperclickers.camera.CameraAbstraction;
+import com.paperclickers.fiducial.AnswerFusion;
+import com.paperclickers.fiducial.ArgbLumaSource;
+import com.paperclickers.fiducial.CodeTracker;
+import com.paperclickers.fiducial.FrameBudget;
+import com.paperclickers.fiducial.LogOddsFusion;
+import com.paperclickers.fiducial.LogRing;
+import com.paperclickers.fiducial.LumaSource;
 import com.paperclickers.fiducial.PaperclickersScanner;
+import com.paperclickers.fiducial.ScanPipeline;
+import com.paperclickers.fiducial.ScannerEngine;
 import com.paperclickers.fiducial.TopCode;
+import com.paperclickers.fiducial.YuvLumaSource;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Serializable;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -73,19 +84,49 @@ public class AudienceResponses {
     // Defined by TopcodeValidator constant: refers to the moving validation threshold mechanism
     final static boolean MOVING_VALIDATION_THRESHOLD = TopCodeValidator.MOVING_VALIDATION_THRESHOLD;
 
-    // Use this constant to enable the frame drop
+    // Use this constant to enable the frame drop. Camera frames scanned on the scan thread are
+    // already dropped while the previous one is being scanned, so they are never dropped here
     final static boolean DROP_EVERY_OTHER_FRAME = true;
 
     // Use this constant to enable previewing only validated codes as an overlay in the camera capture
     final static boolean ONLY_PREVIEW_VALIDATED_CODES = true;
 
+    // Use this constant to enable scanning the camera frames in a pipeline: luma extraction of a
+    // frame, on the caller thread, overlaps with thresholding and candidates scanning of the previous
+    // one and with decoding and validation of the one before it, each on its own thread. The caller
+    // thread is the CameraAbstraction.USE_SCAN_THREAD one; disabled until checked on a device
+    public final static boolean PIPELINED_SCANNING = false;
+
+    // Use this constant to enable tracking the codes found: between full scans, every
+    // CodeTracker.FULL_SCAN_INTERVAL frames or as soon as a tracked code is lost, each frame only
+    // re-decodes the codes found by the previous one around their last positions. Cards raised in
+    // between are only seen by the next full scan, and when pipelined the codes tracked lag behind
+    // by the pipeline depth; disabled until checked on a device
+    final static boolean TEMPORAL_TRACKING = false;
+
+    // Use this constant to enable the steady state scanning, which allocates nothing per frame once
+    // warmed up: the scanners reuse the codes they find, and the per frame log messages are only
+    // formatted when drainLog() is called, off the scanning threads
+    final static boolean STEADY_STATE_SCANNING = true;
+
+    // Use this constant to enable deciding the answers with the probabilistic LogOddsFusion instead of
+    // the TopCodeValidator continuous detection rule
+    final static boolean PROBABILISTIC_ANSWER_FUSION = false;
+
+    // Use this constant to enable logging every answer read, as AnswerFusion.OBSERVATION_LOG_FORMAT;
+    // the log of a recorded video playback can be replayed by the benchmark AnswerFusionComparison
+    final static boolean LOG_ANSWER_OBSERVATIONS = false;
+
 
     public final static int COMPLETELY_IGNORE_CYCLE = -1;
     public final static int DO_NOT_REDRAW = 0;
     public final static int NEED_TO_REDRAW = 1;
 
 
-    private int[] mLuma = null;
+    // Frames are scanned straight from the camera YUV420SP frames, or the emulator ARGB ones
+    private final YuvLumaSource mCameraSource = new YuvLumaSource();
+    private final ArgbLumaSource mEmulatorSource = new ArgbLumaSource();
+
     private int mImageWidth;
     private int mImageHeight;
 
@@ -107,14 +148,89 @@ public class AudienceResponses {
 
     private boolean mAvoidPartialReadings;
 
-    private SparseArray<TopCode> mFinalTopCodes;
-    private SparseArray<TopCodeValidator> mFinalTopCodesValidator;
+    private TopCodeValidator mFinalTopCodesValidator;
     private Integer[] mFinalTopCodesFrequency;
 
     PaperclickersScanner mScan = null;
 
+    CodeTracker mCodeTracker = new CodeTracker();
+
+    // Time budget of each frame - of each frame decode, when pipelined - from the
+    // "development_frame_budget" preference, and its overruns and deferred candidates metrics
+    FrameBudget mFrameBudget = new FrameBudget(0);
+
+    // Pipelined scanning: mScan scans the frames candidates and mDecodeScan decodes them
+
+    PaperclickersScanner mDecodeScan = null;
+
+    volatile ScanPipeline mPipeline = null;
+
+    FrameResultListener mFrameResultListener = null;
+
+    // Codes shown by the frame being decoded by the pipeline, reused by every frame
+    final List<TopCode> mPipelineRecognizedValidTopCodes = new ArrayList<TopCode>();
+
+    ScanPipeline.Listener mPipelineListener = new ScanPipeline.Listener() {
+
+        @Override
+        public void onFrameDecoded(ScanPipeline.Frame frame) {
+
+            List<TopCode> recognizedValidTopCodes = mPipelineRecognizedValidTopCodes;
+            List<TopCode> topCodes = frame.getCodes();
+
+            recognizedValidTopCodes.clear();
+
+            int result;
+
+            // Validated as shown when the frame was submitted, see submitFrame()
+
+            boolean showingValidation = (Boolean) frame.getTag();
+
+            if (TEMPORAL_TRACKING) {
+                mCodeTracker.update(frame.getTrackedCodes(), topCodes);
+            }
+
+            synchronized (AudienceResponses.this) {
+                mFrameBudget.record(frame.getDecodeTime(), frame.getDeferredCount());
+
+                mStartOnPreviewTime = frame.getSubmitTime();
+                mStartFiducialTime  = frame.getSubmitTime();
+                mEndFiducialTime    = System.currentTimeMillis();
+
+                result = validateCodes(recognizedValidTopCodes, topCodes, showingValidation, frame.getCandidatesCount());
+            }
+
+            FrameResultListener listener = mFrameResultListener;
+
+            if (listener != null) {
+                listener.onFrameResult(result, recognizedValidTopCodes, topCodes);
+            }
+        }
+    };
+
+
+
+    /**
+     * Receives the results of the frames submitted to the scan pipeline, on the pipeline decode
+     * thread; the codes lists, and their codes, are reused once the call returns
+     */
+    public interface FrameResultListener {
+        void onFrameResult(int cycleResult, List<TopCode> recognizedValidTopCodes, List<TopCode> topCodes);
+    }
+
     int mPreviouslyDetectedTopCodesCount = 0;
 
+    // Per frame log messages of the steady state scanning, recorded holding this object lock
+    final LogRing mDeferredLog = new LogRing(ScannerEngine.DEFERRED_LOG_CAPACITY);
+
+    final LogRing.Sink mDeferredLogSink = new LogRing.Sink() {
+
+        @Override
+        public void log(String message) {
+            log.d(TAG, message);
+        }
+    };
+
 
 
     private class SaveLastProcessedFrame extends AsyncTask<Void, Void, Void> {
@@ -230,14 +346,14 @@ public class AudienceResponses {
 
 
 
-    public SparseArray<TopCodeValidator> getTopCodesValidator() {
+    public TopCodeValidator getTopCodesValidator() {
         return mFinalTopCodesValidator;
     }
 
 
 
     public int getTotalTopCodesCount() {
-        return mFinalTopCodes.size();
+        return mFinalTopCodesValidator.size();
     }
 
 
@@ -262,8 +378,18 @@ public class AudienceResponses {
         String studentsStr = mSharedPreferences.getString("students_number", "40");
         int studentsNum    = Integer.parseInt(studentsStr);
 
-        mFinalTopCodes          = new SparseArray<TopCode>(studentsNum);
-        mFinalTopCodesValidator = new SparseArray<TopCodeValidator>(studentsNum);
+        float currentValidationStep = (float) TopCodeValidator.VALIDATION_THRESHOLD_INCREASE_STEP;
+
+        if (SettingsActivity.DEVELOPMENT_OPTIONS) {
+            String validationThresholdStr = mSharedPreferences.getString("development_validation_threshold", String.valueOf(TopCodeValidator.VALIDATION_THRESHOLD_INCREASE_STEP));
+            currentValidationStep         = (float) Integer.parseInt(validationThresholdStr);
+        }
+
+        mFinalTopCodesValidator = new TopCodeValidator(studentsNum, currentValidationStep, mAvoidPartialReadings);
+
+        if (PROBABILISTIC_ANSWER_FUSION) {
+            mFinalTopCodesValidator.setAnswerFusion(new LogOddsFusion(studentsNum));
+        }
 
         if (SHOW_CODE_FREQUENCY_DEBUG) {
             mFinalTopCodesFrequency = new Integer[studentsNum * PaperclickersScanner.NUM_OF_VALID_ANSWERS];
@@ -283,19 +409,9 @@ public class AudienceResponses {
 
             newTopCode.setOrientation(PaperclickersScanner.INVALID_TOPCODE_ORIENTATION);
 
-            mFinalTopCodes.put(SettingsActivity.validTopCodes[i], newTopCode);
+            int slot = mFinalTopCodesValidator.add(SettingsActivity.validTopCodes[i], newTopCode);
 
-            float currentValidationStep = (float) TopCodeValidator.VALIDATION_THRESHOLD_INCREASE_STEP;
-
-            if (SettingsActivity.DEVELOPMENT_OPTIONS) {
-                String validationThresholdStr = mSharedPreferences.getString("development_validation_threshold", String.valueOf(TopCodeValidator.VALIDATION_THRESHOLD_INCREASE_STEP));
-                currentValidationStep         = (float) Integer.parseInt(validationThresholdStr);
-            }
-
-            TopCodeValidator validator = new TopCodeValidator(newTopCode, currentValidationStep, mAvoidPartialReadings);
-            mFinalTopCodesValidator.put(SettingsActivity.validTopCodes[i], validator);
-
-            log.d(TAG, "> Adding topcode (" + SettingsActivity.validTopCodes[i] + ") to the valid list. Total of: " + mFinalTopCodes.size());
+            log.d(TAG, "> Adding topcode (" + SettingsActivity.validTopCodes[i] + ") to the valid list. Total of: " + mFinalTopCodesValidator.size());
 
             if (receivedTopcodes != null && receivedTopcodes.size() != 0) {
                 String answer = receivedTopcodes.get(i + 1);
@@ -327,34 +443,100 @@ public class AudienceResponses {
                         mRecognizedTopCodesCount++;
                         mValidTopCodesCount++;
 
-                        validator.forceValid(answerID);
+                        mFinalTopCodesValidator.forceValid(slot, answerID);
                     }
 
                     mPreviouslyDetectedTopCodesCount++;
                 }
             }
         }
+
+        enrollClassCodes();
+    }
+
+
+
+    /**
+     * Lets the scanners drop the codes out of the class as soon as they are decoded, before any
+     * per code work
+     */
+    private void enrollClassCodes() {
+
+        if (mFinalTopCodesValidator == null || mScan == null) {
+            return;
+        }
+
+        int[] codes = new int[mFinalTopCodesValidator.size()];
+
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = mFinalTopCodesValidator.getCode(i);
+        }
+
+        mScan.setEnrolledCodes(codes);
+
+        if (mDecodeScan != null) {
+            mDecodeScan.setEnrolledCodes(codes);
+        }
+    }
+
+
+
+    /**
+     * Logs the messages deferred by the steady state scanning; to be called off the scanning
+     * threads, as the UI one
+     */
+    public void drainLog() {
+
+        PaperclickersScanner scan       = mScan;
+        PaperclickersScanner decodeScan = mDecodeScan;
+
+        if (scan != null) {
+            scan.drainLog();
+        }
+
+        if (decodeScan != null) {
+            decodeScan.drainLog();
+        }
+
+        mDeferredLog.drain(mDeferredLogSink);
     }
 
 
 
     public void finalize() {
 
-        if (mScan != null) {
-            mScan.finalize();
+        shutdownPipeline();
 
-            mScan = null;
+        drainLog();
+
+        if (TEMPORAL_TRACKING) {
+            log.d(TAG, String.format("Code tracking - full scans: %d, tracked frames: %d, lost: %d",
+                    mCodeTracker.getFullScansCount(), mCodeTracker.getTrackedFramesCount(), mCodeTracker.getLostCount()));
+        }
+
+        synchronized (this) {
+            if (mScan != null) {
+                mScan.finalize();
+
+                mScan = null;
+            }
+
+            if (mDecodeScan != null) {
+                mDecodeScan.finalize();
+
+                mDecodeScan = null;
+            }
         }
     }
 
 
 
-    public int onNewFrame(byte[] data, boolean hasRotated, List<TopCode> recognizedValidTopCodes, List<TopCode> topCodes, boolean showingValidation, boolean useMorpho) {
+    public synchronized int onNewFrame(byte[] data, boolean hasRotated, List<TopCode> recognizedValidTopCodes, List<TopCode> topCodes, boolean showingValidation, boolean useMorpho) {
 
         int result = DO_NOT_REDRAW;
 
         // Check if should drop this frame
-        if (DROP_EVERY_OTHER_FRAME) {
+        if (DROP_EVERY_OTHER_FRAME && !CameraAbstraction.USE_SCAN_THREAD) {
             mIgnoreCall = !mIgnoreCall;
 
             if (mIgnoreCall) {
@@ -362,7 +544,7 @@ public class AudienceResponses {
             }
         }
 
-        if (mLuma == null) {
+        if (mScan == null) {
             // Still initializing; ignore call...
 
             return COMPLETELY_IGNORE_CYCLE;
@@ -370,16 +552,16 @@ public class AudienceResponses {
 
         mStartOnPreviewTime = System.currentTimeMillis();
 
-        stripLumaFromYUV420SP(mLuma, data, mImageWidth, mImageHeight);
+        mCameraSource.setFrame(data);
 
-        result = processNewFrame(hasRotated, recognizedValidTopCodes, topCodes, showingValidation, useMorpho);
+        result = processNewFrame(mCameraSource, hasRotated, recognizedValidTopCodes, topCodes, showingValidation, useMorpho);
 
         return result;
     }
 
 
 
-    public int onNewFrame(int[] data, boolean hasRotated, List<TopCode> recognizedValidTopCodes, List<TopCode> topCodes, boolean showingValidation, boolean useMorpho) {
+    public synchronized int onNewFrame(int[] data, boolean hasRotated, List<TopCode> recognizedValidTopCodes, List<TopCode> topCodes, boolean showingValidation, boolean useMorpho) {
 
         int result = DO_NOT_REDRAW;
 
@@ -392,7 +574,7 @@ public class AudienceResponses {
             }
         }
 
-        if (mLuma == null) {
+        if (mScan == null) {
             // Still initializing; ignore call...
 
             return COMPLETELY_IGNORE_CYCLE;
@@ -400,51 +582,90 @@ public class AudienceResponses {
 
         mStartOnPreviewTime = System.currentTimeMillis();
 
-        stripLumaFromYUV420SP(mLuma, data, mImageWidth, mImageHeight);
+        mEmulatorSource.setFrame(data);
 
-        result = processNewFrame(hasRotated, recognizedValidTopCodes, topCodes, showingValidation, useMorpho);
+        result = processNewFrame(mEmulatorSource, hasRotated, recognizedValidTopCodes, topCodes, showingValidation, useMorpho);
 
         return result;
     }
 
 
 
-    public int processNewFrame(boolean hasRotated, List<TopCode> recognizedValidTopCodes, List<TopCode> topCodes, boolean showingValidation, boolean useMorpho) {
+    public int processNewFrame(LumaSource frame, boolean hasRotated, List<TopCode> recognizedValidTopCodes, List<TopCode> topCodes, boolean showingValidation, boolean useMorpho) {
 
         int result = DO_NOT_REDRAW;
 
+        List<TopCode> trackedCodes = TEMPORAL_TRACKING ? mCodeTracker.nextTrackedCodes() : null;
+
+        long frameStart = System.nanoTime();
+
+        mScan.setDecodeDeadline(mFrameBudget.getDeadline(frameStart));
+
         try {
             mStartFiducialTime = System.currentTimeMillis();
 
-            mScan.scanProcessing(mLuma, hasRotated, topCodes, useMorpho);
+            if (trackedCodes != null) {
+                mScan.trackProcessing(frame, hasRotated, trackedCodes, topCodes);
+            } else {
+                mScan.scanProcessing(frame, hasRotated, topCodes, useMorpho);
+            }
 
             mEndFiducialTime = System.currentTimeMillis();
         } catch (Resources.NotFoundException e1) {
             log.e(TAG, e1.toString());
         }
 
+        mFrameBudget.record(System.nanoTime() - frameStart, mScan.getDeferredCount());
+
+        if (TEMPORAL_TRACKING) {
+            mCodeTracker.update(trackedCodes, topCodes);
+        }
+
+        result = validateCodes(recognizedValidTopCodes, topCodes, showingValidation, mScan.getCandidatesCount());
+
+        return result;
+    }
+
+
+
+    /**
+     * Updates the validators with the codes found in a scan cycle, adding the ones to be shown to
+     * recognizedValidTopCodes
+     */
+    private int validateCodes(List<TopCode> recognizedValidTopCodes, List<TopCode> topCodes, boolean showingValidation, int candidatesCount) {
+
+        int result = DO_NOT_REDRAW;
+
         if (topCodes != null) {
             if (topCodes.size() > 0) {
 
                 // Update the existing topcodes list with the information found, either including new ones or
                 // updating the orientation of the existing ones.
 
-                for (TopCode t : topCodes) {
+                for (int i = 0; i < topCodes.size(); i++) {
+
+                    TopCode t = topCodes.get(i);
 
-                    TopCode validTopCode = mFinalTopCodes.get(t.getCode());
+                    int slot = mFinalTopCodesValidator.getSlot(t.getCode());
 
                     String scanDebug;
 
-                    if (validTopCode != null) {
-                        TopCodeValidator currentValidator = mFinalTopCodesValidator.get(t.getCode());
+                    if (slot != TopCodeValidator.INVALID_SLOT) {
+                        TopCode validTopCode = mFinalTopCodesValidator.getTopCode(slot);
+
+                        TopCodeValidator currentValidator = mFinalTopCodesValidator;
 
                         int translatedAnswer = PaperclickersScanner.translateOrientationToID(t.getOrientation());
                         int continuousDetectionResult;
 
-                        currentValidator.incFrequency(translatedAnswer);
+                        if (LOG_ANSWER_OBSERVATIONS) {
+                            log.d(TAG, String.format(AnswerFusion.OBSERVATION_LOG_FORMAT, mScanCycle, t.getCode(), translatedAnswer));
+                        }
+
+                        currentValidator.incFrequency(slot, translatedAnswer);
 
                         if (mAvoidPartialReadings) {
-                            continuousDetectionResult = currentValidator.checkContinousDetection(mScanCycle, translatedAnswer, validTopCode);
+                            continuousDetectionResult = currentValidator.checkContinousDetection(slot, mScanCycle, translatedAnswer);
 
                             if (continuousDetectionResult == TopCodeValidator.CHANGED_ANSWER) {
                                 log.d(TAG, String.format("Code %d changed orientation: %f to %f", t.getCode(), validTopCode.getOrientation(), t.getOrientation()));
@@ -465,7 +686,7 @@ public class AudienceResponses {
                                 recognizedValidTopCodes.add(t);
                             }
                         } else {
-                            currentValidator.checkContinousDetection(mScanCycle, translatedAnswer, validTopCode);
+                            currentValidator.checkContinousDetection(slot, mScanCycle, translatedAnswer);
 
                             mValidTopCodesCount++;
                         }
@@ -485,25 +706,25 @@ public class AudienceResponses {
                                 scanDebug = String.format("Cycle: %d, Code: %d,  orientation: %f, frequency: %d(A), %d(B), %d(C), %d(D), isValid: %b, lastDetectedScanCycle: "
                                                 + "%d(A), %d(B), %d(C), %d(D), numberOfContinuousDetection: %d(A), %d(B), %d(C), %d(D)",
                                         mScanCycle, t.getCode(), t.getOrientation(),
-                                        currentValidator.getFrequency(PaperclickersScanner.ID_ANSWER_A), currentValidator.getFrequency(PaperclickersScanner.ID_ANSWER_B),
-                                        currentValidator.getFrequency(PaperclickersScanner.ID_ANSWER_C), currentValidator.getFrequency(PaperclickersScanner.ID_ANSWER_D),
-                                        currentValidator.isValid(),
-                                        currentValidator.getLastDetectedScanCycle(PaperclickersScanner.ID_ANSWER_A), currentValidator.getLastDetectedScanCycle(PaperclickersScanner.ID_ANSWER_B),
-                                        currentValidator.getLastDetectedScanCycle(PaperclickersScanner.ID_ANSWER_C), currentValidator.getLastDetectedScanCycle(PaperclickersScanner.ID_ANSWER_D),											                  currentValidator.getNumberOfContinuousDetection(PaperclickersScanner.ID_ANSWER_A), currentValidator.getNumberOfContinuousDetection(PaperclickersScanner.ID_ANSWER_B),
-                                        currentValidator.getNumberOfContinuousDetection(PaperclickersScanner.ID_ANSWER_C), currentValidator.getNumberOfContinuousDetection(PaperclickersScanner.ID_ANSWER_D));
+                                        currentValidator.getFrequency(slot, PaperclickersScanner.ID_ANSWER_A), currentValidator.getFrequency(slot, PaperclickersScanner.ID_ANSWER_B),
+                                        currentValidator.getFrequency(slot, PaperclickersScanner.ID_ANSWER_C), currentValidator.getFrequency(slot, PaperclickersScanner.ID_ANSWER_D),
+                                        currentValidator.isValid(slot),
+                                        currentValidator.getLastDetectedScanCycle(slot, PaperclickersScanner.ID_ANSWER_A), currentValidator.getLastDetectedScanCycle(slot, PaperclickersScanner.ID_ANSWER_B),
+                                        currentValidator.getLastDetectedScanCycle(slot, PaperclickersScanner.ID_ANSWER_C), currentValidator.getLastDetectedScanCycle(slot, PaperclickersScanner.ID_ANSWER_D),											                  currentValidator.getNumberOfContinuousDetection(slot, PaperclickersScanner.ID_ANSWER_A), currentValidator.getNumberOfContinuousDetection(slot, PaperclickersScanner.ID_ANSWER_B),
+                                        currentValidator.getNumberOfContinuousDetection(slot, PaperclickersScanner.ID_ANSWER_C), currentValidator.getNumberOfContinuousDetection(slot, PaperclickersScanner.ID_ANSWER_D));
 
                                 if (MOVING_VALIDATION_THRESHOLD) {
                                     scanDebug += String.format("longestContinuous: %d(A), %d(B), %d(C), %d(D)",
-                                            currentValidator.getNumberOfLongestContinuousDetection(PaperclickersScanner.ID_ANSWER_A),
-                                            currentValidator.getNumberOfLongestContinuousDetection(PaperclickersScanner.ID_ANSWER_B),
-                                            currentValidator.getNumberOfLongestContinuousDetection(PaperclickersScanner.ID_ANSWER_C),
-                                            currentValidator.getNumberOfLongestContinuousDetection(PaperclickersScanner.ID_ANSWER_D));
+                                            currentValidator.getNumberOfLongestContinuousDetection(slot, PaperclickersScanner.ID_ANSWER_A),
+                                            currentValidator.getNumberOfLongestContinuousDetection(slot, PaperclickersScanner.ID_ANSWER_B),
+                                            currentValidator.getNumberOfLongestContinuousDetection(slot, PaperclickersScanner.ID_ANSWER_C),
+                                            currentValidator.getNumberOfLongestContinuousDetection(slot, PaperclickersScanner.ID_ANSWER_D));
                                 }
                             } else {
                                 scanDebug = String.format("Cycle: %d, Code: %d,  orientation: %f, frequency: %d(A), %d(B), %d(C), %d(D)",
                                         mScanCycle, t.getCode(), t.getOrientation(),
-                                        currentValidator.getFrequency(PaperclickersScanner.ID_ANSWER_A), currentValidator.getFrequency(PaperclickersScanner.ID_ANSWER_B),
-                                        currentValidator.getFrequency(PaperclickersScanner.ID_ANSWER_C), currentValidator.getFrequency(PaperclickersScanner.ID_ANSWER_D));
+                                        currentValidator.getFrequency(slot, PaperclickersScanner.ID_ANSWER_A), currentValidator.getFrequency(slot, PaperclickersScanner.ID_ANSWER_B),
+                                        currentValidator.getFrequency(slot, PaperclickersScanner.ID_ANSWER_C), currentValidator.getFrequency(slot, PaperclickersScanner.ID_ANSWER_D));
                             }
 
                             log.d(TAG, scanDebug);
@@ -518,7 +739,7 @@ public class AudienceResponses {
                 if (SHOW_CODE_FREQUENCY_DEBUG) {
                     for (int i = 0; i < mFinalTopCodesValidator.size(); i++) {
                         for (int j = 0; j < PaperclickersScanner.NUM_OF_VALID_ANSWERS; j++) {
-                            mFinalTopCodesFrequency[(i * PaperclickersScanner.NUM_OF_VALID_ANSWERS) + j] = mFinalTopCodesValidator.valueAt(i).getFrequency(j);
+                            mFinalTopCodesFrequency[(i * PaperclickersScanner.NUM_OF_VALID_ANSWERS) + j] = mFinalTopCodesValidator.getFrequency(i, j);
                         }
                     }
                 }
@@ -532,8 +753,23 @@ public class AudienceResponses {
 
         mEndOnPreviewTime = System.currentTimeMillis();
 
-        log.d(TAG, String.format("Cycle: %d, overall onPreview time(ms): %d, fiducial time(ms): %d - candidates points found: %d",
-                mScanCycle, mEndOnPreviewTime - mStartOnPreviewTime, mEndFiducialTime - mStartFiducialTime, mScan.getCandidatesCount()));
+        if (STEADY_STATE_SCANNING) {
+            mDeferredLog.add("Cycle: %d, overall onPreview time(ms): %d, fiducial time(ms): %d - candidates points found: %d",
+                    mScanCycle, mEndOnPreviewTime - mStartOnPreviewTime, mEndFiducialTime - mStartFiducialTime, candidatesCount);
+
+            if (mFrameBudget.isEnabled()) {
+                mDeferredLog.add("Frame budget(ms): %d, frames: %d, overruns: %d, worst overrun(ns): %d, deferred blobs: %d",
+                        mFrameBudget.getBudgetMillis(), mFrameBudget.getFramesCount(), mFrameBudget.getOverrunsCount(),
+                        mFrameBudget.getWorstOverrun(), mFrameBudget.getDeferredCount());
+            }
+        } else {
+            log.d(TAG, String.format("Cycle: %d, overall onPreview time(ms): %d, fiducial time(ms): %d - candidates points found: %d",
+                    mScanCycle, mEndOnPreviewTime - mStartOnPreviewTime, mEndFiducialTime - mStartFiducialTime, candidatesCount));
+
+            if (mFrameBudget.isEnabled()) {
+                log.d(TAG, "Frame " + mFrameBudget);
+            }
+        }
 
         mScanCycle++;
 
@@ -546,31 +782,31 @@ public class AudienceResponses {
 
 
 
-    public HashMap<Integer, String> returnDetectedTopCodesList() {
+    public synchronized HashMap<Integer, String> returnDetectedTopCodesList() {
 
 
         log.d(TAG,">>>>> returnDetectedTopcodesList");
 
         HashMap<Integer, String> detectedTopcodes = new HashMap<Integer, String>();
 
-        if (mFinalTopCodes != null) {
+        if (mFinalTopCodesValidator != null) {
 
 
-            log.d(TAG,String.format("mFinalTopcodes.size: %d", mFinalTopCodes.size()));
+            log.d(TAG,String.format("mFinalTopcodes.size: %d", mFinalTopCodesValidator.size()));
 
 
             // Build a hashmap containing only code and detected answer of each topcode
 
-            for (int i = 0; i < mFinalTopCodes.size(); i++) {
+            TopCodeValidator validator = mFinalTopCodesValidator;
 
-                TopCode t = mFinalTopCodes.valueAt(i);
+            for (int i = 0; i < validator.size(); i++) {
 
-                TopCodeValidator validator = mFinalTopCodesValidator.valueAt(i);
+                TopCode t = validator.getTopCode(i);
 
                 String translatedAnswer;
 
                 if (mAvoidPartialReadings) {
-                    int bestAnswer = validator.getBestValidAnswer();
+                    int bestAnswer = validator.getBestValidAnswer(i);
 
                     translatedAnswer = PaperclickersScanner.translateOrientationIDToString(bestAnswer);
                 } else {
@@ -580,21 +816,21 @@ public class AudienceResponses {
                 detectedTopcodes.put(i + 1, translatedAnswer);
 
                 if (mAvoidPartialReadings) {
-                    log.d(TAG, String.format("> Translated code: %d, Answer: %s, Orientation: %s, Frequency: %d(A), %d(B), %d(C), %d(D), isValid: %b, lastDetectedScanCycle: "
+                    log.d(TAG, String.format("> Translated code: %d, Answer: %s, Orientation: %s, Frequency: %d(A), %d(B), %d(C), %d(D), isValid: %b, confidence: %.2f, lastDetectedScanCycle: "
                                     + "%d(A), %d(B), %d(C), %d(D), numberOfContinuousDetection: %d(A), %d(B), %d(C), %d(D)",
                             i + 1, translatedAnswer, String.valueOf(t.getOrientation()),
-                            validator.getFrequency(PaperclickersScanner.ID_ANSWER_A), validator.getFrequency(PaperclickersScanner.ID_ANSWER_B),
-                            validator.getFrequency(PaperclickersScanner.ID_ANSWER_C), validator.getFrequency(PaperclickersScanner.ID_ANSWER_D),
-                            validator.isValid(),
-                            validator.getLastDetectedScanCycle(PaperclickersScanner.ID_ANSWER_A), validator.getLastDetectedScanCycle(PaperclickersScanner.ID_ANSWER_B),
-                            validator.getLastDetectedScanCycle(PaperclickersScanner.ID_ANSWER_C), validator.getLastDetectedScanCycle(PaperclickersScanner.ID_ANSWER_D),
-                            validator.getNumberOfContinuousDetection(PaperclickersScanner.ID_ANSWER_A), validator.getNumberOfContinuousDetection(PaperclickersScanner.ID_ANSWER_B),
-                            validator.getNumberOfContinuousDetection(PaperclickersScanner.ID_ANSWER_C), validator.getNumberOfContinuousDetection(PaperclickersScanner.ID_ANSWER_D)));
+                            validator.getFrequency(i, PaperclickersScanner.ID_ANSWER_A), validator.getFrequency(i, PaperclickersScanner.ID_ANSWER_B),
+                            validator.getFrequency(i, PaperclickersScanner.ID_ANSWER_C), validator.getFrequency(i, PaperclickersScanner.ID_ANSWER_D),
+                            validator.isValid(i), validator.getConfidence(i),
+                            validator.getLastDetectedScanCycle(i, PaperclickersScanner.ID_ANSWER_A), validator.getLastDetectedScanCycle(i, PaperclickersScanner.ID_ANSWER_B),
+                            validator.getLastDetectedScanCycle(i, PaperclickersScanner.ID_ANSWER_C), validator.getLastDetectedScanCycle(i, PaperclickersScanner.ID_ANSWER_D),
+                            validator.getNumberOfContinuousDetection(i, PaperclickersScanner.ID_ANSWER_A), validator.getNumberOfContinuousDetection(i, PaperclickersScanner.ID_ANSWER_B),
+                            validator.getNumberOfContinuousDetection(i, PaperclickersScanner.ID_ANSWER_C), validator.getNumberOfContinuousDetection(i, PaperclickersScanner.ID_ANSWER_D)));
                 } else {
                     log.d(TAG, String.format("> Translated code: %d, Answer: %s, Orientation: %s, Frequency: %d(A), %d(B), %d(C), %d(D)",
                             i + 1, translatedAnswer, String.valueOf(t.getOrientation()),
-                            validator.getFrequency(PaperclickersScanner.ID_ANSWER_A), validator.getFrequency(PaperclickersScanner.ID_ANSWER_B),
-                            validator.getFrequency(PaperclickersScanner.ID_ANSWER_C), validator.getFrequency(PaperclickersScanner.ID_ANSWER_D)));
+                            validator.getFrequency(i, PaperclickersScanner.ID_ANSWER_A), validator.getFrequency(i, PaperclickersScanner.ID_ANSWER_B),
+                            validator.getFrequency(i, PaperclickersScanner.ID_ANSWER_C), validator.getFrequency(i, PaperclickersScanner.ID_ANSWER_D)));
                 }
             }
         } else {
@@ -606,57 +842,140 @@ public class AudienceResponses {
 
 
 
-    public void saveLastImage() {
+    public synchronized void saveLastImage() {
 
         //.replaceAll(",\\s*", "_").replaceAll("[:|\\s]", "")
 
         String filename = LAST_IMAGE_FILENAME + DateFormat.getDateInstance().format(new Date()).replaceAll("\\s", "_").replaceAll(",", "") + "_"
                 + DateFormat.getTimeInstance().format(new Date()).replaceAll(":", ".")+ LAST_IMAGE_FILE_EXTENSION;
 
-        SaveLastProcessedFrame saveImage = new SaveLastProcessedFrame(filename, mLuma, mImageWidth, mImageHeight);
+        // The scanner keeps the thresholded frame bit packed; unpack it for saving
+
+        int[] thresholded = new int[mImageWidth * mImageHeight];
+
+        mScan.getThresholdedFrame(thresholded);
+
+        SaveLastProcessedFrame saveImage = new SaveLastProcessedFrame(filename, thresholded, mImageWidth, mImageHeight);
 
         saveImage.execute();
     }
 
 
 
+    public void setFrameResultListener(FrameResultListener listener) {
+        mFrameResultListener = listener;
+    }
+
+
+
     public void setImageSize(int newWidth, int newHeight) {
 
-        mImageWidth = newWidth;
-        mImageHeight = newHeight;
+        // The pipeline decode thread validates the codes holding this object lock; stop it before
+        // taking the lock
 
-        mLuma = new int[mImageWidth * mImageHeight];
+        shutdownPipeline();
 
-        mScan = new PaperclickersScanner(mImageWidth, mImageHeight, mContext);
-    }
+        synchronized (this) {
+            mImageWidth = newWidth;
+            mImageHeight = newHeight;
+
+            mCodeTracker.reset();
+
+            // Every valid code tracked in each frame on its way through the scan: the tracker
+            // pools then never grow while scanning
+
+            if (STEADY_STATE_SCANNING && TEMPORAL_TRACKING && mFinalTopCodesValidator != null) {
+                mCodeTracker.reserve(mFinalTopCodesValidator.size(), PIPELINED_SCANNING ? ScanPipeline.FRAMES_COUNT : 1);
+            }
+
+            mFrameBudget = new FrameBudget(Integer.parseInt(mSharedPreferences.getString("development_frame_budget", "0")));
 
+            mScan = new PaperclickersScanner(mImageWidth, mImageHeight, mContext);
+            mScan.setSteadyState(STEADY_STATE_SCANNING);
 
+            if (PIPELINED_SCANNING) {
 
-    private void stripLumaFromYUV420SP(int[] greyscale, byte[] yuv420sp, int width, int height) {
+                // Decoding needs no filtering accelerator
 
-        for (int i = 0; i < width * height; i++) {
-            int y = (((int) yuv420sp[i]) & 0xff) - 16;
+                mDecodeScan = new PaperclickersScanner(mImageWidth, mImageHeight, mContext, false);
+                mDecodeScan.setSteadyState(STEADY_STATE_SCANNING);
 
-            if (y < 0) {
-                y = 0;
+                mPipeline = new ScanPipeline(mScan, mDecodeScan, mPipelineListener);
+
+                if (mFrameBudget.isEnabled()) {
+                    mPipeline.setFrameBudget(mFrameBudget);
+                }
             }
 
-            greyscale[i] = y << 24;
+            enrollClassCodes();
         }
     }
 
 
 
-    private void stripLumaFromYUV420SP(int[] greyscale, int[] yuv420sp, int width, int height) {
+    /**
+     * Stops the scan pipeline, waiting for the frame being decoded to be validated; the frames
+     * still queued are dropped, so the validators no longer change once this returns. Must not be
+     * called holding this object lock, which the pipeline decode thread validates the codes with.
+     * Frames submitted from now on are ignored, until the next setImageSize().
+     */
+    public void shutdownPipeline() {
 
-        for (int i = 0; i < width * height; i++) {
-            int y = (yuv420sp[i] & 0xff) - 16;
+        ScanPipeline pipeline;
+
+        synchronized (this) {
+            pipeline = mPipeline;
+
+            mPipeline = null;
+        }
+
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
 
-            if (y < 0) {
-                y = 0;
-            }
 
-            greyscale[i] = y << 24;
+
+    /**
+     * Extracts the luma of a camera frame into a free pipeline frame and queues it to be scanned,
+     * waiting for a free frame if needed; the camera frame buffer can be reused as soon as this
+     * returns. The frame result is handed to the FrameResultListener.
+     */
+    public void submitFrame(byte[] data, boolean hasRotated, boolean showingValidation, boolean useMorpho) {
+
+        ScanPipeline pipeline = mPipeline;
+
+        if (pipeline == null) {
+            // Still initializing; ignore call...
+
+            return;
+        }
+
+        ScanPipeline.Frame frame;
+
+        try {
+            frame = pipeline.acquireFrame();
+        } catch (InterruptedException e) {
+            return;
         }
+
+        if (frame == null) {
+            // The pipeline has been shut down, for a new image size
+
+            return;
+        }
+
+        if (data.length < frame.getWidth() * frame.getHeight()) {
+            // A frame of the previous image size
+
+            pipeline.discardFrame(frame);
+
+            return;
+        }
+
+        System.arraycopy(data, 0, frame.getLuma(), 0, frame.getWidth() * frame.getHeight());
+
+        pipeline.submitFrame(frame, hasRotated, useMorpho, TEMPORAL_TRACKING ? mCodeTracker.nextTrackedCodes() : null,
+                Boolean.valueOf(showingValidation));
     }
 }
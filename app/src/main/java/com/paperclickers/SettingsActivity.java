@@ -64,6 +64,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.paperclickers.fiducial.TopCode;
+import com.paperclickers.fiducial.TopCodeDrawer;
 import com.paperclickers.onboarding.OnboardingActivity;
 import com.paperclickers.overlay.OverlayManager;
 
@@ -105,21 +106,11 @@ public class SettingsActivity extends PreferenceActivity {
 	public static String RESET_ONBOARDING   = "com.paperclickers.intent.action.RESET_ONBOARDING";
 	
 	
-	// Used TopCodes defined according to the list provided by Michael Horn in
-	// http://users.eecs.northwestern.edu/~mhorn/topcodes/topcodes.pdf 
-	// (accessed in 2015-09-27 11:40 AM GMT-3)
+	// Used TopCodes: every valid one, as generated by TopCode.generateCodes(). They are the same
+	// listed by Michael Horn in http://users.eecs.northwestern.edu/~mhorn/topcodes/topcodes.pdf
+	// (accessed in 2015-09-27 11:40 AM GMT-3); the class size is bounded by their count
 	
-	public static int validTopCodes[] = {  31,   47,   55,   59,   61,   79,   87,   91,   93, 
-									      103,  107,  109,  115,  117,  121,  143,  151,  155,
-									      157,  167,  171,  173,  179,  181,  185,  199,  203,
-									      205,  211,  213,  217,  227,  229,  233,  241,  271,
-									      279,  283,  285,  295,  299,  301,  307,  309,  313,
-									      327,  331,  333,  339,  341,  345,  355,  357,  361,
-									      369,  391,  395,  397,  403,  405,  409,  419,  421,
-									      425,  433,  453,  457,  465,  551,  555,  557,  563,
-									      565,  569,  583,  587,  589,  595,  597,  601,  611,
-									      613,  617,  651,  653,  659,  661,  665,  675,  677,
-									      681,  713,  793,  805,  809,  841, 1171, 1173, 1189};
+	public static final int validTopCodes[] = generateValidTopCodes();
 	
 	// Development mode status
 	static boolean mDevelopmentMode = false;
@@ -207,6 +198,9 @@ public class SettingsActivity extends PreferenceActivity {
                     
                     bindPreferenceSummaryToValue(findPreference("development_validation_threshold"));
 					bindPreferenceSummaryToValue(findPreference("development_morpho_element_size"));
+					bindPreferenceSummaryToValue(findPreference("development_integral_threshold_window"));
+					bindPreferenceSummaryToValue(findPreference("development_pyramid_factor"));
+					bindPreferenceSummaryToValue(findPreference("development_frame_budget"));
                 }
             }
         }
@@ -309,8 +303,26 @@ public class SettingsActivity extends PreferenceActivity {
 		}
 	}
 
-	
-	
+
+
+	/**
+	 * The codes handed to the students, in increasing order, so that student i + 1 holds
+	 * validTopCodes[i]
+	 */
+	private static int[] generateValidTopCodes() {
+
+		TopCode[] codes = TopCode.generateCodes();
+		int[] result    = new int[codes.length];
+
+		for (int i = 0; i < codes.length; i++) {
+			result[i] = codes[i].getCode();
+		}
+
+		return result;
+	}
+
+
+
 	public static boolean isDevelopmentMode() {
 
 	    return mDevelopmentMode;
@@ -887,7 +899,7 @@ public class SettingsActivity extends PreferenceActivity {
 		paint.setTextSize(textSize);
 		paint.setTextAlign(Align.CENTER);	
 		
-		topCode.draw(whichCanvas);
+		TopCodeDrawer.draw(topCode, whichCanvas);
 		
 		whichCanvas.drawText(String.valueOf(topCodeTranslation), centerX + width/2 * 3/4, centerY - height/2 + textSize * textMargin, paint);		
 	}
@@ -1137,9 +1149,9 @@ public class SettingsActivity extends PreferenceActivity {
 
 						int studentsNum = Integer.parseInt(stringValue);
 
-						if ((studentsNum < 1) || (studentsNum > 99)) {
+						if ((studentsNum < 1) || (studentsNum > validTopCodes.length)) {
 
-							Toast.makeText(preference.getContext(), preference.getContext().getResources().getText(R.string.invalid_students_number), Toast.LENGTH_LONG).show();
+							Toast.makeText(preference.getContext(), preference.getContext().getResources().getString(R.string.invalid_students_number, validTopCodes.length), Toast.LENGTH_LONG).show();
 
 							updateResult = false;
 						} else {
@@ -1172,19 +1184,31 @@ public class SettingsActivity extends PreferenceActivity {
                     
                     bindPreferenceSummaryToValue(mDevelopmentFragment.findPreference("development_validation_threshold"));
 					bindPreferenceSummaryToValue(mDevelopmentFragment.findPreference("development_morpho_element_size"));
+					bindPreferenceSummaryToValue(mDevelopmentFragment.findPreference("development_integral_threshold_window"));
+					bindPreferenceSummaryToValue(mDevelopmentFragment.findPreference("development_pyramid_factor"));
+					bindPreferenceSummaryToValue(mDevelopmentFragment.findPreference("development_frame_budget"));
                 } else if (mDevelopmentActivity != null) {
                     mDevelopmentActivity.addPreferencesFromResource(R.xml.pref_development);
                     
                     bindPreferenceSummaryToValue(mDevelopmentActivity.findPreference("development_validation_threshold"));
 					bindPreferenceSummaryToValue(mDevelopmentActivity.findPreference("development_morpho_element_size"));
+					bindPreferenceSummaryToValue(mDevelopmentActivity.findPreference("development_integral_threshold_window"));
+					bindPreferenceSummaryToValue(mDevelopmentActivity.findPreference("development_pyramid_factor"));
+					bindPreferenceSummaryToValue(mDevelopmentActivity.findPreference("development_frame_budget"));
                 }
             } else {
                 if (mDevelopmentFragment != null) {
                     mDevelopmentFragment.getPreferenceScreen().removePreference(mDevelopmentFragment.findPreference("development_validation_threshold"));
 					mDevelopmentFragment.getPreferenceScreen().removePreference(mDevelopmentFragment.findPreference("development_morpho_element_size"));
+					mDevelopmentFragment.getPreferenceScreen().removePreference(mDevelopmentFragment.findPreference("development_integral_threshold_window"));
+					mDevelopmentFragment.getPreferenceScreen().removePreference(mDevelopmentFragment.findPreference("development_pyramid_factor"));
+					mDevelopmentFragment.getPreferenceScreen().removePreference(mDevelopmentFragment.findPreference("development_frame_budget"));
                 } else if (mDevelopmentActivity != null) {
                     mDevelopmentActivity.getPreferenceScreen().removePreference(mDevelopmentActivity.findPreference("development_validation_threshold"));
 					mDevelopmentActivity.getPreferenceScreen().removePreference(mDevelopmentActivity.findPreference("development_morpho_element_size"));
+					mDevelopmentActivity.getPreferenceScreen().removePreference(mDevelopmentActivity.findPreference("development_integral_threshold_window"));
+					mDevelopmentActivity.getPreferenceScreen().removePreference(mDevelopmentActivity.findPreference("development_pyramid_factor"));
+					mDevelopmentActivity.getPreferenceScreen().removePreference(mDevelopmentActivity.findPreference("development_frame_budget"));
 				}
             }	    
 	    }
@@ -1257,6 +1281,9 @@ public class SettingsActivity extends PreferenceActivity {
                 
                 bindPreferenceSummaryToValue(findPreference("development_validation_threshold"));
 				bindPreferenceSummaryToValue(findPreference("development_morpho_element_size"));
+				bindPreferenceSummaryToValue(findPreference("development_integral_threshold_window"));
+				bindPreferenceSummaryToValue(findPreference("development_pyramid_factor"));
+				bindPreferenceSummaryToValue(findPreference("development_frame_budget"));
 		    }
 		}
 	}
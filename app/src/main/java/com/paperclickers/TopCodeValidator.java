@@ -22,9 +22,20 @@
 
 package com.paperclickers;
 
+import com.paperclickers.fiducial.AnswerFusion;
 import com.paperclickers.fiducial.PaperclickersScanner;
 import com.paperclickers.fiducial.TopCode;
 
+import java.util.Arrays;
+
+
+/**
+ * Validation state of every code in the class, held as flat primitive arrays indexed by slot - the
+ * order in which codes were added - so that updating it for the codes found in a scan cycle does not
+ * allocate, neither walks a sparse map. Codes are 13 bits wide, so a direct lookup table maps any
+ * code to its slot. Per answer data sits at [slot * NUM_OF_VALID_ANSWERS + answer].
+ */
+
 public class TopCodeValidator {
 	
 	final static String TAG = "TopCodeValidator";
@@ -43,6 +54,11 @@ public class TopCodeValidator {
 	public final static int VALIDATION_THRESHOLD_INCREASE_STEP = 32;
 	
 	final static int INVALID_DUPLICATED_ANSWER = -1;
+
+	// Number of distinct codes: TopCodes encode 13 bits
+	public final static int CODE_SPACE = 1 << 13;
+
+	public final static int INVALID_SLOT = -1;
     
     // Response codes for "checkContinousDetection()" method
     public final static int TURNED_VALID        = -2;
@@ -51,90 +67,154 @@ public class TopCodeValidator {
 	public final static int CONTINUOS_DETECTION = 1;
 	public final static int MISSED_CYCLES       = 2;
 	public final static int CHANGED_ANSWER      = 3;
+
+	private static final int ANSWERS = PaperclickersScanner.NUM_OF_VALID_ANSWERS;
+
+	// Slot of every code, INVALID_SLOT for the ones not in the class
+	private final short[] mSlotOfCode = new short[CODE_SPACE];
+
+	// Code and class topcode of every slot
+	private final int[] mCodes;
+	private final TopCode[] mTopCodes;
+
+	private int mCount;
     
-    // Absolute number of cycles this topcode has been detected, by valid answer
-	private int[] mFrequency;
+    // Absolute number of cycles each topcode has been detected, by valid answer
+	private final int[] mFrequency;
 	
-	// Number of continuous detection the given answers has been detected for this topcode; resets every time
+	// Number of continuous detection the given answers has been detected for each topcode; resets every time
 	// the topcode is not detected in the given cycle or the answer changes.
-	// Used to defined the answer validation for this topcode, based on the continuous detection threshold.
-	private int[] mNumberOfContinuousDetection;
+	// Used to defined the answer validation for the topcode, based on the continuous detection threshold.
+	private final int[] mNumberOfContinuousDetection;
 	
-	// Greatest number of continuous detection the given answer has been detected for this topcode;
-	private int[] mLongestNumberOfContinuousDetection;
+	// Greatest number of continuous detection the given answer has been detected for each topcode;
+	private final int[] mLongestNumberOfContinuousDetection;
 	
-	// Last scan cycle in which this answer has been detected for the given topcode
-	private int[] mLastDetectedScanCycle;
+	// Last scan cycle in which the answer has been detected for the given topcode
+	private final int[] mLastDetectedScanCycle;
 	
-	// Indicates this answer is valid for this topcode
-	private boolean[] mValidTopcode;
+	// Answers which are valid for each topcode, one bit per answer
+	private final byte[] mValidAnswers;
 	
-	private int mDuplicateAnswerInLastScanCycle;
+	private final int[] mDuplicateAnswerInLastScanCycle;
 	
-	private int mPreviousTranslatedAnswer;
+	private final int[] mPreviousTranslatedAnswer;
 	
 	static int mCurrentValidationThreshold;
 	static float mCurrentValidationThresholdStep;
-	
-	private TopCode mHandledTopcode;
 
 	private boolean mAvoidPartialReadings = true;
+
+	// Fusion deciding the valid answer of each code, instead of the continuous detection rule; null for the rule
+	private AnswerFusion mAnswerFusion = null;
+
+
+
+	public TopCodeValidator(int capacity, float currentValidationThreshold, boolean avoidPartialReadings) {
+
+		mAvoidPartialReadings = avoidPartialReadings;
+
+		Arrays.fill(mSlotOfCode, (short) INVALID_SLOT);
+
+		mCodes    = new int[capacity];
+		mTopCodes = new TopCode[capacity];
+
+		mFrequency                          = new int[capacity * ANSWERS];
+		mNumberOfContinuousDetection        = new int[capacity * ANSWERS];
+		mLongestNumberOfContinuousDetection = new int[capacity * ANSWERS];
+		mLastDetectedScanCycle              = new int[capacity * ANSWERS];
+		mValidAnswers                       = new byte[capacity];
+
+		mDuplicateAnswerInLastScanCycle = new int[capacity];
+		mPreviousTranslatedAnswer       = new int[capacity];
+
+		Arrays.fill(mLastDetectedScanCycle, -1);
+		Arrays.fill(mDuplicateAnswerInLastScanCycle, PaperclickersScanner.ID_NO_ANSWER);
+		Arrays.fill(mPreviousTranslatedAnswer, PaperclickersScanner.ID_NO_ANSWER);
+
+		mCurrentValidationThreshold     = INITIAL_VALIDATION_THRESHOLD;
+		mCurrentValidationThresholdStep = currentValidationThreshold;
+	}
+
+
+
+	/**
+	 * Adds a code of the class, with the topcode keeping its latest detection, returning its slot
+	 */
+	public int add(int code, TopCode whichTopCode) {
+
+		int slot = mCount++;
+
+		mSlotOfCode[code] = (short) slot;
+
+		mCodes[slot]    = code;
+		mTopCodes[slot] = whichTopCode;
+
+		return slot;
+	}
+	
 	
 	
-	public int checkContinousDetection(int currentScanCycle, int translatedAnswer, TopCode whichTopCode) {
+	public int checkContinousDetection(int slot, int currentScanCycle, int translatedAnswer) {
+
+		if (mAvoidPartialReadings && mAnswerFusion != null) {
+			return checkFusedDetection(slot, currentScanCycle, translatedAnswer);
+		}
 		
 		int result = CONTINUOS_DETECTION;
 
-		mHandledTopcode = whichTopCode;
+		int base     = slot * ANSWERS;
+		int answer   = base + translatedAnswer;
+		int previous = mPreviousTranslatedAnswer[slot];
 		
 		if (mAvoidPartialReadings) {
 		    
             // Resets this duplicate indication for this scan cycle
-            mDuplicateAnswerInLastScanCycle = PaperclickersScanner.ID_NO_ANSWER;
+            mDuplicateAnswerInLastScanCycle[slot] = PaperclickersScanner.ID_NO_ANSWER;
             		    
-			if (!mValidTopcode[translatedAnswer]) {
+			if (!isAnswerValid(slot, translatedAnswer)) {
 			    
-				if (mPreviousTranslatedAnswer != translatedAnswer) {
+				if (previous != translatedAnswer) {
 	
 					// New orientation; restart validation process
 	
 				    // But first, check if the current code has already been detect in this same scan cycle - make
 				    // detection robust against duplicated codes
 
-				    if ((mPreviousTranslatedAnswer != PaperclickersScanner.ID_NO_ANSWER) && 
-				        (mLastDetectedScanCycle[mPreviousTranslatedAnswer] == currentScanCycle)) {
+				    if ((previous != PaperclickersScanner.ID_NO_ANSWER) && 
+				        (mLastDetectedScanCycle[base + previous] == currentScanCycle)) {
 				        
-				        mNumberOfContinuousDetection[translatedAnswer] = INVALID_DUPLICATED_ANSWER;
+				        mNumberOfContinuousDetection[answer] = INVALID_DUPLICATED_ANSWER;
 				        
 				        result = IGNORED_DUPLICATE;
 				        
-				        mDuplicateAnswerInLastScanCycle = translatedAnswer;
+				        mDuplicateAnswerInLastScanCycle[slot] = translatedAnswer;
 				        
 	                    log.d(TAG, String.format("Duplicated code detected for not validated answer (cycle %d); answers: %d (1st - considered) to %d (2nd - discarded)", 
-	                          currentScanCycle, mPreviousTranslatedAnswer, translatedAnswer));                    
+	                          currentScanCycle, previous, translatedAnswer));                    
 				    } else {				    
 				        result = CHANGED_ANSWER;
 
-				        log.d(TAG, String.format("Code changed answer: %d to %d", mPreviousTranslatedAnswer, translatedAnswer));                    
+				        log.d(TAG, String.format("Code changed answer: %d to %d", previous, translatedAnswer));                    
 				    }
 					
-				} else if (currentScanCycle == mLastDetectedScanCycle[translatedAnswer] + 1) {
+				} else if (currentScanCycle == mLastDetectedScanCycle[answer] + 1) {
 				    
 				    // this is a continuous detection for this answer on this topcode
 				    
-					if (++mNumberOfContinuousDetection[translatedAnswer] >= mCurrentValidationThreshold) {
-						if (!isValid()) {
+					if (++mNumberOfContinuousDetection[answer] >= mCurrentValidationThreshold) {
+						if (!isValid(slot)) {
 							result = TURNED_VALID;
 						} else {
 							result = VALID_ALREADY;
 						}
 						
-						mValidTopcode[translatedAnswer] = true;					
+						mValidAnswers[slot] |= 1 << translatedAnswer;
 					}
 					
 					if (MOVING_VALIDATION_THRESHOLD) {
-						if (mLongestNumberOfContinuousDetection[translatedAnswer] < mNumberOfContinuousDetection[translatedAnswer]) {
-							mLongestNumberOfContinuousDetection[translatedAnswer] = mNumberOfContinuousDetection[translatedAnswer];
+						if (mLongestNumberOfContinuousDetection[answer] < mNumberOfContinuousDetection[answer]) {
+							mLongestNumberOfContinuousDetection[answer] = mNumberOfContinuousDetection[answer];
 						}
 					}
 				} else {
@@ -143,11 +223,11 @@ public class TopCodeValidator {
 					
 					result = MISSED_CYCLES;
 					
-					log.d(TAG, String.format("last scan with answer %d was: %d; current: %d", translatedAnswer, mLastDetectedScanCycle[translatedAnswer], currentScanCycle));
+					log.d(TAG, String.format("last scan with answer %d was: %d; current: %d", translatedAnswer, mLastDetectedScanCycle[answer], currentScanCycle));
 				}
 				
 				if (result > CONTINUOS_DETECTION) {
-					mNumberOfContinuousDetection[translatedAnswer] = 0;				
+					mNumberOfContinuousDetection[answer] = 0;
 				}
 			} else {
 			    
@@ -155,28 +235,28 @@ public class TopCodeValidator {
 
 			    // First, just check if this is not a duplicated topcode...
 			    
-                if ((mPreviousTranslatedAnswer != PaperclickersScanner.ID_NO_ANSWER) && 
-                    (mLastDetectedScanCycle[mPreviousTranslatedAnswer] == currentScanCycle)) {
+                if ((previous != PaperclickersScanner.ID_NO_ANSWER) && 
+                    (mLastDetectedScanCycle[base + previous] == currentScanCycle)) {
                     
-                    mNumberOfContinuousDetection[translatedAnswer] = INVALID_DUPLICATED_ANSWER;
+                    mNumberOfContinuousDetection[answer] = INVALID_DUPLICATED_ANSWER;
                     
                     result = IGNORED_DUPLICATE;
                     
-                    mDuplicateAnswerInLastScanCycle = translatedAnswer;
+                    mDuplicateAnswerInLastScanCycle[slot] = translatedAnswer;
                     
                     log.d(TAG, String.format("Duplicated code detected for validated answer (cycle %d); answers: %d (1st - considered) to %d (2nd - discarded)", 
-                          currentScanCycle, mPreviousTranslatedAnswer, translatedAnswer));                    
+                          currentScanCycle, previous, translatedAnswer));                    
                 } else {
-                    if (currentScanCycle == mLastDetectedScanCycle[translatedAnswer] + 1) {
+                    if (currentScanCycle == mLastDetectedScanCycle[answer] + 1) {
                 
-    					++mNumberOfContinuousDetection[translatedAnswer];
+    					++mNumberOfContinuousDetection[answer];
     				} else {
-    					mNumberOfContinuousDetection[translatedAnswer] = 0;	
+    					mNumberOfContinuousDetection[answer] = 0;
     				}
     				
     				if (MOVING_VALIDATION_THRESHOLD) {
-    					if (mLongestNumberOfContinuousDetection[translatedAnswer] < mNumberOfContinuousDetection[translatedAnswer]) {
-    						mLongestNumberOfContinuousDetection[translatedAnswer] = mNumberOfContinuousDetection[translatedAnswer];
+    					if (mLongestNumberOfContinuousDetection[answer] < mNumberOfContinuousDetection[answer]) {
+    						mLongestNumberOfContinuousDetection[answer] = mNumberOfContinuousDetection[answer];
     					}
     				}			
     				
@@ -186,9 +266,9 @@ public class TopCodeValidator {
 		}
 		
 		if (result != IGNORED_DUPLICATE) {
-    		mLastDetectedScanCycle[translatedAnswer] = currentScanCycle;
+    		mLastDetectedScanCycle[answer] = currentScanCycle;
     		
-    		mPreviousTranslatedAnswer = translatedAnswer;
+    		mPreviousTranslatedAnswer[slot] = translatedAnswer;
 		}
 		
 		return result;
@@ -196,48 +276,127 @@ public class TopCodeValidator {
 	
 	
 	
-	public void forceValid(int whichAnswer) {
-		mNumberOfContinuousDetection[whichAnswer] = MAXIMUM_VALIDATION_THRESHOLD;
+	/**
+	 * checkContinousDetection() version for the answer fusion: duplicated codes are told apart as
+	 * by the rule, and every other detection is handed to the fusion, the code valid answer being
+	 * the fused one as soon as there is one
+	 */
+	private int checkFusedDetection(int slot, int currentScanCycle, int translatedAnswer) {
+
+		int base     = slot * ANSWERS;
+		int answer   = base + translatedAnswer;
+		int previous = mPreviousTranslatedAnswer[slot];
+
+		mDuplicateAnswerInLastScanCycle[slot] = PaperclickersScanner.ID_NO_ANSWER;
+
+		if ((previous != PaperclickersScanner.ID_NO_ANSWER) &&
+		    (mLastDetectedScanCycle[base + previous] == currentScanCycle)) {
+
+			mDuplicateAnswerInLastScanCycle[slot] = translatedAnswer;
+
+			log.d(TAG, String.format("Duplicated code detected (cycle %d); answers: %d (1st - considered) to %d (2nd - discarded)",
+			      currentScanCycle, previous, translatedAnswer));
+
+			return IGNORED_DUPLICATE;
+		}
+
+		boolean wasValid = isValid(slot);
+
+		mAnswerFusion.observe(slot, currentScanCycle, translatedAnswer);
+
+		mLastDetectedScanCycle[answer]  = currentScanCycle;
+		mPreviousTranslatedAnswer[slot] = translatedAnswer;
+
+		int fusedAnswer = mAnswerFusion.getAnswer(slot);
+
+		if (fusedAnswer == AnswerFusion.NO_ANSWER) {
+			return (previous != translatedAnswer) ? CHANGED_ANSWER : CONTINUOS_DETECTION;
+		}
+
+		mValidAnswers[slot] = (byte) (1 << fusedAnswer);
+
+		return wasValid ? VALID_ALREADY : TURNED_VALID;
+	}
+
+
+
+	public void forceValid(int slot, int whichAnswer) {
+		mNumberOfContinuousDetection[slot * ANSWERS + whichAnswer] = MAXIMUM_VALIDATION_THRESHOLD;
 		
-		mValidTopcode[whichAnswer] = true;
+		mValidAnswers[slot] |= 1 << whichAnswer;
+
+		if (mAnswerFusion != null) {
+			mAnswerFusion.forceAnswer(slot, whichAnswer);
+		}
 	}
 	
 	
 	
-    public int getAnswerValidationCounter(int whichAnswer) {
-        return mNumberOfContinuousDetection[whichAnswer];
+    public int getAnswerValidationCounter(int slot, int whichAnswer) {
+        return mNumberOfContinuousDetection[slot * ANSWERS + whichAnswer];
     }
     
     
 
-	public int getBestValidAnswer() {
+	public int getBestValidAnswer(int slot) {
 		
 		int bestAnswer = PaperclickersScanner.ID_NO_ANSWER;
 		int bestAnswerFrequency = 0;
 		int bestAnswerLastDetectedScanCycle = -1;
+
+		int base = slot * ANSWERS;
 		
 		if (mAvoidPartialReadings) {
-			for (int i = 0; i < PaperclickersScanner.NUM_OF_VALID_ANSWERS; i++) {
-				if (mValidTopcode[i]) {
+			for (int i = 0; i < ANSWERS; i++) {
+				if (isAnswerValid(slot, i)) {
 					if (VALID_BY_FREQUENCY) {
-						if (mFrequency[i] >= bestAnswerFrequency) {
+						if (mFrequency[base + i] >= bestAnswerFrequency) {
 							bestAnswer = i;
-							bestAnswerFrequency = mFrequency[i];
+							bestAnswerFrequency = mFrequency[base + i];
 						}
 					} else {
-						if (mLastDetectedScanCycle[i] >= bestAnswerLastDetectedScanCycle) {
+						if (mLastDetectedScanCycle[base + i] >= bestAnswerLastDetectedScanCycle) {
 							bestAnswer = i;
-							bestAnswerLastDetectedScanCycle = mLastDetectedScanCycle[i];
+							bestAnswerLastDetectedScanCycle = mLastDetectedScanCycle[base + i];
 						}
 					}
 				}
 			}
 		} else {
-			bestAnswer = mPreviousTranslatedAnswer;
+			bestAnswer = mPreviousTranslatedAnswer[slot];
 		}
 
 		return bestAnswer;
 	}				
+
+
+
+	public int getCode(int slot) {
+		return mCodes[slot];
+	}
+
+
+
+	/**
+	 * Confidence, from 0 to 1, on the answer of the code: as given by the answer fusion or, for the
+	 * continuous detection rule, how far the run of the last detected answer is from the threshold
+	 */
+	public float getConfidence(int slot) {
+
+		if (mAnswerFusion != null) {
+			return mAnswerFusion.getConfidence(slot);
+		}
+
+		int previous = mPreviousTranslatedAnswer[slot];
+
+		if (isValid(slot)) {
+			return 1;
+		} else if (previous == PaperclickersScanner.ID_NO_ANSWER) {
+			return 0;
+		}
+
+		return Math.min(1.0f, Math.max(0, mNumberOfContinuousDetection[slot * ANSWERS + previous]) / (float) mCurrentValidationThreshold);
+	}
 	
 	
 	
@@ -247,104 +406,98 @@ public class TopCodeValidator {
 	
 	
 	
-	public int getDuplicatedAnswerInLastScanCycle() {
-	    return mDuplicateAnswerInLastScanCycle;
+	public int getDuplicatedAnswerInLastScanCycle(int slot) {
+	    return mDuplicateAnswerInLastScanCycle[slot];
 	}
 	
 	
 	
-    public int getFrequency(int whichAnswer) {
-		return mFrequency[whichAnswer];
+    public int getFrequency(int slot, int whichAnswer) {
+		return mFrequency[slot * ANSWERS + whichAnswer];
 	}
 	
 	
 	
-	TopCode getHandledTopcode() {
-		return mHandledTopcode;
+	public int getLastDetectedAnswer(int slot) {
+	    return mPreviousTranslatedAnswer[slot];
 	}
 	
 	
 	
-	public int getLastDetectedAnswer() {
-	    return mPreviousTranslatedAnswer;
+	public int getLastDetectedScanCycle(int slot, int whichAnswer) {
+		return mLastDetectedScanCycle[slot * ANSWERS + whichAnswer];
 	}
 	
 	
 	
-	public int getLastDetectedScanCycle(int whichAnswer) {
-		return mLastDetectedScanCycle[whichAnswer];
+	public int getNumberOfContinuousDetection(int slot, int whichAnswer) {
+		return mNumberOfContinuousDetection[slot * ANSWERS + whichAnswer];
 	}
 	
+
 	
-	
-	public int getNumberOfContinuousDetection(int whichAnswer) {
-		return mNumberOfContinuousDetection[whichAnswer];
+	public int getNumberOfLongestContinuousDetection(int slot, int whichAnswer) {
+		return mLongestNumberOfContinuousDetection[slot * ANSWERS + whichAnswer];
 	}
-	
 
-	
-	public int getNumberOfLongestContinuousDetection(int whichAnswer) {
-		return mLongestNumberOfContinuousDetection[whichAnswer];
+
+
+	/**
+	 * Slot of the given code, or INVALID_SLOT when it is not part of the class
+	 */
+	public int getSlot(int code) {
+
+		if (code < 0 || code >= CODE_SPACE) {
+			return INVALID_SLOT;
+		}
+
+		return mSlotOfCode[code];
+	}
+
+
+
+	public TopCode getTopCode(int slot) {
+		return mTopCodes[slot];
 	}
 
 	
 	
-	public void incFrequency(int whichAnswer) {
-		mFrequency[whichAnswer]++;
+	public void incFrequency(int slot, int whichAnswer) {
+		mFrequency[slot * ANSWERS + whichAnswer]++;
 	}
 
 
 	
-	public boolean isAnswerValid(int whichAnswer) {
-	    return mValidTopcode[whichAnswer];
+	public boolean hasAnswerFusion() {
+		return mAnswerFusion != null;
 	}
-	
-	
 
-	public boolean isValid() {
-		
-		boolean alreadyValidated = false;
-		
-		for (int i = 0; i < PaperclickersScanner.NUM_OF_VALID_ANSWERS; i++) {
-			alreadyValidated |= mValidTopcode[i];
-		}
-		
-		return alreadyValidated;
+
+
+	public boolean isAnswerValid(int slot, int whichAnswer) {
+	    return (mValidAnswers[slot] & (1 << whichAnswer)) != 0;
 	}
 	
 	
-	
-	public TopCodeValidator(TopCode whichTopCode, float currentValidationThreshold, boolean avoidPartialReadings) {
 
-		mAvoidPartialReadings = avoidPartialReadings;
+	public boolean isValid(int slot) {
+		return mValidAnswers[slot] != 0;
+	}
 
-		mFrequency                   = new int[PaperclickersScanner.NUM_OF_VALID_ANSWERS];
-		mNumberOfContinuousDetection = new int[PaperclickersScanner.NUM_OF_VALID_ANSWERS];
-		mLastDetectedScanCycle       = new int[PaperclickersScanner.NUM_OF_VALID_ANSWERS];
-		mValidTopcode                = new boolean[PaperclickersScanner.NUM_OF_VALID_ANSWERS];
-		
-		if (MOVING_VALIDATION_THRESHOLD) {
-			mLongestNumberOfContinuousDetection = new int[PaperclickersScanner.NUM_OF_VALID_ANSWERS];;
-		}		
-		
-		for (int i = 0; i < PaperclickersScanner.NUM_OF_VALID_ANSWERS; i++) {
-			mFrequency[i]                   = 0;
-			mNumberOfContinuousDetection[i] = 0;
-			mLastDetectedScanCycle[i]       = -1;
-			mValidTopcode[i]                = false;
-			
-			if (MOVING_VALIDATION_THRESHOLD) {
-				mLongestNumberOfContinuousDetection[i] = 0;
-			}
-		}
-		
-		mPreviousTranslatedAnswer   = PaperclickersScanner.ID_NO_ANSWER;
-		mHandledTopcode             = whichTopCode;
-		mCurrentValidationThreshold = INITIAL_VALIDATION_THRESHOLD;
-		
-		mDuplicateAnswerInLastScanCycle = PaperclickersScanner.ID_NO_ANSWER;
 
-		mCurrentValidationThresholdStep = currentValidationThreshold;
+
+	/**
+	 * Decides the valid answers with "fusion" instead of the continuous detection rule, when
+	 * avoiding partial readings; to be set before any detection, and before forcing valid answers
+	 */
+	public void setAnswerFusion(AnswerFusion fusion) {
+		mAnswerFusion = fusion;
+	}
+
+
+
+	public int size() {
+		return mCount;
 	}
 
 	
@@ -360,4 +513,4 @@ public class TopCodeValidator {
 			mCurrentValidationThreshold = newValidationThreshold;
 		}
 	}
-}
+}
\ No newline at end of file
@@ -47,6 +47,7 @@ import com.paperclickers.R;
 import com.paperclickers.SettingsActivity;
 import com.paperclickers.TopCodeValidator;
 import com.paperclickers.camera.OrientationManager.ScreenOrientation;
+import com.paperclickers.fiducial.CodesBuffer;
 import com.paperclickers.fiducial.TopCode;
 import com.paperclickers.log;
 import com.paperclickers.result.GridViewActivity;
@@ -65,7 +66,7 @@ import java.util.TimerTask;
  * @author eduseiti, on 10/06/2017
  */
 
-public class CameraAbstraction extends Activity implements OrientationManager.OrientationListener {
+public class CameraAbstraction extends Activity implements OrientationManager.OrientationListener, AudienceResponses.FrameResultListener {
 
 
     final static String TAG = "paperclickers.CameraAbstraction";
@@ -74,6 +75,10 @@ public class CameraAbstraction extends Activity implements OrientationManager.Or
 
     final static boolean LOG_TOTAL_PROCESSING_TIME = false;
 
+    // Use this constant to enable scanning the camera frames on a dedicated thread, which always
+    // works on the newest frame; the results are posted back to the UI thread
+    public final static boolean USE_SCAN_THREAD = true;
+
     protected DrawView mDraw;
     protected FrameLayout mPreview;
 
@@ -117,6 +122,87 @@ public class CameraAbstraction extends Activity implements OrientationManager.Or
 
     boolean mAvoidPartialReadings = true;
 
+    // Codes lists of the frames scanned on the UI thread and on the scan thread, reused by every frame
+
+    final List<TopCode> mRecognizedValidTopCodes = new ArrayList<TopCode>();
+    final List<TopCode> mTopCodes = new ArrayList<TopCode>();
+
+    final List<TopCode> mScanThreadRecognizedValidTopCodes = new ArrayList<TopCode>();
+    final List<TopCode> mScanThreadTopCodes = new ArrayList<TopCode>();
+
+    // Results of the frames scanned on the scan thread, waiting for the UI thread: the strongest
+    // cycle result, and copies of the codes lists of the newest frame needing to redraw - the
+    // scanners reuse their codes. The copies being handled by the UI thread are swapped with the
+    // posted ones
+
+    final Object mPostedResultLock = new Object();
+
+    int mPostedCycleResult = AudienceResponses.COMPLETELY_IGNORE_CYCLE;
+
+    CodesBuffer mPostedRecognizedValidTopCodes = new CodesBuffer();
+    CodesBuffer mPostedTopCodes = new CodesBuffer();
+
+    CodesBuffer mHandledRecognizedValidTopCodes = new CodesBuffer();
+    CodesBuffer mHandledTopCodes = new CodesBuffer();
+
+    // Marks of the codes to draw, read from the validators along with the posted codes, and swapped
+    // with them; the frames scanned on the UI thread are marked into mMarks
+
+    DrawView.CodeMarks mPostedMarks = new DrawView.CodeMarks();
+    DrawView.CodeMarks mHandledMarks = new DrawView.CodeMarks();
+
+    final DrawView.CodeMarks mMarks = new DrawView.CodeMarks();
+
+    boolean mHasPostedCodes = false;
+
+    boolean mHasPostedResult = false;
+
+    Runnable mProcessPostedResult = new Runnable() {
+
+        @Override
+        public void run() {
+
+            int cycleResult;
+
+            List<TopCode> recognizedValidTopCodes = null;
+            List<TopCode> topCodes = null;
+
+            DrawView.CodeMarks marks = null;
+
+            synchronized (mPostedResultLock) {
+                cycleResult = mPostedCycleResult;
+
+                if (mHasPostedCodes) {
+                    CodesBuffer recognizedValid = mPostedRecognizedValidTopCodes;
+                    CodesBuffer codes           = mPostedTopCodes;
+
+                    mPostedRecognizedValidTopCodes = mHandledRecognizedValidTopCodes;
+                    mPostedTopCodes                = mHandledTopCodes;
+
+                    mHandledRecognizedValidTopCodes = recognizedValid;
+                    mHandledTopCodes                = codes;
+
+                    marks = mPostedMarks;
+
+                    mPostedMarks  = mHandledMarks;
+                    mHandledMarks = marks;
+
+                    recognizedValidTopCodes = recognizedValid.getCodes();
+                    topCodes                = codes.getCodes();
+                }
+
+                mPostedCycleResult = AudienceResponses.COMPLETELY_IGNORE_CYCLE;
+                mHasPostedCodes    = false;
+
+                mHasPostedResult = false;
+            }
+
+            if (!mTerminating) {
+                processNewFrameResult(cycleResult, recognizedValidTopCodes, topCodes, marks);
+            }
+        }
+    };
+
 
     protected class TouchListener implements View.OnTouchListener {
 
@@ -189,6 +275,15 @@ public class CameraAbstraction extends Activity implements OrientationManager.Or
 
         log.d(TAG,">>>>> callNextActivity");
 
+        mTerminating = true;
+
+        stopScanning();
+
+        // Frames still in the scan pipeline would go on validating codes while the results below
+        // are collected
+
+        mAudienceResponses.shutdownPipeline();
+
         int topCodesFound = 0;
 
         if (mAvoidPartialReadings) {
@@ -333,6 +428,8 @@ public class CameraAbstraction extends Activity implements OrientationManager.Or
 
         mAudienceResponses.initialize(receivedTopcodes);
 
+        mAudienceResponses.setFrameResultListener(this);
+
         mUserRequestedEnd = false;
 
         mAnalytics = new Analytics(getApplicationContext());
@@ -395,8 +492,11 @@ public class CameraAbstraction extends Activity implements OrientationManager.Or
 
     public void onNewFrame(byte[] data, boolean useMorpho) {
 
-        List<TopCode> recognizedValidTopCodes = new ArrayList<TopCode>();
-        List<TopCode> topCodes = new ArrayList<TopCode>();
+        List<TopCode> recognizedValidTopCodes = mRecognizedValidTopCodes;
+        List<TopCode> topCodes = mTopCodes;
+
+        recognizedValidTopCodes.clear();
+        topCodes.clear();
 
         long frameProcessingStartTime;
 
@@ -415,10 +515,88 @@ public class CameraAbstraction extends Activity implements OrientationManager.Or
 
 
 
+    /**
+     * Scans a frame on the scan thread, posting its result to the UI thread. Results of frames
+     * scanned while the UI thread is busy are handled there in a single batch.
+     */
+    public void onNewFrameOnScanThread(byte[] data, boolean useMorpho) {
+
+        List<TopCode> recognizedValidTopCodes = mScanThreadRecognizedValidTopCodes;
+        List<TopCode> topCodes = mScanThreadTopCodes;
+
+        recognizedValidTopCodes.clear();
+        topCodes.clear();
+
+        long frameProcessingStartTime;
+
+        if (LOG_TOTAL_PROCESSING_TIME) {
+            frameProcessingStartTime = System.currentTimeMillis();
+        }
+
+        int cycleResult = mAudienceResponses.onNewFrame(data, mHasRotated, recognizedValidTopCodes, topCodes, mShowingValidation, useMorpho);
+
+        onFrameResult(cycleResult, recognizedValidTopCodes, topCodes);
+
+        if (LOG_TOTAL_PROCESSING_TIME) {
+            log.d(TAG, String.format("Frame processing total time(ms): %d", System.currentTimeMillis() - frameProcessingStartTime));
+        }
+    }
+
+
+
+    /**
+     * Hands a frame to the AudienceResponses scan pipeline, from the scan thread; its result is
+     * received by onFrameResult()
+     */
+    public void onNewFrameToPipeline(byte[] data, boolean useMorpho) {
+
+        mAudienceResponses.submitFrame(data, mHasRotated, mShowingValidation, useMorpho);
+    }
+
+
+
+    /**
+     * Posts a frame result, from the thread which scanned it, to the UI thread; the codes lists are
+     * copied, so that the scanners can reuse them, and the codes to draw marked
+     */
+    @Override
+    public void onFrameResult(int cycleResult, List<TopCode> recognizedValidTopCodes, List<TopCode> topCodes) {
+
+        if (cycleResult == AudienceResponses.COMPLETELY_IGNORE_CYCLE) {
+            return;
+        }
+
+        synchronized (mPostedResultLock) {
+            if (cycleResult >= mPostedCycleResult) {
+                mPostedCycleResult = cycleResult;
+            }
+
+            if (cycleResult == AudienceResponses.NEED_TO_REDRAW) {
+                mPostedRecognizedValidTopCodes.copy(recognizedValidTopCodes);
+                mPostedTopCodes.copy(topCodes);
+
+                markDrawnCodes(mPostedMarks, mPostedRecognizedValidTopCodes.getCodes(), mPostedTopCodes.getCodes());
+
+                mHasPostedCodes = true;
+            }
+
+            if (!mHasPostedResult) {
+                mHasPostedResult = true;
+
+                runOnUiThread(mProcessPostedResult);
+            }
+        }
+    }
+
+
+
     public void onNewFrame(int[] data, boolean useMorpho) {
 
-        List<TopCode> recognizedValidTopCodes = new ArrayList<TopCode>();
-        List<TopCode> topCodes = new ArrayList<TopCode>();
+        List<TopCode> recognizedValidTopCodes = mRecognizedValidTopCodes;
+        List<TopCode> topCodes = mTopCodes;
+
+        recognizedValidTopCodes.clear();
+        topCodes.clear();
 
         long frameProcessingStartTime;
 
@@ -499,8 +677,43 @@ public class CameraAbstraction extends Activity implements OrientationManager.Or
 
 
 
+    /**
+     * Marks the codes drawn out of a frame result - see processNewFrameResult() - reading the
+     * validators under the AudienceResponses lock, as the scanning threads change them under it
+     */
+    void markDrawnCodes(DrawView.CodeMarks marks, List<TopCode> recognizedValidTopCodes, List<TopCode> topCodes) {
+
+        synchronized (mAudienceResponses) {
+            marks.mark(mAvoidPartialReadings ? recognizedValidTopCodes : topCodes, mAudienceResponses.getTopCodesValidator(),
+                       mShowingValidation && mAvoidPartialReadings);
+        }
+    }
+
+
+
+    /**
+     * Handles the result of a frame scanned on the UI thread
+     */
     public void processNewFrameResult(int cycleResult, List<TopCode> recognizedValidTopCodes, List<TopCode> topCodes) {
 
+        if (cycleResult == AudienceResponses.NEED_TO_REDRAW) {
+            markDrawnCodes(mMarks, recognizedValidTopCodes, topCodes);
+        }
+
+        processNewFrameResult(cycleResult, recognizedValidTopCodes, topCodes, mMarks);
+    }
+
+
+
+    /**
+     * Handles a frame result on the UI thread, "marks" being the marks of the codes drawn
+     */
+    public void processNewFrameResult(int cycleResult, List<TopCode> recognizedValidTopCodes, List<TopCode> topCodes, DrawView.CodeMarks marks) {
+
+        // Off the scanning threads, the log messages they deferred can be formatted
+
+        mAudienceResponses.drainLog();
+
         if (cycleResult == AudienceResponses.COMPLETELY_IGNORE_CYCLE) {
             return;
         } else if (cycleResult == AudienceResponses.NEED_TO_REDRAW) {
@@ -512,11 +725,11 @@ public class CameraAbstraction extends Activity implements OrientationManager.Or
             if (mAvoidPartialReadings) {
                 mHint1TextView.setText(mHint1StringStart + mAudienceResponses.getValidTopCodesCount() + mHint1StringEnd);
 
-                mDraw.updateValidTopcodesList(recognizedValidTopCodes);
+                mDraw.updateValidTopcodesList(recognizedValidTopCodes, marks);
             } else {
                 mHint1TextView.setText(mHint1StringStart + mAudienceResponses.getRecognizedTopCodesCount() + mHint1StringEnd);
 
-                mDraw.updateValidTopcodesList(topCodes);
+                mDraw.updateValidTopcodesList(topCodes, marks);
             }
 
             mDraw.postInvalidate();
@@ -537,6 +750,14 @@ public class CameraAbstraction extends Activity implements OrientationManager.Or
 
 
 
+    /**
+     * Stops scanning new frames, before the scan results are handed to the next activity
+     */
+    protected void stopScanning() {
+    }
+
+
+
     protected void releaseTopCodesFeedbackPreview() {
 
         mPreview.removeView(mDraw);
@@ -546,7 +767,7 @@ public class CameraAbstraction extends Activity implements OrientationManager.Or
 
     protected void setTopCodesFeedbackPreview(boolean forceSize) {
 
-        mDraw = new DrawView(mContext, mAudienceResponses.getTopCodesValidator(), mImageWidth, mImageHeight, mShowingValidation && mAvoidPartialReadings);
+        mDraw = new DrawView(mContext, mImageWidth, mImageHeight, mShowingValidation && mAvoidPartialReadings);
 
         mPreview.addView(mDraw);
 
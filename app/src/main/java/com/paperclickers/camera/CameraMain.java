@@ -30,6 +30,7 @@ import android.os.Bundle;
 import android.view.Surface;
 import android.view.View;
 import android.view.View.OnClickListener;
+import com.paperclickers.AudienceResponses;
 import com.paperclickers.log;
 import com.paperclickers.overlay.OverlayManager;
 
@@ -49,6 +50,8 @@ public class CameraMain extends CameraAbstraction implements Camera.PreviewCallb
 
 	private OverlayManager mOverlayManager = null;
 
+	private ScanThread mScanThread = null;
+
 
 
 	/** A safe way to get an instance of the Camera object. */
@@ -104,7 +107,18 @@ public class CameraMain extends CameraAbstraction implements Camera.PreviewCallb
 	
 	@Override
 	public void onPreviewFrame(byte[] data, Camera camera) {
-		onNewFrame(data, true);
+
+		if (mScanThread != null) {
+			mScanThread.publish(data);
+		} else {
+			onNewFrame(data, true);
+
+			// The frame has been completely scanned; its buffer can be filled again
+
+			if (mCameraPreview != null) {
+				mCameraPreview.releasePreviewBuffer(data);
+			}
+		}
 	}
 
 	
@@ -115,6 +129,7 @@ public class CameraMain extends CameraAbstraction implements Camera.PreviewCallb
 
 		setCamera();
 		setCameraPreview();
+		startScanning();
 
 		mOverlayManager.checkAndTurnOnOverlayTimer(OverlayManager.CAPTURE_SCREEN);
 	}
@@ -141,6 +156,12 @@ public class CameraMain extends CameraAbstraction implements Camera.PreviewCallb
 	
 	private void releaseCamera() {
 
+		stopScanning();
+
+		if (mCameraPreview != null) {
+			mCameraPreview.releasePreviewBuffers();
+		}
+
 		if (mCamera != null) {
 			mCamera.stopPreview();
 			mCamera.setPreviewCallback(null);
@@ -159,6 +180,47 @@ public class CameraMain extends CameraAbstraction implements Camera.PreviewCallb
 
 
 	
+	private void startScanning() {
+
+		if (CameraAbstraction.USE_SCAN_THREAD && (mScanThread == null) && (mCameraPreview != null)) {
+
+			final CameraPreview cameraPreview = mCameraPreview;
+
+			mScanThread = new ScanThread(new ScanThread.FrameScanner() {
+
+				@Override
+				public void scanFrame(byte[] frame) {
+					if (AudienceResponses.PIPELINED_SCANNING) {
+						onNewFrameToPipeline(frame, true);
+					} else {
+						onNewFrameOnScanThread(frame, true);
+					}
+				}
+
+				@Override
+				public void releaseFrame(byte[] frame) {
+					cameraPreview.releasePreviewBuffer(frame);
+				}
+			});
+
+			mScanThread.start();
+		}
+	}
+
+
+
+	@Override
+	protected void stopScanning() {
+
+		if (mScanThread != null) {
+			mScanThread.shutdown();
+
+			mScanThread = null;
+		}
+	}
+
+
+
 	private void setCamera() {
 
 		if (mCamera == null) {
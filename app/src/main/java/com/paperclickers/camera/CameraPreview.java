@@ -42,6 +42,10 @@ import android.view.WindowManager;
 public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
 
 	private static String TAG = "paperclickers.CameraPreview";
+
+	// Use this constant to enable delivering preview frames in the PreviewBufferPool buffers, instead
+	// of a newly allocated one for each frame
+	final static boolean USE_PREVIEW_BUFFER_POOL = true;
 	
 	private Camera mCamera;
 	private Context mContext;
@@ -51,6 +55,8 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
 	
 	private boolean mHasStartedCamera = false;
 
+	private PreviewBufferPool mBufferPool = new PreviewBufferPool();
+
 	
 	
 	public CameraPreview(Context mContext, Camera camera, CameraChangeListener cameraListener) {
@@ -194,7 +200,19 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
             mCamera.setParameters(parameters);
             mCamera.setDisplayOrientation(cameraRotation);
 
-            mCamera.setPreviewCallback((PreviewCallback) mContext);
+            if (USE_PREVIEW_BUFFER_POOL) {
+
+                // A null callback drops the buffers queued for the previous preview size
+
+                mCamera.setPreviewCallbackWithBuffer(null);
+
+                mBufferPool.attach(mCamera);
+
+                mCamera.setPreviewCallbackWithBuffer((PreviewCallback) mContext);
+            } else {
+                mCamera.setPreviewCallback((PreviewCallback) mContext);
+            }
+
             mCamera.setPreviewDisplay(mSurfaceHolder);
 
             mCamera.startPreview();
@@ -212,6 +230,28 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
 	
 	
 	
+	/**
+	 * Gives a preview frame buffer back to the camera, once the frame has been scanned
+	 */
+	public void releasePreviewBuffer(byte[] buffer) {
+
+		if (USE_PREVIEW_BUFFER_POOL) {
+			mBufferPool.release(buffer);
+		}
+	}
+
+
+
+	/**
+	 * Must be called before releasing the camera
+	 */
+	public void releasePreviewBuffers() {
+
+		mBufferPool.detach();
+	}
+
+
+
 	@Override
 	public void surfaceCreated(SurfaceHolder surfaceHolder) {
 
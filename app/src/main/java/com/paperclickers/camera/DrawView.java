@@ -28,10 +28,10 @@ import java.util.List;
 import com.paperclickers.AudienceResponses;
 import com.paperclickers.TopCodeValidator;
 import com.paperclickers.log;
+import com.paperclickers.fiducial.CodesBuffer;
 import com.paperclickers.fiducial.PaperclickersScanner;
 import com.paperclickers.fiducial.TopCode;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Paint;
@@ -41,7 +41,6 @@ import android.graphics.PixelFormat;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.util.DisplayMetrics;
-import android.util.SparseArray;
 import android.view.SurfaceView;
 
 public class DrawView extends SurfaceView {
@@ -59,18 +58,26 @@ public class DrawView extends SurfaceView {
 	final static int REDUCED_TEXT_SIZE = 20;
 	final static int VERY_REDUCED_TEXT_SIZE = 10;
 	
-	private SparseArray<TopCodeValidator> mValidatorsList;
-	
 	private int mWidth;
 	private int mHeight;
 	
+	// Copy of the codes to draw, as the scanners reuse theirs; null until the first update
+	private final CodesBuffer mValidTopcodes = new CodesBuffer();
 	private List<TopCode> mValidTopcodesList;
+
+	// Copy of the marks of the codes to draw, see CodeMarks
+	private final CodeMarks mMarks = new CodeMarks();
 	
 	private Paint mPaintA;
 	private Paint mPaintB;
 	private Paint mPaintC;
 	private Paint mPaintD;
 
+	// Drawing objects reused by every onDraw()
+	private final Paint mTextPaint = new Paint();
+	private final Rect mTextBounds = new Rect();
+	private final RectF mCorners = new RectF();
+
 	private float mStrokeWidth;
 	private float mTextStrokeWidth;
 
@@ -87,7 +94,9 @@ public class DrawView extends SurfaceView {
 		}
 
 
-        RectF corners = new RectF(x - halfWidth,  y - halfHeight, x + halfWidth, y + halfHeight);
+        RectF corners = mCorners;
+
+        corners.set(x - halfWidth,  y - halfHeight, x + halfWidth, y + halfHeight);
         
         if (rounded) {  
         	float roundRadius = halfHeight / 2;
@@ -120,7 +129,6 @@ public class DrawView extends SurfaceView {
 	
 	
 	public DrawView(Context context, 
-	                SparseArray<TopCodeValidator> whichValidatorsList,
 	                int width, 
 	                int height,
 	                boolean showingValidation) {
@@ -129,8 +137,6 @@ public class DrawView extends SurfaceView {
 		init();
 		setWillNotDraw(false);
 		
-		mValidatorsList = whichValidatorsList;
-		
 		mValidTopcodesList = null;
 		
 		mWidth  = width;
@@ -183,42 +189,21 @@ public class DrawView extends SurfaceView {
 	
 	
 		
-	@SuppressLint("DrawAllocation")
 	@Override
-	public void onDraw(Canvas canvas) {
+	public synchronized void onDraw(Canvas canvas) {
 		super.onDraw(canvas);
 		
 		if (mValidTopcodesList != null) {
   
-            Rect textBounds = new Rect();
+            Rect textBounds = mTextBounds;
+
+            textBounds.setEmpty();
 		    
-			for (TopCode topCode : mValidTopcodesList) {
-			    
-			    boolean showingDuplicate = false;
+			for (int i = 0; i < mValidTopcodesList.size(); i++) {
+
+				TopCode topCode = mValidTopcodesList.get(i);
 			    
-				TopCodeValidator whichValidator = mValidatorsList.get(topCode.getCode());
-				
-				int bestAnswer = PaperclickersScanner.ID_NO_ANSWER;
-				
-				if (DRAW_VALIDATION_COUNTDOWN && mShowingValidation) {
-				    
-				    bestAnswer = whichValidator.getDuplicatedAnswerInLastScanCycle();
-				    
-                    log.d(TAG, String.format("Testing duplicate; duplicated last cycle: %d; current topcode: %d", 
-                          bestAnswer, PaperclickersScanner.translateOrientationToID(topCode.getOrientation()))); 
-				    
-				    if ((bestAnswer != PaperclickersScanner.ID_NO_ANSWER) &&
-				        (bestAnswer == PaperclickersScanner.translateOrientationToID(topCode.getOrientation()))) {
-				        
-				        showingDuplicate = true;
-				    } else {
-				        bestAnswer = whichValidator.getLastDetectedAnswer();
-				    }
-				} else {
-				    if (whichValidator != null) {
-				        bestAnswer = whichValidator.getBestValidAnswer();
-				    }
-				}
+				int bestAnswer = mMarks.mAnswers[i];
     								
 				if (bestAnswer != PaperclickersScanner.ID_NO_ANSWER) {
 				
@@ -238,14 +223,16 @@ public class DrawView extends SurfaceView {
 		            case PaperclickersScanner.ID_ANSWER_A:
 		            	drawTriangle(canvas, codeX, codeY, codeDiameter, mPaintA);
 		            	
-		            	textPaint = new Paint(mPaintA);
+		            	textPaint = mTextPaint;
+		            	textPaint.set(mPaintA);
 		            	
 		            	break;
 		            	
 		            case PaperclickersScanner.ID_ANSWER_B:
 		            	drawRectangle(canvas, codeX, codeY, codeDiameter * 0.8f, codeDiameter, false, mPaintB);
 		            	
-                        textPaint = new Paint(mPaintB);
+                        textPaint = mTextPaint;
+                        textPaint.set(mPaintB);
                         
 		            	break;
 		            	
@@ -259,14 +246,16 @@ public class DrawView extends SurfaceView {
 
 		            	canvas.drawCircle(codeX, codeY, codeDiameter, mPaintC);
 		            	
-                        textPaint = new Paint(mPaintC);
+                        textPaint = mTextPaint;
+                        textPaint.set(mPaintC);
                         
 		            	break;
 		            	
 		            case PaperclickersScanner.ID_ANSWER_D:
 		            	drawRectangle(canvas, codeX, codeY, codeDiameter, codeDiameter, true, mPaintD);
 		            	
-                        textPaint = new Paint(mPaintD);
+                        textPaint = mTextPaint;
+                        textPaint.set(mPaintD);
                         
 		            	break;
 		            }
@@ -275,12 +264,14 @@ public class DrawView extends SurfaceView {
 		                
 		                String answerCountdown = null;
 		                
-		                if (showingDuplicate) {
+		                int label = mMarks.mLabels[i];
+
+		                if (label == CodeMarks.LABEL_DUPLICATE) {
 		                    answerCountdown ="X";
-		                } else if (whichValidator.isAnswerValid(bestAnswer)) {
+		                } else if (label == CodeMarks.LABEL_VALID) {
 		                    answerCountdown = "\u2713";
 		                } else {
-		                    answerCountdown = String.valueOf(TopCodeValidator.getCurrentValidationThrehshold() - whichValidator.getAnswerValidationCounter(bestAnswer));
+		                    answerCountdown = String.valueOf(label);
 		                }
 		                    
 		                textPaint.setTextSize(NORMAL_TEXT_SIZE);
@@ -315,7 +306,117 @@ public class DrawView extends SurfaceView {
 	
 	
 	
-	public void updateValidTopcodesList(List<TopCode> whichValidTopcodesList) {
-		mValidTopcodesList = whichValidTopcodesList;
+	/**
+	 * Sets the codes to draw, and their marks - taken from the validators along with them
+	 */
+	public synchronized void updateValidTopcodesList(List<TopCode> whichValidTopcodesList, CodeMarks whichMarks) {
+		mValidTopcodesList = mValidTopcodes.copy(whichValidTopcodesList);
+
+		mMarks.copy(whichMarks);
+	}
+
+
+
+	/**
+	 * What onDraw() shows for each code of a codes list: the answer drawn, ID_NO_ANSWER for none,
+	 * and its label when showing the validation - a countdown, the answer fusion confidence, or
+	 * LABEL_DUPLICATE or LABEL_VALID. The validators are changed by the scanning threads, under
+	 * the AudienceResponses lock, so the marks are read from them under that lock when the codes
+	 * are handed to the UI thread, instead of by onDraw().
+	 */
+	public static class CodeMarks {
+
+		public static final int LABEL_DUPLICATE = Integer.MIN_VALUE;
+		public static final int LABEL_VALID     = Integer.MIN_VALUE + 1;
+
+		int mCount;
+
+		int[] mAnswers = new int[0];
+		int[] mLabels  = new int[0];
+
+
+
+		/**
+		 * Reads the marks of "codes" from "validators", with the validation labels when
+		 * "showingValidation"
+		 */
+		public void mark(List<TopCode> codes, TopCodeValidator validators, boolean showingValidation) {
+
+			setCount(codes.size());
+
+			for (int i = 0; i < mCount; i++) {
+
+				TopCode topCode = codes.get(i);
+
+				boolean showingDuplicate = false;
+
+				int slot = validators.getSlot(topCode.getCode());
+
+				int bestAnswer = PaperclickersScanner.ID_NO_ANSWER;
+
+				if (DRAW_VALIDATION_COUNTDOWN && showingValidation) {
+
+					bestAnswer = validators.getDuplicatedAnswerInLastScanCycle(slot);
+
+					log.d(TAG, String.format("Testing duplicate; duplicated last cycle: %d; current topcode: %d",
+					      bestAnswer, PaperclickersScanner.translateOrientationToID(topCode.getOrientation())));
+
+					if ((bestAnswer != PaperclickersScanner.ID_NO_ANSWER) &&
+					    (bestAnswer == PaperclickersScanner.translateOrientationToID(topCode.getOrientation()))) {
+
+						showingDuplicate = true;
+					} else {
+						bestAnswer = validators.getLastDetectedAnswer(slot);
+					}
+				} else {
+					if (slot != TopCodeValidator.INVALID_SLOT) {
+						bestAnswer = validators.getBestValidAnswer(slot);
+					}
+				}
+
+				int label = LABEL_VALID;
+
+				if (DRAW_VALIDATION_COUNTDOWN && showingValidation && (bestAnswer != PaperclickersScanner.ID_NO_ANSWER)) {
+
+					if (showingDuplicate) {
+						label = LABEL_DUPLICATE;
+					} else if (validators.isAnswerValid(slot, bestAnswer)) {
+						label = LABEL_VALID;
+					} else if (validators.hasAnswerFusion()) {
+
+						// No countdown for the answer fusion: its confidence, in percent
+
+						label = Math.round(100 * validators.getConfidence(slot));
+					} else {
+						label = TopCodeValidator.getCurrentValidationThrehshold() - validators.getAnswerValidationCounter(slot, bestAnswer);
+					}
+				}
+
+				mAnswers[i] = bestAnswer;
+				mLabels[i]  = label;
+			}
+		}
+
+
+
+		public void copy(CodeMarks marks) {
+
+			setCount(marks.mCount);
+
+			System.arraycopy(marks.mAnswers, 0, mAnswers, 0, mCount);
+			System.arraycopy(marks.mLabels, 0, mLabels, 0, mCount);
+		}
+
+
+
+		private void setCount(int count) {
+
+			if (mAnswers.length < count) {
+				mAnswers = new int[count];
+				mLabels  = new int[count];
+			}
+
+			mCount = count;
+		}
 	}
 }
@@ -0,0 +1,112 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+
+import com.paperclickers.log;
+
+/**
+ * Ring of pre-allocated camera preview buffers, handed to the camera through
+ * Camera.addCallbackBuffer(), so that preview frames are delivered without allocating a new
+ * byte[] for each one. Every buffer delivered to the preview callback must be given back with
+ * release() once the frame has been scanned; while all of them are in use, the camera drops the
+ * new frames.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class PreviewBufferPool {
+
+	final static String TAG = "paperclickers.PreviewBufferPool";
+
+	// One buffer being scanned, one ready to be and one being filled by the camera
+	public final static int BUFFERS_COUNT = 3;
+
+
+	private Camera mCamera = null;
+
+	private byte[][] mBuffers = new byte[0][];
+
+
+
+	/**
+	 * Allocates the buffers for the camera negotiated preview size and format, and queues all of
+	 * them to the camera. Must be called after the preview parameters have been set and before
+	 * Camera.setPreviewCallbackWithBuffer(). A new ring is allocated every time - this only
+	 * happens when the preview surface changes - so that a buffer still being scanned can never
+	 * be queued twice.
+	 */
+	public synchronized void attach(Camera camera) {
+
+		Camera.Parameters parameters = camera.getParameters();
+		Camera.Size previewSize      = parameters.getPreviewSize();
+
+		int bufferSize = previewSize.width * previewSize.height * ImageFormat.getBitsPerPixel(parameters.getPreviewFormat()) / 8;
+
+		mBuffers = new byte[BUFFERS_COUNT][];
+
+		for (int i = 0; i < BUFFERS_COUNT; i++) {
+			mBuffers[i] = new byte[bufferSize];
+		}
+
+		log.d(TAG, String.format("Allocated %d preview buffers of %d bytes (%d x %d)", BUFFERS_COUNT, bufferSize, previewSize.width, previewSize.height));
+
+		mCamera = camera;
+
+		for (byte[] buffer : mBuffers) {
+			mCamera.addCallbackBuffer(buffer);
+		}
+	}
+
+
+
+	/**
+	 * Stops handing buffers back to the camera, which is about to be released
+	 */
+	public synchronized void detach() {
+		mCamera = null;
+	}
+
+
+
+	/**
+	 * Gives a buffer delivered to the preview callback back to the camera. Buffers from a
+	 * previous ring are dropped.
+	 */
+	public synchronized void release(byte[] buffer) {
+
+		if (mCamera == null) {
+			return;
+		}
+
+		for (byte[] pooled : mBuffers) {
+			if (pooled == buffer) {
+				mCamera.addCallbackBuffer(buffer);
+
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.camera;
+
+import com.paperclickers.log;
+
+/**
+ * Scans camera preview frames out of the thread delivering them. Frames are published into a
+ * single slot mailbox: a frame arriving while the previous one is still waiting replaces it, so
+ * the scan always works on the newest frame and the frames dropped follow the actual scan time,
+ * instead of a fixed rate. Every frame, scanned or dropped, is released once done with.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class ScanThread extends Thread {
+
+    final static String TAG = "paperclickers.ScanThread";
+
+
+    public interface FrameScanner {
+
+        /** Scans the frame; called on the scan thread */
+        void scanFrame(byte[] frame);
+
+        /** The frame buffer is no longer needed; called on either thread */
+        void releaseFrame(byte[] frame);
+    }
+
+
+    private final FrameScanner mFrameScanner;
+
+    private byte[] mPendingFrame = null;
+
+    private boolean mRunning = true;
+
+    private int mPublishedCount = 0;
+    private int mDroppedCount   = 0;
+
+
+
+    public ScanThread(FrameScanner frameScanner) {
+
+        super(TAG);
+
+        mFrameScanner = frameScanner;
+    }
+
+
+
+    public synchronized int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+
+
+    public synchronized int getPublishedCount() {
+        return mPublishedCount;
+    }
+
+
+
+    /**
+     * Hands a new frame to the scan thread, dropping the one still waiting, if any
+     */
+    public void publish(byte[] frame) {
+
+        byte[] staleFrame;
+
+        synchronized (this) {
+            if (!mRunning) {
+                staleFrame = frame;
+            } else {
+                staleFrame = mPendingFrame;
+
+                mPendingFrame = frame;
+                mPublishedCount++;
+
+                if (staleFrame != null) {
+                    mDroppedCount++;
+                }
+
+                notify();
+            }
+        }
+
+        if (staleFrame != null) {
+            mFrameScanner.releaseFrame(staleFrame);
+        }
+    }
+
+
+
+    @Override
+    public void run() {
+
+        while (true) {
+
+            byte[] frame;
+
+            synchronized (this) {
+                while (mRunning && (mPendingFrame == null)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        mRunning = false;
+                    }
+                }
+
+                if (!mRunning) {
+                    break;
+                }
+
+                frame = mPendingFrame;
+
+                mPendingFrame = null;
+            }
+
+            mFrameScanner.scanFrame(frame);
+            mFrameScanner.releaseFrame(frame);
+        }
+
+        byte[] frame;
+
+        synchronized (this) {
+            frame = mPendingFrame;
+
+            mPendingFrame = null;
+        }
+
+        if (frame != null) {
+            mFrameScanner.releaseFrame(frame);
+        }
+
+        log.d(TAG, String.format("Scan thread finished. Frames published: %d, dropped: %d", mPublishedCount, mDroppedCount));
+    }
+
+
+
+    /**
+     * Stops the scan thread, waiting for the frame being scanned, if any
+     */
+    public void shutdown() {
+
+        synchronized (this) {
+            mRunning = false;
+
+            notify();
+        }
+
+        if (Thread.currentThread() != this) {
+            try {
+                join();
+            } catch (InterruptedException e) {
+                log.e(TAG, "Interrupted while waiting for the scan thread: " + e.toString());
+            }
+        }
+    }
+}
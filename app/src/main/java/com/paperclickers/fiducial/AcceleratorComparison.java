@@ -0,0 +1,184 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import com.paperclickers.log;
+
+import android.content.Context;
+
+
+/**
+ * Runs the RenderScript and the Java accelerators stage by stage over the same frame, logging
+ * each stage time - including the frame loading and retrieval, which is when RenderScript waits
+ * for its kernels - and how many pixels their results differ. Pixels closer to the frame borders
+ * than half the element size are left out, as neither accelerator filters them.
+ *
+ * Enabled by PaperclickersScanner.COMPARE_ACCELERATORS.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+class AcceleratorComparison {
+
+	final static String TAG = "paperclickers.AcceleratorComparison";
+
+	static final int PIXEL_COLOR_MASK = 0x01000000;
+
+	static final int STAGE_MEDIAN     = 0;
+	static final int STAGE_WELLNER    = 1;
+	static final int STAGE_INTEGRAL   = 2;
+	static final int STAGE_MORPHOLOGY = 3;
+
+
+	final int mWidth;
+	final int mHeight;
+
+	final int mBorder;
+
+	final RenderscriptAccelerator mRenderscript;
+	final JavaAccelerator mJava;
+
+	final int[] mRenderscriptFrame;
+	final int[] mJavaFrame;
+
+	// Wellner thresholded frame, the morphological operations input
+	final int[] mThresholdedFrame;
+
+	// Nanoseconds spent in the last runStage(), per accelerator
+	long mRenderscriptTime;
+	long mJavaTime;
+
+
+
+	AcceleratorComparison(Context context, int width, int height, int morphoElementSize) {
+
+		mWidth  = width;
+		mHeight = height;
+
+		mBorder = ScannerEngine.APPLY_MEDIAN_FILTER ? ScannerEngine.MEDIAN_FILTER_HALF_ELEMENT_SIZE : (morphoElementSize - 1) / 2;
+
+		mRenderscript = new RenderscriptAccelerator(context, width, height, morphoElementSize);
+		mJava         = new JavaAccelerator(width, height, morphoElementSize);
+
+		mRenderscriptFrame = new int[width * height];
+		mJavaFrame         = new int[width * height];
+		mThresholdedFrame  = new int[width * height];
+	}
+
+
+
+	void compare(int[] frame) {
+
+		runStage(mRenderscript, frame, STAGE_MEDIAN, mRenderscriptFrame);
+		runStage(mJava, frame, STAGE_MEDIAN, mJavaFrame);
+
+		logStage("median", differences(0xFFFFFFFF));
+
+		runStage(mRenderscript, frame, STAGE_WELLNER, mRenderscriptFrame);
+		runStage(mJava, frame, STAGE_WELLNER, mJavaFrame);
+
+		logStage("wellner threshold", differences(PIXEL_COLOR_MASK));
+
+		System.arraycopy(mJavaFrame, 0, mThresholdedFrame, 0, mThresholdedFrame.length);
+
+		runStage(mRenderscript, frame, STAGE_INTEGRAL, mRenderscriptFrame);
+		runStage(mJava, frame, STAGE_INTEGRAL, mJavaFrame);
+
+		logStage("integral threshold", differences(PIXEL_COLOR_MASK));
+
+		runStage(mRenderscript, mThresholdedFrame, STAGE_MORPHOLOGY, mRenderscriptFrame);
+		runStage(mJava, mThresholdedFrame, STAGE_MORPHOLOGY, mJavaFrame);
+
+		logStage("closing + opening", differences(PIXEL_COLOR_MASK));
+	}
+
+
+
+	void release() {
+		mRenderscript.release();
+		mJava.release();
+	}
+
+
+
+	void runStage(ScannerAccelerator accelerator, int[] input, int stage, int[] output) {
+
+		long start = System.nanoTime();
+
+		accelerator.loadFrame(input);
+
+		switch (stage) {
+			case STAGE_MEDIAN:
+				accelerator.medianFilter();
+				break;
+
+			case STAGE_WELLNER:
+				accelerator.adaptiveThreshold();
+				break;
+
+			case STAGE_INTEGRAL:
+				accelerator.integralThreshold(mWidth / ScannerEngine.INTEGRAL_THRESHOLD_WINDOW_DIVISOR, ScannerEngine.INTEGRAL_THRESHOLD_PERCENTAGE);
+				break;
+
+			default:
+				accelerator.morphoClosing();
+				accelerator.morphoOpening();
+				break;
+		}
+
+		accelerator.retrieveFrame(output);
+
+		long elapsed = System.nanoTime() - start;
+
+		if (accelerator == mRenderscript) {
+			mRenderscriptTime = elapsed;
+		} else {
+			mJavaTime = elapsed;
+		}
+	}
+
+
+
+	int differences(int mask) {
+
+		int count = 0;
+
+		for (int j = mBorder; j < mHeight - mBorder; j++) {
+			for (int i = mBorder + j * mWidth; i < (j + 1) * mWidth - mBorder; i++) {
+				if (((mRenderscriptFrame[i] ^ mJavaFrame[i]) & mask) != 0) {
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+
+
+	void logStage(String stage, int differences) {
+
+		log.d(TAG, String.format("%s: renderscript %.2f ms, java %.2f ms, %d different pixels",
+				stage, mRenderscriptTime / 1e6, mJavaTime / 1e6, differences));
+	}
+}
@@ -0,0 +1,358 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import android.content.Context;
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.renderscript.Script;
+import android.renderscript.Type;
+
+
+/**
+ * RenderScript implementation of the ScannerAccelerator, running the kernels defined in
+ * "morphoOperations.rs".
+ *
+ * The candidates are also scanned by the kernels, so the processed frame stays in its allocation:
+ * only the packed binary pixels, the candidates bitmaps and their counts are copied back.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class RenderscriptAccelerator implements CandidatesAccelerator {
+
+	int mWidth;
+	int mHeight;
+
+	RenderScript mRs = null;
+	ScriptC_morphoOperations mMorphoOperationsScript = null;
+	Allocation mMorphoData = null;
+	Allocation mTmpData = null;
+	Script.LaunchOptions mLaunchOptions = null;
+
+	// Integral threshold summed-area table, and the allocations its rows and columns kernels are launched over
+	Allocation mIntegralImage = null;
+	Allocation mRowsIndex = null;
+	Allocation mColumnsIndex = null;
+
+	// Candidates scan packed allocations - 32 pixels per word - the column words index they are
+	// launched over, and their Java side copies
+	int mPackedWords;
+
+	Allocation mPackedPixels = null;
+	Allocation mHorizontalCandidates = null;
+	Allocation mVerticalCandidates = null;
+	Allocation mHorizontalCounts = null;
+	Allocation mVerticalCounts = null;
+	Allocation mWordsIndex = null;
+
+	int[] mPixelsWords;
+	int[] mHorizontalWords;
+	int[] mVerticalWords;
+	int[] mHorizontalCountsCopy;
+	int[] mVerticalCountsCopy;
+
+
+
+	public RenderscriptAccelerator(Context context, int width, int height, int morphoElementSize) {
+
+		mWidth  = width;
+		mHeight = height;
+
+        mRs = RenderScript.create(context);
+
+        mMorphoOperationsScript = new ScriptC_morphoOperations(mRs);
+
+        mMorphoOperationsScript.set_width(width);
+        mMorphoOperationsScript.set_height(height);
+
+        mLaunchOptions = new Script.LaunchOptions();
+
+        if (ScannerEngine.APPLY_MEDIAN_FILTER) {
+			mMorphoOperationsScript.set_elementSize(ScannerEngine.MEDIAN_FILTER_ELEMENT_SIZE);
+			mMorphoOperationsScript.set_halfElementSize(ScannerEngine.MEDIAN_FILTER_HALF_ELEMENT_SIZE);
+
+            mLaunchOptions.setX(ScannerEngine.MEDIAN_FILTER_HALF_ELEMENT_SIZE, width - ScannerEngine.MEDIAN_FILTER_HALF_ELEMENT_SIZE);
+            mLaunchOptions.setY(ScannerEngine.MEDIAN_FILTER_HALF_ELEMENT_SIZE, height - ScannerEngine.MEDIAN_FILTER_HALF_ELEMENT_SIZE);
+        } else {
+			mMorphoOperationsScript.set_elementSize(morphoElementSize);
+			mMorphoOperationsScript.set_halfElementSize((morphoElementSize - 1)/2);
+
+            mLaunchOptions.setX((morphoElementSize - 1)/2, width - (morphoElementSize - 1)/2);
+            mLaunchOptions.setY((morphoElementSize - 1)/2, height - (morphoElementSize - 1)/2);
+        }
+
+
+        Type.Builder array2DBuilder = new Type.Builder(mRs, Element.U32(mRs));
+
+        array2DBuilder.setX(width);
+        array2DBuilder.setY(height);
+
+        Type array2D = array2DBuilder.create();
+
+        mMorphoData = Allocation.createTyped(mRs, array2D);
+        mTmpData    = Allocation.createTyped(mRs, array2D);
+
+        mRowsIndex = Allocation.createSized(mRs, Element.U32(mRs), height);
+	}
+
+
+
+	@Override
+	public void adaptiveThreshold() {
+
+		mMorphoOperationsScript.set_currentInput(mMorphoData);
+
+		mMorphoOperationsScript.invoke_adaptiveThreshold();
+
+		mRs.finish();
+	}
+
+
+
+	/**
+	 * Two packed words for each of the binary image 64 bits words
+	 */
+	void createCandidatesAllocations(int wordsPerRow) {
+
+		mPackedWords = 2 * wordsPerRow;
+
+		Type.Builder packedBuilder = new Type.Builder(mRs, Element.U32(mRs));
+
+		packedBuilder.setX(mPackedWords);
+		packedBuilder.setY(mHeight);
+
+		Type packed = packedBuilder.create();
+
+		mPackedPixels         = Allocation.createTyped(mRs, packed);
+		mHorizontalCandidates = Allocation.createTyped(mRs, packed);
+		mVerticalCandidates   = Allocation.createTyped(mRs, packed);
+		mHorizontalCounts     = Allocation.createSized(mRs, Element.U32(mRs), mHeight);
+		mVerticalCounts       = Allocation.createSized(mRs, Element.U32(mRs), mPackedWords);
+		mWordsIndex           = Allocation.createSized(mRs, Element.U32(mRs), mPackedWords);
+
+		mPixelsWords          = new int[mPackedWords * mHeight];
+		mHorizontalWords      = new int[mPackedWords * mHeight];
+		mVerticalWords        = new int[mPackedWords * mHeight];
+		mHorizontalCountsCopy = new int[mHeight];
+		mVerticalCountsCopy   = new int[mPackedWords];
+
+		mMorphoOperationsScript.set_packedWords(mPackedWords);
+
+		mMorphoOperationsScript.set_packedPixels(mPackedPixels);
+		mMorphoOperationsScript.set_horizontalCandidates(mHorizontalCandidates);
+		mMorphoOperationsScript.set_verticalCandidates(mVerticalCandidates);
+		mMorphoOperationsScript.set_horizontalCounts(mHorizontalCounts);
+		mMorphoOperationsScript.set_verticalCounts(mVerticalCounts);
+	}
+
+
+
+	@Override
+	public void integralThreshold(int windowSize, int percentage) {
+
+		if (mIntegralImage == null) {
+			Type.Builder integralBuilder = new Type.Builder(mRs, Element.U32(mRs));
+
+			integralBuilder.setX(mWidth + 1);
+			integralBuilder.setY(mHeight + 1);
+
+			mIntegralImage = Allocation.createTyped(mRs, integralBuilder.create());
+			mColumnsIndex  = Allocation.createSized(mRs, Element.U32(mRs), mWidth + 1);
+
+			mMorphoOperationsScript.set_integralImage(mIntegralImage);
+		}
+
+		mMorphoOperationsScript.set_currentInput(mMorphoData);
+		mMorphoOperationsScript.set_integralWindowHalf(windowSize / 2);
+		mMorphoOperationsScript.set_integralPercentage(percentage);
+
+		mMorphoOperationsScript.forEach_integralRows(mRowsIndex);
+		mMorphoOperationsScript.forEach_integralColumns(mColumnsIndex);
+
+		mMorphoOperationsScript.forEach_integralThreshold(mMorphoData, mTmpData);
+
+		// The thresholded frame becomes the current one
+
+		Allocation thresholded = mTmpData;
+
+		mTmpData    = mMorphoData;
+		mMorphoData = thresholded;
+
+		mRs.finish();
+	}
+
+
+
+	@Override
+	public void loadFrame(int[] data) {
+
+		mMorphoData.copyFromUnchecked(data);
+	}
+
+
+
+	@Override
+	public void medianFilter() {
+
+		mMorphoOperationsScript.set_currentInput(mMorphoData);
+		mMorphoOperationsScript.forEach_median(mMorphoData, mTmpData, mLaunchOptions);
+
+		// The filtered frame becomes the current one
+
+		Allocation filtered = mTmpData;
+
+		mTmpData    = mMorphoData;
+		mMorphoData = filtered;
+	}
+
+
+
+	@Override
+	public void morphoClosing() {
+
+		mMorphoOperationsScript.set_currentInput(mMorphoData);
+		mMorphoOperationsScript.forEach_dilation(mMorphoData, mTmpData, mLaunchOptions);
+
+		mMorphoOperationsScript.set_currentInput(mTmpData);
+		mMorphoOperationsScript.forEach_erosion(mTmpData, mMorphoData, mLaunchOptions);
+	}
+
+
+
+	@Override
+	public void morphoOpening() {
+
+		mMorphoOperationsScript.set_currentInput(mMorphoData);
+		mMorphoOperationsScript.forEach_erosion(mMorphoData, mTmpData, mLaunchOptions);
+
+		mMorphoOperationsScript.set_currentInput(mTmpData);
+		mMorphoOperationsScript.forEach_dilation(mTmpData, mMorphoData, mLaunchOptions);
+	}
+
+
+
+	@Override
+	public void release() {
+
+		if (mMorphoData != null) {
+			mMorphoData.destroy();
+
+			mMorphoData = null;
+		}
+
+		if (mTmpData != null) {
+			mTmpData.destroy();
+
+			mTmpData = null;
+		}
+
+		if (mIntegralImage != null) {
+			mIntegralImage.destroy();
+			mColumnsIndex.destroy();
+
+			mIntegralImage = null;
+			mColumnsIndex  = null;
+		}
+
+		if (mPackedPixels != null) {
+			mPackedPixels.destroy();
+			mHorizontalCandidates.destroy();
+			mVerticalCandidates.destroy();
+			mHorizontalCounts.destroy();
+			mVerticalCounts.destroy();
+			mWordsIndex.destroy();
+
+			mPackedPixels         = null;
+			mHorizontalCandidates = null;
+			mVerticalCandidates   = null;
+			mHorizontalCounts     = null;
+			mVerticalCounts       = null;
+			mWordsIndex           = null;
+		}
+
+		if (mRowsIndex != null) {
+			mRowsIndex.destroy();
+
+			mRowsIndex = null;
+		}
+
+        mLaunchOptions = null;
+
+		if (mMorphoOperationsScript != null) {
+			mMorphoOperationsScript.destroy();
+
+			mMorphoOperationsScript = null;
+		}
+
+		if (mRs != null) {
+			mRs.destroy();
+			mRs = null;
+		}
+	}
+
+
+
+	@Override
+	public void retrieveFrame(int[] data) {
+
+		mMorphoData.copyTo(data);
+	}
+
+
+
+	@Override
+	public void scanCandidates(int maxUnit, BinaryImage binary, int[] counts) {
+
+		if (mPackedPixels == null) {
+			createCandidatesAllocations(binary.getWordsPerRow());
+		}
+
+		mMorphoOperationsScript.set_currentInput(mMorphoData);
+		mMorphoOperationsScript.set_maxUnit(maxUnit);
+
+		mMorphoOperationsScript.forEach_scanRows(mRowsIndex);
+		mMorphoOperationsScript.forEach_scanColumns(mWordsIndex);
+
+		mPackedPixels.copyTo(mPixelsWords);
+		mHorizontalCandidates.copyTo(mHorizontalWords);
+		mVerticalCandidates.copyTo(mVerticalWords);
+
+		binary.packFromWords(mPixelsWords, mHorizontalWords, mVerticalWords);
+
+		mHorizontalCounts.copyTo(mHorizontalCountsCopy);
+		mVerticalCounts.copyTo(mVerticalCountsCopy);
+
+		counts[0] = 0;
+		counts[1] = 0;
+
+		for (int count : mHorizontalCountsCopy) {
+			counts[0] += count;
+		}
+
+		for (int count : mVerticalCountsCopy) {
+			counts[1] += count;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * @(#) TopCodeDrawer.java
+ *
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2011 Michael S. Horn
+ *
+ *           Michael S. Horn (michael.horn@tufts.edu)
+ *           Northwestern University
+ *           2120 Campus Drive
+ *           Evanston, IL 60613
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *
+ *
+ * This is the original TopCode.draw() method, moved out of TopCode so the
+ * scanning core does not depend on android.graphics. It keeps the change of
+ * not using Canvas.drawArc(), which was not working properly on Android M;
+ * using Canvas.Path instead.
+ *
+ * The original source can be found at :
+ * 		http://users.eecs.northwestern.edu/~mhorn/topcodes/
+*/
+package com.paperclickers.fiducial;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Paint.Style;
+import android.graphics.Path;
+
+/**
+ * Draws TopCode symbols on an Android Canvas.
+ *
+ * @author Michael Horn
+ */
+public class TopCodeDrawer {
+
+	/**
+	 * Draws the given code with its current location and orientation
+	 */
+	public static void draw(TopCode code, Canvas g) {
+
+		Paint paint = new Paint();
+
+		int bits = code.code;
+		float sweep = 360.0f / TopCode.SECTORS;
+		float a = (-code.orientation * 180 / TopCode.PI);
+		float r = TopCode.WIDTH * 0.5f * code.unit;
+		float x = code.x;
+		float y = code.y;
+
+        paint.setStyle(Style.FILL_AND_STROKE);
+
+		RectF oval = new RectF(x - r, y - r, x + r, y + r);
+		Path data  = new Path();
+
+		paint.setColor(Color.BLACK);
+
+
+		for (int i = 0; i < TopCode.SECTORS; i++) {
+	        if ((bits & 0x1) == 0) {
+	            data.arcTo(oval, i* sweep + a, sweep + 0.1f);
+	            data.lineTo(x, y);
+	        }
+
+	        bits >>= 1;
+		}
+
+        data.close();
+		g.drawPath(data, paint);
+
+		paint.setColor(Color.WHITE);
+		g.drawCircle(x, y, r - code.unit, paint);
+
+		paint.setColor(Color.BLACK);
+		g.drawCircle(x, y, r - code.unit * 2, paint);
+
+		paint.setColor(Color.WHITE);
+		g.drawCircle(x, y, r - code.unit * 3, paint);
+	}
+
+
+
+	private TopCodeDrawer() {
+	}
+}
@@ -45,6 +45,9 @@ public class AnswersLog {
 
 	final static long NO_OPEN_LOG_ENTRY = -1;
 
+	// Room for the sequence number, timestamp and tag columns, ahead of the codes ones
+	final static int LOG_ENTRY_PREFIX_CAPACITY = 64;
+
 	static int mSessionQuestionsSeqNum = 0;
 
 	static long mOpenLogEntryOffset = NO_OPEN_LOG_ENTRY;
@@ -92,7 +95,9 @@ public class AnswersLog {
 			mSessionQuestionsSeqNum = 1;
 		}
         
-        answersLog = new StringBuilder();
+        // A column per code, of no more than 2 characters each
+
+        answersLog = new StringBuilder(LOG_ENTRY_PREFIX_CAPACITY + 2 * com.paperclickers.SettingsActivity.validTopCodes.length);
         
         answersLog.append(mSessionQuestionsSeqNum + "," + getDateTime() + ",");
         
@@ -128,7 +133,7 @@ public class AnswersLog {
     private StringBuilder createLogFileHeader() {
         StringBuilder answersLogHeader;
 
-        answersLogHeader = new StringBuilder();
+        answersLogHeader = new StringBuilder(LOG_ENTRY_PREFIX_CAPACITY + 4 * com.paperclickers.SettingsActivity.validTopCodes.length);
         
         answersLogHeader.append("SEQ,");
 		answersLogHeader.append(mActivityContext.getText(R.string.answerslog_timestamp_header));
@@ -136,7 +141,7 @@ public class AnswersLog {
 		answersLogHeader.append(mActivityContext.getText(R.string.answerslog_tag_header));
 
         for (int i = 0; i < com.paperclickers.SettingsActivity.validTopCodes.length; i++) {
-            answersLogHeader.append("," + (i + 1));
+            answersLogHeader.append(',').append(i + 1);
         }
         
         answersLogHeader.append(System.getProperty("line.separator"));
@@ -13,6 +13,27 @@ uint32_t halfElementSize;
 
 rs_allocation currentInput;
 
+// Integral image threshold: (width + 1) x (height + 1) summed-area table, half window size and percentage below the
+// window average for a pixel to be black
+
+rs_allocation integralImage;
+
+uint32_t integralWindowHalf;
+uint32_t integralPercentage;
+
+// Candidates scan: binary pixels and candidates bitmaps packed 32 pixels per word ("packedWords" per row, an even
+// number, as they are combined into 64 bits words in Java), candidates counts per row and per column word, and the
+// largest bulls-eye unit in pixels
+
+rs_allocation packedPixels;
+rs_allocation horizontalCandidates;
+rs_allocation verticalCandidates;
+rs_allocation horizontalCounts;
+rs_allocation verticalCounts;
+
+uint32_t packedWords;
+int32_t maxUnit;
+
 
 
 void adaptiveThreshold() {
@@ -221,6 +242,252 @@ uint RS_KERNEL erosion(uint in, uint32_t x, uint32_t y) {
 
 
 
+//
+// Integral image threshold (Bradley & Roth). The summed-area table is built by two kernels, one thread per row and
+// then one per column, and the threshold itself is a per pixel kernel - no serial invoke as in adaptiveThreshold().
+//
+
+// Row prefix sums; launched over a "height" sized allocation, x is the row
+
+void RS_KERNEL integralRows(uint in, uint32_t x) {
+
+    uint sum = 0;
+
+    rsSetElementAt_uint(integralImage, 0, 0, x + 1);
+
+    for (uint32_t i = 0; i < width; i++) {
+        sum += (rsGetElementAt_uint(currentInput, i, x) & 0xFF000000) >> 24;
+
+        rsSetElementAt_uint(integralImage, sum, i + 1, x + 1);
+    }
+}
+
+
+
+// Accumulates the row prefix sums down each column; launched over a "width + 1" sized allocation, x is the column
+
+void RS_KERNEL integralColumns(uint in, uint32_t x) {
+
+    uint sum = 0;
+
+    rsSetElementAt_uint(integralImage, 0, x, 0);
+
+    for (uint32_t j = 1; j <= height; j++) {
+        sum += rsGetElementAt_uint(integralImage, x, j);
+
+        rsSetElementAt_uint(integralImage, sum, x, j);
+    }
+}
+
+
+
+uint RS_KERNEL integralThreshold(uint in, uint32_t x, uint32_t y) {
+
+    int32_t left   = max((int32_t) x - (int32_t) integralWindowHalf, 0);
+    int32_t right  = min(x + integralWindowHalf, width - 1) + 1;
+    int32_t top    = max((int32_t) y - (int32_t) integralWindowHalf, 0);
+    int32_t bottom = min(y + integralWindowHalf, height - 1) + 1;
+
+    uint count = (right - left) * (bottom - top);
+
+    uint sum = rsGetElementAt_uint(integralImage, right, bottom) - rsGetElementAt_uint(integralImage, right, top)
+             - rsGetElementAt_uint(integralImage, left, bottom) + rsGetElementAt_uint(integralImage, left, top);
+
+    ulong luma = (in & 0xFF000000) >> 24;
+
+    uint out;
+
+    if (luma * count * 100 <= (ulong) sum * (100 - integralPercentage)) {
+        out = 0;
+    } else {
+        out = PIXEL_COLOR_MASK;
+    }
+
+    return out;
+}
+
+
+
+//
+// Topcodes candidates scan, the same black, white, black state machines as ScannerEngine.scanRowHorizontal() and
+// scanRowVertical(): one thread per row and then one per packed column word, each one writing only its own words of
+// the packed allocations.
+//
+
+static int32_t absolute(int32_t value) {
+    return (value < 0) ? -value : value;
+}
+
+
+
+static bool isBullsEyeRun(int32_t b1, int32_t w1, int32_t b2) {
+
+    return (b1 >= 2 && b2 >= 2)
+        && b1 <= maxUnit && b2 <= maxUnit && w1 <= (maxUnit + maxUnit)
+        && absolute(b1 + b2 - w1) <= (b1 + b2)
+        && absolute(b1 + b2 - w1) <= w1
+        && absolute(b1 - b2) <= b1
+        && absolute(b1 - b2) <= b2;
+}
+
+
+
+static void markCandidate(rs_allocation candidates, int32_t x, int32_t y) {
+
+    uint word = rsGetElementAt_uint(candidates, x >> 5, y);
+
+    rsSetElementAt_uint(candidates, word | (1 << (x & 31)), x >> 5, y);
+}
+
+
+
+// Packs row x and scans it horizontally; launched over a "height" sized allocation. The pixel before the row start is
+// taken as white.
+
+void RS_KERNEL scanRows(uint in, uint32_t x) {
+
+    int32_t level = 0, runStart = 0, b1 = 0, w1 = 0, b2, dk;
+
+    uint count    = 0;
+    uint previous = 1;
+    uint word     = 0;
+
+    for (uint32_t k = 0; k < packedWords; k++) {
+        rsSetElementAt_uint(packedPixels, 0, k, x);
+        rsSetElementAt_uint(horizontalCandidates, 0, k, x);
+    }
+
+    for (int32_t i = 0; i < width; i++) {
+
+        uint current = (rsGetElementAt_uint(currentInput, i, x) & PIXEL_COLOR_MASK) >> 24;
+
+        word |= current << (i & 31);
+
+        if ((i & 31) == 31 || i == width - 1) {
+            rsSetElementAt_uint(packedPixels, word, i >> 5, x);
+
+            word = 0;
+        }
+
+        if (current != previous) {
+
+            if (current == 0) {
+
+                // White to black: first black region, or second one after the bulls-eye
+
+                if (level == 0) {
+                    level = 1;
+                } else {
+                    w1 = i - runStart;
+
+                    level = 3;
+                }
+            } else {
+
+                // Black to white
+
+                if (level == 1) {
+                    b1 = i - runStart;
+
+                    level = 2;
+                } else {
+                    b2 = i - runStart;
+
+                    if (isBullsEyeRun(b1, w1, b2)) {
+                        dk = i - (1 + b2 + (w1 / 2));
+
+                        markCandidate(horizontalCandidates, dk - 1, x);
+                        markCandidate(horizontalCandidates, dk, x);
+                        markCandidate(horizontalCandidates, dk + 1, x);
+
+                        count += 3;
+                    }
+
+                    b1 = b2;
+
+                    level = 2;
+                }
+            }
+
+            runStart = i;
+            previous = current;
+        }
+    }
+
+    rsSetElementAt_uint(horizontalCounts, count, x);
+}
+
+
+
+// Scans the 32 columns of packed word x vertically; launched over a "packedWords" sized allocation. The row before the
+// first one is taken as white.
+
+void RS_KERNEL scanColumns(uint in, uint32_t x) {
+
+    uint count = 0;
+
+    for (uint32_t j = 0; j < height; j++) {
+        rsSetElementAt_uint(verticalCandidates, 0, x, j);
+    }
+
+    int32_t lastColumn = min((x + 1) << 5, width);
+
+    for (int32_t i = x << 5; i < lastColumn; i++) {
+
+        int32_t level = 0, runStart = 0, b1 = 0, w1 = 0, b2, dk;
+
+        uint previous = 1;
+
+        for (int32_t j = 0; j < height; j++) {
+
+            uint current = (rsGetElementAt_uint(currentInput, i, j) & PIXEL_COLOR_MASK) >> 24;
+
+            if (current == previous) {
+                continue;
+            }
+
+            if (current == 0) {
+                if (level == 0) {
+                    level = 1;
+                } else {
+                    w1 = j - runStart;
+
+                    level = 3;
+                }
+            } else {
+                if (level == 1) {
+                    b1 = j - runStart;
+
+                    level = 2;
+                } else {
+                    b2 = j - runStart;
+
+                    if (isBullsEyeRun(b1, w1, b2)) {
+                        dk = j - (1 + b2 + (w1 / 2));
+
+                        markCandidate(verticalCandidates, i, dk - 1);
+                        markCandidate(verticalCandidates, i, dk);
+                        markCandidate(verticalCandidates, i, dk + 1);
+
+                        count += 3;
+                    }
+
+                    b1 = b2;
+
+                    level = 2;
+                }
+            }
+
+            runStart = j;
+            previous = current;
+        }
+    }
+
+    rsSetElementAt_uint(verticalCounts, count, x);
+}
+
+
+
 uint RS_KERNEL median(uint in, uint32_t x, uint32_t y) {
 
     bool hasHit = false;
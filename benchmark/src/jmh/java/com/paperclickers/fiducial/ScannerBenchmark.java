@@ -0,0 +1,537 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Per stage and end to end benchmarks of the ScannerEngine pipeline. Throughput is reported in
+ * operations per second, which for every benchmark is the frames per second that stage alone
+ * would sustain.
+ *
+ * Each stage runs over the exact input it would get inside ScannerEngine.scanProcessing(). No
+ * stage modifies its own input - the threshold writes the packed binary image, the candidates
+ * scans only write the candidates bitmaps and the morphological operations write the working
+ * pixels - so running the pipeline once during setup leaves every stage input in place.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScannerBenchmark {
+
+	static final long FRAME_SEED = 20180224;
+
+	// Frames pushed through the scan pipeline by each endToEndPipelined invocation
+	static final int PIPELINED_FRAMES = 8;
+
+	// Frame budget of endToEndBudgeted, in milliseconds
+	static final int FRAME_BUDGET_MS = 10;
+
+
+	@Param({"640x480", "1280x720", "1920x1080"})
+	public String resolution;
+
+	@Param({"1", "40", "99"})
+	public int codesCount;
+
+
+	ScannerEngine mEngine;
+
+	// Same pipeline, thresholding with the integral image
+	ScannerEngine mIntegralEngine;
+
+	// Same pipeline, split in bands among all the available cores
+	ScannerEngine mParallelEngine;
+
+	// Scanning only the central region, half the frame width and height
+	ScannerEngine mRegionEngine;
+
+	List<ScanRegion> mRegions;
+
+	// Detecting on a half resolution level first, see ScannerEngine.pyramidProcessing()
+	ScannerEngine mPyramidEngine;
+
+	// Filtering and thresholding with the JavaAccelerator kernels
+	ScannerEngine mAcceleratedEngine;
+
+	// The kernels alone, see the accelerator* benchmarks
+	JavaAccelerator mJavaAccelerator;
+
+	// The engine Wellner thresholded frame, the morphological operations input
+	int[] mThresholdedFrame;
+
+	// Decoding within FRAME_BUDGET_MS of each frame start
+	ScannerEngine mBudgetedEngine;
+
+	FrameBudget mFrameBudget;
+
+	// Tracking the codes found by a full scan, instead of scanning
+	ScannerEngine mTrackingEngine;
+
+	List<TopCode> mTrackedCodes;
+
+	// Same pipeline, with consecutive frames overlapping in ScanPipeline stages
+	ScanPipeline mPipeline;
+
+	final Semaphore mPipelineDecoded = new Semaphore(0);
+	final AtomicInteger mPipelineCodes = new AtomicInteger();
+
+	int[] mLumaFrame;
+
+	// The same frame as delivered by the camera, scanned straight from its Y plane
+	byte[] mCameraFrame;
+
+	YuvLumaSource mCameraSource;
+
+
+
+	@Setup(Level.Trial)
+	public void prepareFrames() {
+
+		String[] size = resolution.split("x");
+
+		int width  = Integer.parseInt(size[0]);
+		int height = Integer.parseInt(size[1]);
+
+		mEngine = new ScannerEngine(width, height);
+
+		SyntheticFrames frame = new SyntheticFrames(width, height, codesCount, FRAME_SEED);
+
+		mLumaFrame    = frame.getScannerInput();
+		mCameraFrame  = frame.getCameraFrame();
+		mCameraSource = new YuvLumaSource(mCameraFrame);
+
+		// Run the pipeline stage by stage once, leaving each stage input ready
+
+		mEngine.mLumaSource = new PlaneLumaSource(mLumaFrame);
+		mEngine.adaptiveThreshold();
+
+		mEngine.scanCandidatesHorizontal();
+		mEngine.scanCandidatesVertical();
+
+		mEngine.mMorphology    = new BinaryMorphology(width, height);
+		mEngine.mWorkingPixels = new long[mEngine.binary.mPixels.length];
+
+		mIntegralEngine = new ScannerEngine(width, height);
+
+		mIntegralEngine.setThresholdMode(ScannerEngine.THRESHOLD_INTEGRAL, 0);
+
+		mIntegralEngine.mLumaSource = new PlaneLumaSource(mLumaFrame);
+
+		mParallelEngine = new ScannerEngine(width, height);
+
+		mParallelEngine.setParallelBands(Runtime.getRuntime().availableProcessors());
+
+		mParallelEngine.mLumaSource = new PlaneLumaSource(mLumaFrame);
+
+		mRegionEngine = new ScannerEngine(width, height);
+
+		mRegions = new ArrayList<ScanRegion>();
+
+		mRegions.add(new ScanRegion(width / 4, height / 4, 3 * width / 4, 3 * height / 4));
+
+		mPyramidEngine = new ScannerEngine(width, height);
+
+		mPyramidEngine.setPyramidFactor(2);
+
+		mAcceleratedEngine = new ScannerEngine(width, height);
+
+		mAcceleratedEngine.setAccelerator(new JavaAccelerator(width, height, ScannerEngine.MORPHO_DILATION_STRUCT_SIZE));
+
+		mJavaAccelerator  = new JavaAccelerator(width, height, ScannerEngine.MORPHO_DILATION_STRUCT_SIZE);
+		mThresholdedFrame = new int[mLumaFrame.length];
+
+		mEngine.getThresholdedFrame(mThresholdedFrame);
+
+		mBudgetedEngine = new ScannerEngine(width, height);
+		mFrameBudget    = new FrameBudget(FRAME_BUDGET_MS);
+
+		mTrackingEngine = new ScannerEngine(width, height);
+
+		mTrackedCodes = new ArrayList<TopCode>();
+
+		mTrackingEngine.scanProcessing(mLumaFrame, false, mTrackedCodes, false);
+
+		mPipeline = new ScanPipeline(new ScannerEngine(width, height), new ScannerEngine(width, height), new ScanPipeline.Listener() {
+
+			@Override
+			public void onFrameDecoded(ScanPipeline.Frame frame) {
+				mPipelineCodes.addAndGet(frame.getCodes().size());
+				mPipelineDecoded.release();
+			}
+		});
+	}
+
+
+
+	@TearDown(Level.Trial)
+	public void releaseBands() {
+		mParallelEngine.setParallelBands(0);
+
+		mPipeline.shutdown();
+
+		mAcceleratedEngine.finalize();
+		mJavaAccelerator.release();
+	}
+
+
+
+	@Benchmark
+	public BinaryImage adaptiveThreshold() {
+
+		mEngine.adaptiveThreshold();
+
+		return mEngine.binary;
+	}
+
+
+
+	/**
+	 * Integral image threshold, including building the integral image; compare against
+	 * adaptiveThreshold
+	 */
+	@Benchmark
+	public BinaryImage integralThreshold() {
+
+		mIntegralEngine.adaptiveThreshold();
+
+		return mIntegralEngine.binary;
+	}
+
+
+
+	@Benchmark
+	public int scanCandidatesHorizontal() {
+
+		mEngine.scanCandidatesHorizontal();
+
+		return mEngine.ccount;
+	}
+
+
+
+	@Benchmark
+	public int scanCandidatesVertical() {
+		return mEngine.scanCandidatesVertical();
+	}
+
+
+
+	/**
+	 * Threshold plus both candidates scans in a single pass; compare against the sum of
+	 * adaptiveThreshold, scanCandidatesHorizontal and scanCandidatesVertical
+	 */
+	@Benchmark
+	public int scanCandidatesFused() {
+		return mEngine.scanCandidatesFused(true);
+	}
+
+
+
+	/**
+	 * Threshold plus both candidates scans, split in bands among all the available cores;
+	 * compare against scanCandidatesFused
+	 */
+	@Benchmark
+	public int scanCandidatesBands() {
+		return mParallelEngine.scanCandidatesBands(true);
+	}
+
+
+
+	@Benchmark
+	public long[] morphoDilation() {
+
+		mEngine.morphoDilation();
+
+		return mEngine.mWorkingPixels;
+	}
+
+
+
+	@Benchmark
+	public long[] morphoErosion() {
+
+		mEngine.morphoErosion();
+
+		return mEngine.mWorkingPixels;
+	}
+
+
+
+	/**
+	 * JavaAccelerator Wellner threshold, including loading the frame; compare against
+	 * adaptiveThreshold
+	 */
+	@Benchmark
+	public JavaAccelerator acceleratorAdaptiveThreshold() {
+
+		mJavaAccelerator.loadFrame(mLumaFrame);
+		mJavaAccelerator.adaptiveThreshold();
+
+		return mJavaAccelerator;
+	}
+
+
+
+	/**
+	 * JavaAccelerator integral threshold, including loading the frame; compare against
+	 * integralThreshold
+	 */
+	@Benchmark
+	public JavaAccelerator acceleratorIntegralThreshold() {
+
+		mJavaAccelerator.loadFrame(mLumaFrame);
+		mJavaAccelerator.integralThreshold(mIntegralEngine.mIntegralWindowSize, ScannerEngine.INTEGRAL_THRESHOLD_PERCENTAGE);
+
+		return mJavaAccelerator;
+	}
+
+
+
+	@Benchmark
+	public JavaAccelerator acceleratorMedianFilter() {
+
+		mJavaAccelerator.loadFrame(mLumaFrame);
+		mJavaAccelerator.medianFilter();
+
+		return mJavaAccelerator;
+	}
+
+
+
+	/**
+	 * JavaAccelerator closing plus opening of the thresholded frame, including loading it; compare
+	 * against twice the sum of morphoDilation and morphoErosion
+	 */
+	@Benchmark
+	public JavaAccelerator acceleratorMorphology() {
+
+		mJavaAccelerator.loadFrame(mThresholdedFrame);
+		mJavaAccelerator.morphoClosing();
+		mJavaAccelerator.morphoOpening();
+
+		return mJavaAccelerator;
+	}
+
+
+
+	@Benchmark
+	public List<TopCode> findCodes() {
+		return mEngine.findCodes(false, new ArrayList<TopCode>());
+	}
+
+
+
+	/**
+	 * findCodes with the exhaustive unit and arc adjustments search; compare against findCodes,
+	 * which uses the coarse to fine one
+	 */
+	@Benchmark
+	public List<TopCode> findCodesExhaustive() {
+
+		mEngine.setDecodeSearch(TopCode.SEARCH_EXHAUSTIVE);
+
+		try {
+			return mEngine.findCodes(false, new ArrayList<TopCode>());
+		} finally {
+			mEngine.setDecodeSearch(TopCode.SEARCH_COARSE_TO_FINE);
+		}
+	}
+
+
+
+	@Benchmark
+	public List<TopCode> endToEnd() {
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		mEngine.scanProcessing(mLumaFrame, false, codesFound, false);
+
+		return codesFound;
+	}
+
+
+
+	/**
+	 * Scanning the camera frame Y plane, as the app does; compare against endToEnd, which starts
+	 * from the luma already extracted into a scanner input plane
+	 */
+	@Benchmark
+	public List<TopCode> endToEndCameraFrame() {
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		mEngine.scanProcessing(mCameraSource, false, codesFound, false);
+
+		return codesFound;
+	}
+
+
+
+	@Benchmark
+	public List<TopCode> endToEndIntegral() {
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		mIntegralEngine.scanProcessing(mLumaFrame, false, codesFound, false);
+
+		return codesFound;
+	}
+
+
+
+	@Benchmark
+	public List<TopCode> endToEndParallel() {
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		mParallelEngine.scanProcessing(mLumaFrame, false, codesFound, false);
+
+		return codesFound;
+	}
+
+
+
+	/**
+	 * Scanning a region a quarter of the frame area; compare against endToEnd
+	 */
+	@Benchmark
+	public List<TopCode> endToEndRegion() {
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		mRegionEngine.scanProcessing(mLumaFrame, false, codesFound, mRegions);
+
+		return codesFound;
+	}
+
+
+
+	/**
+	 * Two levels pyramid scan, downsampling by 2; compare against endToEnd
+	 */
+	@Benchmark
+	public List<TopCode> endToEndPyramid() {
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		mPyramidEngine.scanProcessing(mLumaFrame, false, codesFound, false);
+
+		return codesFound;
+	}
+
+
+
+	/**
+	 * Filtering and thresholding with the JavaAccelerator; compare against endToEnd
+	 */
+	@Benchmark
+	public List<TopCode> endToEndJavaAccelerator() {
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		mAcceleratedEngine.scanProcessing(mLumaFrame, false, codesFound, false);
+
+		return codesFound;
+	}
+
+
+
+	/**
+	 * Scanning with a FRAME_BUDGET_MS budget per frame, deferring the candidates left undecoded
+	 * to the next invocation; compare against endToEnd
+	 */
+	@Benchmark
+	public List<TopCode> endToEndBudgeted() {
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		long start = System.nanoTime();
+
+		mBudgetedEngine.setDecodeDeadline(mFrameBudget.getDeadline(start));
+		mBudgetedEngine.scanProcessing(mLumaFrame, false, codesFound, false);
+
+		mFrameBudget.record(System.nanoTime() - start, mBudgetedEngine.getDeferredCount());
+
+		return codesFound;
+	}
+
+
+
+	/**
+	 * Tracking every code found in the frame, instead of scanning it; compare against endToEnd
+	 */
+	@Benchmark
+	public List<TopCode> trackCodes() {
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		mTrackingEngine.trackProcessing(mLumaFrame, false, mTrackedCodes, codesFound);
+
+		return codesFound;
+	}
+
+
+
+	/**
+	 * Sustained throughput of the pipelined scan, including the copy of each camera frame Y plane
+	 * into the pipeline; compare against endToEndCameraFrame
+	 */
+	@Benchmark
+	@OperationsPerInvocation(PIPELINED_FRAMES)
+	public int endToEndPipelined() throws InterruptedException {
+
+		for (int i = 0; i < PIPELINED_FRAMES; i++) {
+			ScanPipeline.Frame frame = mPipeline.acquireFrame();
+
+			System.arraycopy(mCameraFrame, 0, frame.getLuma(), 0, mLumaFrame.length);
+
+			mPipeline.submitFrame(frame, false, false);
+		}
+
+		mPipelineDecoded.acquire(PIPELINED_FRAMES);
+
+		return mPipelineCodes.get();
+	}
+}
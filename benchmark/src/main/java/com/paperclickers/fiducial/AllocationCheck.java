@@ -0,0 +1,352 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Checks that steady state scans - see ScannerEngine.setSteadyState() - allocate nothing once
+ * warmed up: every scan configuration scans WARMUP_FRAMES frames, and then the bytes allocated by
+ * the scanning threads while it scans MEASURED_FRAMES more are counted. The JVM own threads are
+ * left out, and a round which allocates is measured again, up to MEASURED_ROUNDS times, since
+ * late JIT compilations can still allocate. Reports the bytes allocated per frame by each
+ * configuration in its last round, and exits with an error when any of them allocates in all.
+ *
+ * Run with "./gradlew :benchmark:allocationCheck"; needs a JVM counting the bytes allocated by
+ * each thread, as HotSpot does.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class AllocationCheck {
+
+	static final int FRAME_WIDTH  = 1280;
+	static final int FRAME_HEIGHT = 720;
+
+	static final int CODES_COUNT = 40;
+
+	static final long FRAME_SEED = 20180310;
+
+	static final int PARALLEL_BANDS = 3;
+	static final int PYRAMID_FACTOR = 2;
+
+	static final int WARMUP_FRAMES   = 30;
+	static final int MEASURED_FRAMES = 50;
+	static final int MEASURED_ROUNDS = 3;
+
+	static final String[] SCANS = {"sequential", "bands", "pyramid", "tracking", "pipeline"};
+
+
+	static final com.sun.management.ThreadMXBean sThreads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		if (!sThreads.isThreadAllocatedMemorySupported()) {
+			System.err.println("This JVM does not count the bytes allocated by each thread");
+
+			System.exit(2);
+		}
+
+		sThreads.setThreadAllocatedMemoryEnabled(true);
+
+		// The JVM own threads, besides this one, started before any scan
+
+		long[] jvmThreadIds = sThreads.getAllThreadIds();
+
+		Arrays.sort(jvmThreadIds);
+
+		SyntheticFrames frames = new SyntheticFrames(FRAME_WIDTH, FRAME_HEIGHT, CODES_COUNT, FRAME_SEED);
+
+		boolean allocates = false;
+
+		System.out.println("scan\tbytes/frame\trounds\tcodes");
+
+		for (String scan : SCANS) {
+
+			ScannerEngine engine = new ScannerEngine(FRAME_WIDTH, FRAME_HEIGHT);
+
+			if (scan.equals("bands")) {
+				engine.setParallelBands(PARALLEL_BANDS);
+			} else if (scan.equals("pyramid")) {
+				engine.setPyramidFactor(PYRAMID_FACTOR);
+			}
+
+			engine.setSteadyState(true);
+
+			FrameScan frameScan = scan.equals("pipeline") ? new PipelineScan(engine, frames) : new EngineScan(engine, frames, scan.equals("tracking"));
+
+			for (int i = 0; i < WARMUP_FRAMES; i++) {
+				frameScan.scanFrame();
+			}
+
+			frameScan.drain();
+			engine.drainLog();
+
+			long[] threadIds = scanningThreadIds(jvmThreadIds);
+
+			long allocated;
+			int rounds = 0;
+
+			do {
+				allocated = measureFrames(frameScan, threadIds);
+				rounds++;
+			} while (allocated > 0 && rounds < MEASURED_ROUNDS);
+
+			System.out.println(String.format("%s\t%.1f\t%d\t%d", scan, allocated / (double) MEASURED_FRAMES, rounds, frameScan.getCodesCount()));
+
+			allocates |= (allocated > 0);
+
+			frameScan.release();
+			engine.finalize();
+		}
+
+		System.exit(allocates ? 1 : 0);
+	}
+
+
+
+	/**
+	 * Bytes the given threads allocate while MEASURED_FRAMES frames are scanned
+	 */
+	static long measureFrames(FrameScan frameScan, long[] threadIds) throws InterruptedException {
+
+		long before = allocatedBytes(threadIds);
+
+		// Reading the counters allocates the array they are returned in
+
+		long reading = allocatedBytes(threadIds) - before;
+
+		before += reading;
+
+		for (int i = 0; i < MEASURED_FRAMES; i++) {
+			frameScan.scanFrame();
+		}
+
+		frameScan.drain();
+
+		return allocatedBytes(threadIds) - before - reading;
+	}
+
+
+
+	/**
+	 * Threads scanning: this one and the ones started since jvmThreadIds, sorted, were taken - the
+	 * band workers, the pipeline stages - but not the JVM own threads, as the reference handler,
+	 * which allocate on their own now and then
+	 */
+	static long[] scanningThreadIds(long[] jvmThreadIds) {
+
+		long[] threadIds = sThreads.getAllThreadIds();
+		long[] scanning  = new long[threadIds.length];
+
+		int count = 0;
+
+		for (long id : threadIds) {
+			if (id == Thread.currentThread().getId() || Arrays.binarySearch(jvmThreadIds, id) < 0) {
+				scanning[count++] = id;
+			}
+		}
+
+		return Arrays.copyOf(scanning, count);
+	}
+
+
+
+	/**
+	 * Bytes allocated so far by the given threads, leaving out the ones already finished
+	 */
+	static long allocatedBytes(long[] threadIds) {
+
+		long total = 0;
+
+		for (long bytes : sThreads.getThreadAllocatedBytes(threadIds)) {
+			if (bytes > 0) {
+				total += bytes;
+			}
+		}
+
+		return total;
+	}
+
+
+
+	/**
+	 * One of the scan configurations, scanning the same frame over and over
+	 */
+	static abstract class FrameScan {
+
+		abstract void scanFrame() throws InterruptedException;
+
+		/**
+		 * Waits for the frames being scanned
+		 */
+		void drain() throws InterruptedException {
+		}
+
+		/**
+		 * Codes found by the last frame
+		 */
+		abstract int getCodesCount();
+
+		void release() {
+		}
+	}
+
+
+
+	/**
+	 * Synchronous scan, fully scanning every frame or tracking the codes found as CodeTracker
+	 * chooses
+	 */
+	static class EngineScan extends FrameScan {
+
+		final ScannerEngine mEngine;
+		final int[] mInput;
+
+		final CodeTracker mTracker;
+
+		final List<TopCode> mCodes = new ArrayList<TopCode>();
+
+
+
+		EngineScan(ScannerEngine engine, SyntheticFrames frames, boolean tracking) {
+			mEngine  = engine;
+			mInput   = frames.getScannerInput();
+			mTracker = tracking ? new CodeTracker() : null;
+
+			if (mTracker != null) {
+				mTracker.reserve(CODES_COUNT, 1);
+			}
+		}
+
+
+
+		@Override
+		void scanFrame() {
+
+			mCodes.clear();
+
+			List<TopCode> trackedCodes = (mTracker != null) ? mTracker.nextTrackedCodes() : null;
+
+			if (trackedCodes != null) {
+				mEngine.trackProcessing(mInput, false, trackedCodes, mCodes);
+			} else {
+				mEngine.scanProcessing(mInput, false, mCodes, false);
+			}
+
+			if (mTracker != null) {
+				mTracker.update(trackedCodes, mCodes);
+			}
+		}
+
+
+
+		@Override
+		int getCodesCount() {
+			return mCodes.size();
+		}
+	}
+
+
+
+	/**
+	 * Pipelined scan, with a steady state decode engine; the scan engine is a copy of it
+	 */
+	static class PipelineScan extends FrameScan {
+
+		final ScanPipeline mPipeline;
+		final ScannerEngine mScanEngine;
+
+		final byte[] mCameraFrame;
+
+		final AtomicInteger mSubmittedCount = new AtomicInteger();
+		final AtomicInteger mDecodedCount   = new AtomicInteger();
+
+		volatile int mCodesCount;
+
+
+
+		PipelineScan(ScannerEngine decodeEngine, SyntheticFrames frames) {
+
+			mScanEngine = new ScannerEngine(FRAME_WIDTH, FRAME_HEIGHT);
+			mScanEngine.setSteadyState(true);
+
+			mCameraFrame = frames.getCameraFrame();
+
+			mPipeline = new ScanPipeline(mScanEngine, decodeEngine, new ScanPipeline.Listener() {
+
+				@Override
+				public void onFrameDecoded(ScanPipeline.Frame frame) {
+					mCodesCount = frame.getCodes().size();
+
+					mDecodedCount.incrementAndGet();
+				}
+			});
+		}
+
+
+
+		@Override
+		void scanFrame() throws InterruptedException {
+
+			ScanPipeline.Frame frame = mPipeline.acquireFrame();
+
+			System.arraycopy(mCameraFrame, 0, frame.getLuma(), 0, FRAME_WIDTH * FRAME_HEIGHT);
+
+			mSubmittedCount.incrementAndGet();
+
+			mPipeline.submitFrame(frame, false, false);
+		}
+
+
+
+		@Override
+		void drain() {
+			while (mDecodedCount.get() < mSubmittedCount.get()) {
+				Thread.yield();
+			}
+		}
+
+
+
+		@Override
+		int getCodesCount() {
+			return mCodesCount;
+		}
+
+
+
+		@Override
+		void release() {
+			mPipeline.shutdown();
+			mScanEngine.finalize();
+		}
+	}
+}
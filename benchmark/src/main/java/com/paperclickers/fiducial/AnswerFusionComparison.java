@@ -0,0 +1,364 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Compares the continuous run answer validation - the TopCodeValidator rule, with its moving
+ * threshold - against the LogOddsFusion, replaying the same answers read through both. For each
+ * scan reports the cycle the whole class had an answer at, how many students had an answer at all,
+ * the average cycles each student took from its first reading to an answer, and how many students took a wrong answer first and how
+ * many still had it at the end.
+ *
+ * The answers read can be given as logcat dumps of the app playing back the recorded videos (see
+ * experiments/videos) with AudienceResponses.LOG_ANSWER_OBSERVATIONS enabled, one dump per
+ * argument. The actual answers of a recorded class are not known: each student is taken to have
+ * answered the answer read the most from its card. The class is the codes read in the dump.
+ *
+ * With no arguments, classes are simulated instead: every student shows a card from some cycle up
+ * to ARRIVAL_CYCLES on, which is then read in each cycle with the detection probability, and
+ * misread as any other answer with the misread probability.
+ *
+ * Run with "./gradlew :benchmark:answerFusionComparison [-Pdumps=dump1.txt,dump2.txt]".
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class AnswerFusionComparison {
+
+	static final int[] CLASS_SIZES = {40, 99};
+
+	static final float[] DETECTION_PROBABILITIES = {0.9f, 0.6f, 0.3f};
+
+	static final float[] MISREAD_PROBABILITIES = {0.01f, 0.05f};
+
+	static final int SCAN_CYCLES    = 600;
+	static final int ARRIVAL_CYCLES = 300;
+
+	static final long[] CLASS_SEEDS = {20180320, 20180321, 20180322, 20180323, 20180324};
+
+	// As TopCodeValidator.VALIDATION_THRESHOLD_INCREASE_STEP, the default threshold step
+	static final float VALIDATION_THRESHOLD_STEP = 32;
+
+	static final String[] FUSIONS = {"continuous run", "log-odds"};
+
+	static final Pattern OBSERVATION_PATTERN = Pattern.compile(
+			AnswerFusion.OBSERVATION_LOG_FORMAT.replace("%d", "(\\d+)"));
+
+
+	/**
+	 * Answers read in a scan, in cycle order, as slot, cycle, answer triples, and the actual
+	 * answer of every slot
+	 */
+	static class Scan {
+
+		final int[] mAnswers;
+
+		final List<int[]> mObservations = new ArrayList<int[]>();
+
+
+
+		Scan(int students) {
+			mAnswers = new int[students];
+		}
+	}
+
+
+	/**
+	 * Results of a fusion over some scans, summed
+	 */
+	static class Result {
+
+		int mScans;
+		int mFullClassScans;
+		long mFullClassCycles;
+
+		int mStudents;
+		int mAnsweredStudents;
+		long mCyclesToAnswer;
+
+		int mWrongFirstAnswers;
+		int mWrongFinalAnswers;
+
+
+
+		void add(Scan scan, AnswerFusion fusion) {
+
+			int students = scan.mAnswers.length;
+
+			int[] firstCycles  = new int[students];
+			int[] firstAnswers = new int[students];
+
+			Arrays.fill(firstCycles, -1);
+			Arrays.fill(firstAnswers, AnswerFusion.NO_ANSWER);
+
+			int answered       = 0;
+			int fullClassCycle = -1;
+
+			for (int[] observation : scan.mObservations) {
+
+				int slot  = observation[0];
+				int cycle = observation[1];
+
+				if (firstCycles[slot] < 0) {
+					firstCycles[slot] = cycle;
+				}
+
+				fusion.observe(slot, cycle, observation[2]);
+
+				if (firstAnswers[slot] == AnswerFusion.NO_ANSWER && fusion.getAnswer(slot) != AnswerFusion.NO_ANSWER) {
+
+					firstAnswers[slot] = fusion.getAnswer(slot);
+
+					mCyclesToAnswer += cycle - firstCycles[slot];
+
+					if (++answered == students) {
+						fullClassCycle = cycle;
+					}
+				}
+			}
+
+			mScans++;
+			mStudents         += students;
+			mAnsweredStudents += answered;
+
+			if (fullClassCycle >= 0) {
+				mFullClassScans++;
+				mFullClassCycles += fullClassCycle;
+			}
+
+			for (int slot = 0; slot < students; slot++) {
+
+				if (firstAnswers[slot] == AnswerFusion.NO_ANSWER) {
+					continue;
+				}
+
+				if (firstAnswers[slot] != scan.mAnswers[slot]) {
+					mWrongFirstAnswers++;
+				}
+
+				if (fusion.getAnswer(slot) != scan.mAnswers[slot]) {
+					mWrongFinalAnswers++;
+				}
+			}
+		}
+
+
+
+		@Override
+		public String toString() {
+			return String.format("%s\t%d/%d\t%.1f\t%.1f\t%.2f\t%.2f",
+					(mFullClassScans > 0) ? String.format("%.1f", mFullClassCycles / (double) mFullClassScans) : "-",
+					mFullClassScans, mScans,
+					100.0 * mAnsweredStudents / Math.max(1, mStudents),
+					mCyclesToAnswer / (double) Math.max(1, mAnsweredStudents),
+					100.0 * mWrongFirstAnswers / Math.max(1, mStudents),
+					100.0 * mWrongFinalAnswers / Math.max(1, mStudents));
+		}
+	}
+
+
+
+	public static void main(String[] args) throws IOException {
+
+		System.out.println("scan\tstudents\tfusion\tfull class cycle\tfull class scans\tanswered %\tcycles to answer\twrong first %\twrong final %");
+
+		if (args.length > 0) {
+			for (String dump : args) {
+
+				Scan scan = readDump(dump);
+
+				for (int f = 0; f < FUSIONS.length; f++) {
+
+					Result result = new Result();
+
+					result.add(scan, newFusion(f, scan.mAnswers.length));
+
+					System.out.println(String.format("%s\t%d\t%s\t%s", dump, scan.mAnswers.length, FUSIONS[f], result));
+				}
+			}
+
+			return;
+		}
+
+		for (int students : CLASS_SIZES) {
+			for (float detection : DETECTION_PROBABILITIES) {
+				for (float misread : MISREAD_PROBABILITIES) {
+
+					Result[] results = new Result[FUSIONS.length];
+
+					for (int f = 0; f < FUSIONS.length; f++) {
+						results[f] = new Result();
+					}
+
+					for (long seed : CLASS_SEEDS) {
+
+						Scan scan = simulateScan(students, detection, misread, seed);
+
+						for (int f = 0; f < FUSIONS.length; f++) {
+							results[f].add(scan, newFusion(f, students));
+						}
+					}
+
+					for (int f = 0; f < FUSIONS.length; f++) {
+						System.out.println(String.format("detection %.1f, misread %.2f\t%d\t%s\t%s", detection, misread, students, FUSIONS[f], results[f]));
+					}
+				}
+			}
+		}
+	}
+
+
+
+	static AnswerFusion newFusion(int fusion, int students) {
+		return (fusion == 0) ? new ContinuousRunFusion(students, VALIDATION_THRESHOLD_STEP, true) : new LogOddsFusion(students);
+	}
+
+
+
+	/**
+	 * Reads the answers logged in a logcat dump; repeated readings of a code in a cycle - the
+	 * duplicated cards TopCodeValidator tells apart - are dropped
+	 */
+	static Scan readDump(String fileName) throws IOException {
+
+		Map<Integer, Integer> slots = new HashMap<Integer, Integer>();
+
+		List<int[]> observations = new ArrayList<int[]>();
+		List<int[]> frequencies  = new ArrayList<int[]>();
+		List<Integer> lastCycles = new ArrayList<Integer>();
+
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+
+		try {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+
+				Matcher matcher = OBSERVATION_PATTERN.matcher(line);
+
+				if (!matcher.find()) {
+					continue;
+				}
+
+				int cycle  = Integer.parseInt(matcher.group(1));
+				int code   = Integer.parseInt(matcher.group(2));
+				int answer = Integer.parseInt(matcher.group(3));
+
+				if (answer >= AnswerFusion.ANSWERS) {
+					continue;
+				}
+
+				Integer slot = slots.get(code);
+
+				if (slot == null) {
+					slot = slots.size();
+
+					slots.put(code, slot);
+					frequencies.add(new int[AnswerFusion.ANSWERS]);
+					lastCycles.add(-1);
+				}
+
+				if (lastCycles.get(slot) == cycle) {
+					continue;
+				}
+
+				lastCycles.set(slot, cycle);
+				frequencies.get(slot)[answer]++;
+
+				observations.add(new int[] {slot, cycle, answer});
+			}
+		} finally {
+			reader.close();
+		}
+
+		Scan scan = new Scan(slots.size());
+
+		scan.mObservations.addAll(observations);
+
+		for (int slot = 0; slot < slots.size(); slot++) {
+
+			int[] frequency = frequencies.get(slot);
+
+			int answer = 0;
+
+			for (int i = 1; i < AnswerFusion.ANSWERS; i++) {
+				if (frequency[i] > frequency[answer]) {
+					answer = i;
+				}
+			}
+
+			scan.mAnswers[slot] = answer;
+		}
+
+		return scan;
+	}
+
+
+
+	static Scan simulateScan(int students, float detection, float misread, long seed) {
+
+		Random random = new Random(seed);
+
+		Scan scan = new Scan(students);
+
+		int[] arrivals = new int[students];
+
+		for (int slot = 0; slot < students; slot++) {
+			scan.mAnswers[slot] = random.nextInt(AnswerFusion.ANSWERS);
+
+			arrivals[slot] = random.nextInt(ARRIVAL_CYCLES);
+		}
+
+		for (int cycle = 0; cycle < SCAN_CYCLES; cycle++) {
+			for (int slot = 0; slot < students; slot++) {
+
+				if (cycle < arrivals[slot] || random.nextFloat() >= detection) {
+					continue;
+				}
+
+				int answer = scan.mAnswers[slot];
+
+				if (random.nextFloat() < misread) {
+					answer = (answer + 1 + random.nextInt(AnswerFusion.ANSWERS - 1)) % AnswerFusion.ANSWERS;
+				}
+
+				scan.mObservations.add(new int[] {slot, cycle, answer});
+			}
+		}
+
+		return scan;
+	}
+}
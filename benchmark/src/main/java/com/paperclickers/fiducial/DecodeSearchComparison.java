@@ -0,0 +1,284 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Compares the coarse to fine TopCode decode search against the exhaustive one, over every code
+ * from TopCode.generateCodes() rendered at every 1 degree rotation: each frame is thresholded
+ * once, and its code decoded with both searches. Reports how often they agree on the code, on the
+ * orientation (within ORIENTATION_TOLERANCE) and on the unit (within UNIT_TOLERANCE), the average
+ * orientation error of each search against the rendered one, and their average decode time.
+ *
+ * Every frame is decoded three ways, as in FRAMES: from the rendered center; from a point up to
+ * OFF_CENTRE_UNITS away from it, as the blob centroids of real frames are; and from the rendered
+ * center of the frame with NOISE_AMPLITUDE luma noise added, as a dim classroom frame has.
+ *
+ * Then scans whole classroom frames - SCAN_RESOLUTIONS, with SCAN_CODES_COUNT codes under each
+ * of SCAN_GRADIENTS illumination gradients - with each search, reporting the codes found by
+ * both, as ScannerEngine does.
+ *
+ * Run with "./gradlew :benchmark:decodeSearchComparison".
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class DecodeSearchComparison {
+
+	static final int FRAME_SIZE = 160;
+
+	static final float[] UNITS = {5, 8, 12};
+
+	static final int DEGREES = 360;
+
+	static final long FRAME_SEED = 20180301;
+
+	static final String[] FRAMES = {"centred", "off-centre", "noisy"};
+
+	// Largest distance, in units, from the rendered center the off-centre frames are decoded from
+	static final float OFF_CENTRE_UNITS = 0.4f;
+
+	// Luma noise added to the noisy frames, uniform in [-NOISE_AMPLITUDE, NOISE_AMPLITUDE]
+	static final int NOISE_AMPLITUDE = 48;
+
+	static final String[] SCAN_RESOLUTIONS = {"333x251", "640x480", "1280x720"};
+
+	static final int[] SCAN_CODES_COUNT = {40, 99};
+
+	static final float[] SCAN_GRADIENTS = {0.0f, 0.6f};
+
+	static final long[] SCAN_SEEDS = {1, 7};
+
+	// Two arc adjustments, as the refined search only looks next to its coarse phase
+	static final float ORIENTATION_TOLERANCE = 2 * TopCode.ARC / TopCode.ARC_STEPS;
+
+	// One unit adjustment
+	static final float UNIT_TOLERANCE = 0.05f;
+
+	static final int TIMED_DECODES = 20;
+
+
+
+	public static void main(String[] args) {
+
+		TopCode[] validCodes = TopCode.generateCodes();
+
+		ScannerEngine engine = new ScannerEngine(FRAME_SIZE, FRAME_SIZE);
+
+		SampleCache cache = new SampleCache();
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		System.out.println("frames\tunit\tdecodes\texhaustive read\tcoarse read\tsame code\tsame orientation\tsame unit" +
+				"\texhaustive error\tcoarse error\texhaustive us\tcoarse us");
+
+		for (int frames = 0; frames < FRAMES.length; frames++) {
+			for (float unit : UNITS) {
+
+				Random random = new Random(FRAME_SEED);
+
+				int decodes         = 0;
+				int exhaustiveRead  = 0;
+				int coarseRead      = 0;
+				int sameCode        = 0;
+				int sameOrientation = 0;
+				int sameUnit        = 0;
+
+				double exhaustiveError = 0;
+				double coarseError     = 0;
+
+				long exhaustiveTime = 0;
+				long coarseTime     = 0;
+
+				for (TopCode validCode : validCodes) {
+					for (int degree = 0; degree < DEGREES; degree++) {
+
+						float orientation = (float) Math.toRadians(degree);
+
+						SyntheticFrames frame = new SyntheticFrames(FRAME_SIZE, FRAME_SIZE, validCode.getCode(), unit, orientation, FRAME_SEED + degree);
+
+						int cx = FRAME_SIZE / 2;
+						int cy = FRAME_SIZE / 2;
+
+						if (FRAMES[frames].equals("off-centre")) {
+							double angle    = random.nextDouble() * 2 * Math.PI;
+							double distance = random.nextDouble() * OFF_CENTRE_UNITS * unit;
+
+							cx += (int) Math.round(distance * Math.cos(angle));
+							cy += (int) Math.round(distance * Math.sin(angle));
+						} else if (FRAMES[frames].equals("noisy")) {
+							addNoise(frame.getLuma(), random);
+						}
+
+						// Thresholds the frame into the engine binary image
+
+						codesFound.clear();
+						engine.scanProcessing(frame.getScannerInput(), false, codesFound, false);
+
+						TopCode exhaustive = new TopCode();
+						TopCode coarse     = new TopCode();
+
+						long start = System.nanoTime();
+
+						for (int i = 0; i < TIMED_DECODES; i++) {
+							exhaustive.decode(engine, cx, cy, cache, TopCode.SEARCH_EXHAUSTIVE);
+						}
+
+						exhaustiveTime += System.nanoTime() - start;
+
+						start = System.nanoTime();
+
+						for (int i = 0; i < TIMED_DECODES; i++) {
+							coarse.decode(engine, cx, cy, cache, TopCode.SEARCH_COARSE_TO_FINE);
+						}
+
+						coarseTime += System.nanoTime() - start;
+
+						decodes++;
+
+						boolean exhaustiveValid = exhaustive.isValid() && exhaustive.getCode() == validCode.getCode();
+						boolean coarseValid     = coarse.isValid() && coarse.getCode() == validCode.getCode();
+
+						if (exhaustiveValid) {
+							exhaustiveRead++;
+							exhaustiveError += angleDistance(exhaustive.getOrientation(), orientation);
+						}
+
+						if (coarseValid) {
+							coarseRead++;
+							coarseError += angleDistance(coarse.getOrientation(), orientation);
+						}
+
+						if (exhaustive.getCode() != coarse.getCode()) {
+							System.err.println(String.format("%s, code %d, unit %.0f, %d degrees: exhaustive read %d, coarse read %d",
+									FRAMES[frames], validCode.getCode(), unit, degree, exhaustive.getCode(), coarse.getCode()));
+
+							continue;
+						}
+
+						sameCode++;
+
+						if (angleDistance(exhaustive.getOrientation(), coarse.getOrientation()) <= ORIENTATION_TOLERANCE) {
+							sameOrientation++;
+						}
+
+						if (Math.abs(exhaustive.getDiameter() - coarse.getDiameter()) <= UNIT_TOLERANCE * Math.max(exhaustive.getDiameter(), coarse.getDiameter())) {
+							sameUnit++;
+						}
+					}
+				}
+
+				System.out.println(String.format("%s\t%.0f\t%d\t%d\t%d\t%d\t%d\t%d\t%.4f\t%.4f\t%.2f\t%.2f", FRAMES[frames], unit, decodes,
+						exhaustiveRead, coarseRead, sameCode, sameOrientation, sameUnit,
+						exhaustiveError / Math.max(1, exhaustiveRead), coarseError / Math.max(1, coarseRead),
+						exhaustiveTime / (decodes * TIMED_DECODES * 1e3), coarseTime / (decodes * TIMED_DECODES * 1e3)));
+			}
+		}
+
+		compareFrameScans();
+	}
+
+
+
+	/**
+	 * Codes found by whole frame scans with each search
+	 */
+	static void compareFrameScans() {
+
+		System.out.println("resolution\tcodes\tgradient\trendered\texhaustive found\tcoarse found");
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		for (String resolution : SCAN_RESOLUTIONS) {
+
+			String[] size = resolution.split("x");
+
+			int width  = Integer.parseInt(size[0]);
+			int height = Integer.parseInt(size[1]);
+
+			ScannerEngine exhaustive = new ScannerEngine(width, height);
+			ScannerEngine coarse     = new ScannerEngine(width, height);
+
+			exhaustive.setDecodeSearch(TopCode.SEARCH_EXHAUSTIVE);
+			coarse.setDecodeSearch(TopCode.SEARCH_COARSE_TO_FINE);
+
+			for (int codesCount : SCAN_CODES_COUNT) {
+				for (float gradient : SCAN_GRADIENTS) {
+
+					int rendered        = 0;
+					int exhaustiveFound = 0;
+					int coarseFound     = 0;
+
+					for (long seed : SCAN_SEEDS) {
+
+						SyntheticFrames frame = new SyntheticFrames(width, height, codesCount, seed, gradient);
+
+						rendered += codesCount;
+
+						codesFound.clear();
+						exhaustive.scanProcessing(frame.getScannerInput(), false, codesFound, false);
+
+						exhaustiveFound += codesFound.size();
+
+						codesFound.clear();
+						coarse.scanProcessing(frame.getScannerInput(), false, codesFound, false);
+
+						coarseFound += codesFound.size();
+					}
+
+					System.out.println(String.format("%s\t%d\t%.1f\t%d\t%d\t%d", resolution, codesCount, gradient, rendered, exhaustiveFound, coarseFound));
+				}
+			}
+		}
+	}
+
+
+
+	/**
+	 * Adds uniform noise, up to NOISE_AMPLITUDE each way, to the frame luma
+	 */
+	static void addNoise(byte[] luma, Random random) {
+
+		for (int i = 0; i < luma.length; i++) {
+			int noisy = (luma[i] & 0xff) + random.nextInt(2 * NOISE_AMPLITUDE + 1) - NOISE_AMPLITUDE;
+
+			luma[i] = (byte) Math.max(0, Math.min(255, noisy));
+		}
+	}
+
+
+
+	/**
+	 * Distance between two angles, in radians, from 0 to PI
+	 */
+	static double angleDistance(double a, double b) {
+
+		double distance = Math.abs(a - b) % (2 * Math.PI);
+
+		return Math.min(distance, 2 * Math.PI - distance);
+	}
+}
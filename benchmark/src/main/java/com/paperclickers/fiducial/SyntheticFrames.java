@@ -0,0 +1,340 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Generates synthetic luma frames containing rendered TopCodes, laid out in a grid as students
+ * would be seated in a classroom, each one showing one of the four possible answers.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class SyntheticFrames {
+
+	static final int WHITE_LUMA      = 210;
+	static final int BLACK_LUMA      = 35;
+	static final int BACKGROUND_LUMA = 170;
+	static final int NOISE_AMPLITUDE = 12;
+
+	// Grid cell size in TopCode units: the code itself is 8 units wide, plus some margin around it
+
+	static final int CELL_UNITS = 10;
+
+	static final float MAX_UNIT = 12;
+	static final float MIN_UNIT = 3;
+
+
+	final int mWidth;
+	final int mHeight;
+
+	final byte[] mLuma;
+
+	final int[] mCodes;
+	final int[] mAnswers;
+
+
+
+	/**
+	 * Renders a frame with the first "codesCount" codes from TopCode.generateCodes()
+	 */
+	public SyntheticFrames(int width, int height, int codesCount, long seed) {
+		this(width, height, codesCount, seed, 0);
+	}
+
+
+
+	/**
+	 * Renders a frame with the first "codesCount" codes from TopCode.generateCodes(), under an
+	 * illumination gradient: the light falls linearly from the top left corner, at full
+	 * intensity, to the bottom right one, at (1 - illuminationGradient) of it - as a classroom
+	 * lit by windows on one side.
+	 */
+	public SyntheticFrames(int width, int height, int codesCount, long seed, float illuminationGradient) {
+
+		mWidth  = width;
+		mHeight = height;
+
+		mLuma    = new byte[width * height];
+		mCodes   = new int[codesCount];
+		mAnswers = new int[codesCount];
+
+		TopCode[] validCodes = TopCode.generateCodes();
+
+		int columns = (int) Math.ceil(Math.sqrt(codesCount * (float) width / height));
+		int rows    = (int) Math.ceil(codesCount / (float) columns);
+
+		float cellWidth  = width / (float) columns;
+		float cellHeight = height / (float) rows;
+
+		float unit = Math.min(MAX_UNIT, Math.max(MIN_UNIT, Math.min(cellWidth, cellHeight) / CELL_UNITS));
+
+		Random random = new Random(seed);
+
+		Arrays.fill(mLuma, (byte) BACKGROUND_LUMA);
+
+		for (int i = 0; i < codesCount; i++) {
+			mCodes[i]   = validCodes[i].getCode();
+			mAnswers[i] = i % 4;
+
+			// Small rotation jitter around the answer orientation, as a hand held card would have
+
+			float orientation = (float) (mAnswers[i] * Math.PI / 2.0f + (random.nextFloat() - 0.5f) * 0.2f);
+
+			float centerX = (i % columns) * cellWidth + cellWidth / 2;
+			float centerY = (i / columns) * cellHeight + cellHeight / 2;
+
+			render(mCodes[i], centerX, centerY, unit, orientation);
+		}
+
+		applyLighting(random, illuminationGradient);
+	}
+
+
+
+	/**
+	 * Renders a frame with the first "codesCount" codes from TopCode.generateCodes() as seen in a
+	 * lecture hall: the grid rows get farther from the camera towards the top of the frame, the
+	 * codes unit falling linearly from "nearUnit" on the bottom row to "farUnit" on the top one,
+	 * and the rows height with it.
+	 */
+	public static SyntheticFrames lectureHall(int width, int height, int codesCount, float nearUnit, float farUnit, long seed) {
+
+		SyntheticFrames frame = new SyntheticFrames(width, height, codesCount);
+
+		TopCode[] validCodes = TopCode.generateCodes();
+
+		int columns = (int) Math.ceil(Math.sqrt(codesCount * (float) width / height));
+		int rows    = (int) Math.ceil(codesCount / (float) columns);
+
+		float cellWidth = width / (float) columns;
+
+		float[] rowUnits = new float[rows];
+		float unitsSum   = 0;
+
+		for (int row = 0; row < rows; row++) {
+			rowUnits[row] = (rows > 1) ? farUnit + (nearUnit - farUnit) * row / (rows - 1) : nearUnit;
+			unitsSum     += rowUnits[row];
+		}
+
+		Random random = new Random(seed);
+
+		float rowTop = 0;
+
+		for (int row = 0; row < rows; row++) {
+
+			float rowHeight = height * rowUnits[row] / unitsSum;
+
+			float unit = Math.min(rowUnits[row], Math.min(cellWidth, rowHeight) / CELL_UNITS);
+
+			for (int column = 0; column < columns && row * columns + column < codesCount; column++) {
+
+				int i = row * columns + column;
+
+				frame.mCodes[i]   = validCodes[i].getCode();
+				frame.mAnswers[i] = i % 4;
+
+				float orientation = (float) (frame.mAnswers[i] * Math.PI / 2.0f + (random.nextFloat() - 0.5f) * 0.2f);
+
+				frame.render(frame.mCodes[i], column * cellWidth + cellWidth / 2, rowTop + rowHeight / 2, unit, orientation);
+			}
+
+			rowTop += rowHeight;
+		}
+
+		frame.applyLighting(random, 0);
+
+		return frame;
+	}
+
+
+
+	/**
+	 * Blank frame, with room for "codesCount" codes
+	 */
+	private SyntheticFrames(int width, int height, int codesCount) {
+
+		mWidth  = width;
+		mHeight = height;
+
+		mLuma    = new byte[width * height];
+		mCodes   = new int[codesCount];
+		mAnswers = new int[codesCount];
+
+		Arrays.fill(mLuma, (byte) BACKGROUND_LUMA);
+	}
+
+
+
+	/**
+	 * Renders a frame with a single code at its center, with the given unit and orientation (in
+	 * radians, counter clockwise from the answer 0 position)
+	 */
+	public SyntheticFrames(int width, int height, int code, float unit, float orientation, long seed) {
+
+		mWidth  = width;
+		mHeight = height;
+
+		mLuma    = new byte[width * height];
+		mCodes   = new int[] {code};
+		mAnswers = new int[] {((int) Math.round(orientation / (Math.PI / 2.0f)) % 4 + 4) % 4};
+
+		Arrays.fill(mLuma, (byte) BACKGROUND_LUMA);
+
+		render(code, width / 2.0f, height / 2.0f, unit, orientation);
+
+		applyLighting(new Random(seed), 0);
+	}
+
+
+
+	/**
+	 * Applies the illumination gradient, if any, and the sensor noise over the rendered frame
+	 */
+	void applyLighting(Random random, float illuminationGradient) {
+
+		float diagonal = mWidth + mHeight - 2;
+
+		for (int i = 0; i < mLuma.length; i++) {
+			float light = 1 - illuminationGradient * ((i % mWidth) + (i / mWidth)) / diagonal;
+
+			int value = (int) ((mLuma[i] & 0xff) * light) + random.nextInt(2 * NOISE_AMPLITUDE + 1) - NOISE_AMPLITUDE;
+
+			mLuma[i] = (byte) Math.max(0, Math.min(255, value));
+		}
+	}
+
+
+
+	/**
+	 * Rasterizes a single TopCode: white bulls-eye, black ring, white ring, data ring and white
+	 * quiet zone - following the geometry TopCode.readCode() samples.
+	 */
+	void render(int code, float centerX, float centerY, float unit, float orientation) {
+
+		int radius = (int) Math.ceil(unit * (TopCode.WIDTH / 2 + 1));
+
+		for (int y = (int) centerY - radius; y <= (int) centerY + radius; y++) {
+			for (int x = (int) centerX - radius; x <= (int) centerX + radius; x++) {
+
+				if (x < 0 || y < 0 || x >= mWidth || y >= mHeight) {
+					continue;
+				}
+
+				float dx = x - centerX;
+				float dy = y - centerY;
+
+				float distance = (float) Math.sqrt(dx * dx + dy * dy) / unit;
+
+				int value;
+
+				if (distance < 1 || (distance >= 2 && distance < 3) || distance >= 4) {
+					value = WHITE_LUMA;
+				} else if (distance < 2) {
+					value = BLACK_LUMA;
+				} else {
+					double angle = Math.atan2(dy, dx) - orientation;
+
+					angle = ((angle % (2 * Math.PI)) + 2 * Math.PI) % (2 * Math.PI);
+
+					int sector = ((int) (angle / TopCode.ARC)) % TopCode.SECTORS;
+
+					value = (((code >> sector) & 0x01) == 1) ? WHITE_LUMA : BLACK_LUMA;
+				}
+
+				mLuma[y * mWidth + x] = (byte) value;
+			}
+		}
+	}
+
+
+
+	public int[] getAnswers() {
+		return mAnswers;
+	}
+
+
+
+	public int[] getCodes() {
+		return mCodes;
+	}
+
+
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+
+
+	/**
+	 * Returns the frame as a luma plane, one byte per pixel
+	 */
+	public byte[] getLuma() {
+		return mLuma;
+	}
+
+
+
+	/**
+	 * Returns the frame as a YUV420SP (NV21) camera preview frame: the luma, raised by the video
+	 * black level, on the Y plane, followed by neutral chroma - see YuvLumaSource
+	 */
+	public byte[] getCameraFrame() {
+
+		byte[] frame = new byte[mLuma.length * 3 / 2];
+
+		for (int i = 0; i < mLuma.length; i++) {
+			frame[i] = (byte) Math.min(255, (mLuma[i] & 0xff) + YuvLumaSource.BLACK_LEVEL);
+		}
+
+		Arrays.fill(frame, mLuma.length, frame.length, (byte) 128);
+
+		return frame;
+	}
+
+
+
+	/**
+	 * Returns the frame in the scanner input format: luma on the most significant byte of each pixel
+	 */
+	public int[] getScannerInput() {
+
+		int[] input = new int[mLuma.length];
+
+		for (int i = 0; i < mLuma.length; i++) {
+			input[i] = (mLuma[i] & 0xff) << 24;
+		}
+
+		return input;
+	}
+
+
+
+	public int getWidth() {
+		return mWidth;
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Compares the Wellner and the integral image threshold modes over synthetic frames under
+ * increasing illumination gradients: for each mode, the fraction of the rendered codes detected
+ * with the right answer, and the average end to end scan time.
+ *
+ * Run with "./gradlew :benchmark:thresholdComparison".
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class ThresholdComparison {
+
+	static final String[] RESOLUTIONS = {"640x480", "1280x720", "1920x1080"};
+
+	static final int[] CODES_COUNT = {40, 99};
+
+	static final float[] ILLUMINATION_GRADIENTS = {0.0f, 0.3f, 0.5f, 0.7f};
+
+	static final long[] FRAME_SEEDS = {20180224, 20180225, 20180226};
+
+	static final int WARMUP_SCANS = 5;
+	static final int TIMED_SCANS  = 10;
+
+
+
+	public static void main(String[] args) {
+
+		System.out.println("resolution\tcodes\tgradient\twellner detected\twellner ms\tintegral detected\tintegral ms");
+
+		for (String resolution : RESOLUTIONS) {
+
+			String[] size = resolution.split("x");
+
+			int width  = Integer.parseInt(size[0]);
+			int height = Integer.parseInt(size[1]);
+
+			ScannerEngine wellner  = new ScannerEngine(width, height);
+			ScannerEngine integral = new ScannerEngine(width, height);
+
+			integral.setThresholdMode(ScannerEngine.THRESHOLD_INTEGRAL, 0);
+
+			for (int codesCount : CODES_COUNT) {
+				for (float gradient : ILLUMINATION_GRADIENTS) {
+
+					int rendered         = 0;
+					int wellnerDetected  = 0;
+					int integralDetected = 0;
+
+					double wellnerTime  = 0;
+					double integralTime = 0;
+
+					for (long seed : FRAME_SEEDS) {
+						SyntheticFrames frame = new SyntheticFrames(width, height, codesCount, seed, gradient);
+
+						rendered += codesCount;
+
+						wellnerDetected  += countCorrect(wellner, frame);
+						integralDetected += countCorrect(integral, frame);
+
+						wellnerTime  += timeScan(wellner, frame);
+						integralTime += timeScan(integral, frame);
+					}
+
+					System.out.println(String.format("%s\t%d\t%.1f\t%.3f\t%.2f\t%.3f\t%.2f", resolution, codesCount, gradient,
+							wellnerDetected / (float) rendered, wellnerTime / FRAME_SEEDS.length,
+							integralDetected / (float) rendered, integralTime / FRAME_SEEDS.length));
+				}
+			}
+		}
+	}
+
+
+
+	/**
+	 * Answer of a detected code, with the same orientation quadrants as
+	 * PaperclickersScanner.translateOrientationToID() - which matches the SyntheticFrames answers
+	 */
+	static int answerOf(float orientation) {
+
+		float angle = -orientation;
+
+		if (angle > ((1.0f / 4.0f) * Math.PI) && angle <= ((3.0f / 4.0f) * Math.PI)) {
+			return 3;
+		} else if (angle > ((3.0f / 4.0f) * Math.PI) && angle <= ((5.0f / 4.0f) * Math.PI)) {
+			return 2;
+		} else if (angle > ((5.0f / 4.0f) * Math.PI) && angle <= ((7.0f / 4.0f) * Math.PI)) {
+			return 1;
+		} else {
+			return 0;
+		}
+	}
+
+
+
+	/**
+	 * Number of rendered codes found with their right answer
+	 */
+	static int countCorrect(ScannerEngine engine, SyntheticFrames frame) {
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		engine.scanProcessing(frame.getScannerInput(), false, codesFound, false);
+
+		int[] codes   = frame.getCodes();
+		int[] answers = frame.getAnswers();
+
+		boolean[] found = new boolean[codes.length];
+
+		int correct = 0;
+
+		for (TopCode topCode : codesFound) {
+			for (int i = 0; i < codes.length; i++) {
+				if (!found[i] && codes[i] == topCode.getCode() && answers[i] == answerOf(topCode.getOrientation())) {
+					found[i] = true;
+					correct++;
+
+					break;
+				}
+			}
+		}
+
+		return correct;
+	}
+
+
+
+	/**
+	 * Average end to end scan time, in milliseconds
+	 */
+	static double timeScan(ScannerEngine engine, SyntheticFrames frame) {
+
+		int[] input = frame.getScannerInput();
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		for (int i = 0; i < WARMUP_SCANS; i++) {
+			codesFound.clear();
+			engine.scanProcessing(input, false, codesFound, false);
+		}
+
+		long start = System.nanoTime();
+
+		for (int i = 0; i < TIMED_SCANS; i++) {
+			codesFound.clear();
+			engine.scanProcessing(input, false, codesFound, false);
+		}
+
+		return (System.nanoTime() - start) / (TIMED_SCANS * 1e6);
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+
+/**
+ * Fuses the answers read from each code of the class, scan cycle after scan cycle, into the
+ * answer of its student. Codes are identified by slot, from 0 to the class size minus one, and
+ * answers by their id, from 0 to ANSWERS - 1 - as PaperclickersScanner.ID_ANSWER_A to
+ * ID_ANSWER_D.
+ *
+ * Observations come in increasing scan cycle order; each code is observed at most once per cycle.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public interface AnswerFusion {
+
+	int ANSWERS = 4;
+
+	// No answer yet, as PaperclickersScanner.ID_NO_ANSWER
+	int NO_ANSWER = ANSWERS;
+
+	// Log line of every answer read, with its scan cycle, code and answer, to replay the scans
+	// offline - see AnswerFusionComparison
+	String OBSERVATION_LOG_FORMAT = "Answer observation - cycle: %d, code: %d, answer: %d";
+
+
+
+	/**
+	 * Adds the answer read from the code in "slot" during scan cycle "cycle"
+	 */
+	void observe(int slot, int cycle, int answer);
+
+
+
+	/**
+	 * Sets the answer of a code, as recalled from a previous scan
+	 */
+	void forceAnswer(int slot, int answer);
+
+
+
+	/**
+	 * Answer the code has reached, NO_ANSWER while not confident enough of any
+	 */
+	int getAnswer(int slot);
+
+
+
+	/**
+	 * Confidence, from 0 to 1, on the most likely answer of the code, as of its last observation
+	 */
+	float getConfidence(int slot);
+}
@@ -0,0 +1,74 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+
+/**
+ * Luma of a grey ARGB frame, as the camera emulator bitmaps: taken from the blue channel, the
+ * least significant byte of each pixel, with the video black level taken off as for camera
+ * frames - see YuvLumaSource.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class ArgbLumaSource implements LumaSource {
+
+	int[] mFrame;
+
+
+
+	public ArgbLumaSource() {
+	}
+
+
+
+	public ArgbLumaSource(int[] frame) {
+		mFrame = frame;
+	}
+
+
+
+	public int[] getFrame() {
+		return mFrame;
+	}
+
+
+
+	@Override
+	public void readLuma(int offset, int[] luma, int lumaOffset, int count) {
+
+		int[] frame = mFrame;
+
+		for (int i = 0; i < count; i++) {
+			int y = (frame[offset + i] & 0xff) - YuvLumaSource.BLACK_LEVEL;
+
+			luma[lumaOffset + i] = (y < 0) ? 0 : y;
+		}
+	}
+
+
+
+	public void setFrame(int[] frame) {
+		mFrame = frame;
+	}
+}
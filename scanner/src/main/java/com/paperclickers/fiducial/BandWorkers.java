@@ -0,0 +1,182 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.List;
+
+
+/**
+ * Threads running the ScannerEngine bands tasks, one task per band: the caller runs the first
+ * one itself, each worker thread one of the others. Unlike an executor, dispatching the tasks of
+ * a frame allocates nothing - no futures nor queue nodes - as the workers just wait on this
+ * object for the next generation of tasks.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+class BandWorkers {
+
+	final Thread[] mThreads;
+
+	// Tasks of the current generation, and how many of the worker ones are still running
+	List<Runnable> mTasks;
+	int mGeneration;
+	int mPending;
+
+	Throwable mFailure;
+
+	boolean mShutdown;
+
+
+
+	/**
+	 * Starts the threads for running "bands" tasks at a time
+	 */
+	BandWorkers(int bands) {
+
+		mThreads = new Thread[bands - 1];
+
+		for (int i = 0; i < mThreads.length; i++) {
+			final int task = i + 1;
+
+			mThreads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work(task);
+				}
+			}, "ScannerEngine band");
+
+			mThreads[i].setDaemon(true);
+			mThreads[i].start();
+		}
+	}
+
+
+
+	/**
+	 * Runs "tasks", one per band, returning once all of them are done
+	 */
+	void run(List<Runnable> tasks) {
+
+		synchronized (this) {
+			mTasks   = tasks;
+			mPending = mThreads.length;
+			mFailure = null;
+
+			mGeneration++;
+
+			notifyAll();
+		}
+
+		Throwable failure = null;
+
+		try {
+			tasks.get(0).run();
+		} catch (RuntimeException e) {
+			failure = e;
+		} catch (Error e) {
+			failure = e;
+		}
+
+		synchronized (this) {
+			try {
+				while (mPending > 0) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+
+				throw new IllegalStateException("Interrupted while scanning bands", e);
+			}
+
+			if (failure == null) {
+				failure = mFailure;
+			}
+		}
+
+		if (failure != null) {
+			throw new IllegalStateException("Band scan failed", failure);
+		}
+	}
+
+
+
+	/**
+	 * Lets the worker threads finish, once their current task is done
+	 */
+	synchronized void shutdown() {
+
+		mShutdown = true;
+
+		notifyAll();
+	}
+
+
+
+	void work(int task) {
+
+		int generation = 0;
+
+		while (true) {
+
+			Runnable runnable;
+
+			synchronized (this) {
+				try {
+					while (!mShutdown && mGeneration == generation) {
+						wait();
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				if (mShutdown) {
+					return;
+				}
+
+				generation = mGeneration;
+				runnable   = mTasks.get(task);
+			}
+
+			Throwable failure = null;
+
+			try {
+				runnable.run();
+			} catch (RuntimeException e) {
+				failure = e;
+			} catch (Error e) {
+				failure = e;
+			}
+
+			synchronized (this) {
+				if (failure != null && mFailure == null) {
+					mFailure = failure;
+				}
+
+				if (--mPending == 0) {
+					notifyAll();
+				}
+			}
+		}
+	}
+}
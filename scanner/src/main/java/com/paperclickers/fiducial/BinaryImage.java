@@ -0,0 +1,308 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.Arrays;
+
+
+/**
+ * Bit packed binary image: 64 pixels per long, row major, each row starting on a new word. Pixel x
+ * of a row is bit (x & 63) of word (x >> 6); a set bit is a white pixel.
+ *
+ * Besides the thresholded pixels it holds the horizontal and vertical topcodes candidates
+ * bitmaps, in the same layout.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class BinaryImage {
+
+	public static final int WORD_SHIFT = 6;
+	public static final int WORD_BITS  = 1 << WORD_SHIFT;
+	public static final int WORD_MASK  = WORD_BITS - 1;
+
+
+	final int mWidth;
+	final int mHeight;
+	final int mWordsPerRow;
+
+	// Valid pixels of the last word of each row
+	final long mLastWordMask;
+
+	long[] mPixels;
+	final long[] mHorizontalCandidates;
+	final long[] mVerticalCandidates;
+
+
+
+	public BinaryImage(int width, int height) {
+
+		mWidth       = width;
+		mHeight      = height;
+		mWordsPerRow = (width + WORD_MASK) >> WORD_SHIFT;
+
+		mLastWordMask = ((width & WORD_MASK) == 0) ? -1L : (1L << (width & WORD_MASK)) - 1;
+
+		mPixels               = new long[mWordsPerRow * height];
+		mHorizontalCandidates = new long[mWordsPerRow * height];
+		mVerticalCandidates   = new long[mWordsPerRow * height];
+	}
+
+
+
+	public void clearCandidates() {
+		Arrays.fill(mHorizontalCandidates, 0);
+		Arrays.fill(mVerticalCandidates, 0);
+	}
+
+
+
+	/**
+	 * Number of white pixels in the 3x3 region centered at (x, y); the region must be inside
+	 * the image.
+	 */
+	public int count3x3(int x, int y) {
+
+		int offset = (y - 1) * mWordsPerRow;
+
+		return Long.bitCount(get3(offset, x - 1))
+			 + Long.bitCount(get3(offset + mWordsPerRow, x - 1))
+			 + Long.bitCount(get3(offset + 2 * mWordsPerRow, x - 1));
+	}
+
+
+
+	/**
+	 * Three consecutive pixels of a row starting at x, on the 3 least significant bits
+	 */
+	long get3(int rowOffset, int x) {
+
+		int word  = rowOffset + (x >> WORD_SHIFT);
+		int shift = x & WORD_MASK;
+
+		long bits = mPixels[word] >>> shift;
+
+		if (shift > WORD_BITS - 3) {
+			bits |= mPixels[word + 1] << (WORD_BITS - shift);
+		}
+
+		return bits & 0x7;
+	}
+
+
+
+	/**
+	 * Binary value of pixel (x, y): 0 (black) or 1 (white)
+	 */
+	public int get(int x, int y) {
+		return (int) (mPixels[y * mWordsPerRow + (x >> WORD_SHIFT)] >>> (x & WORD_MASK)) & 0x01;
+	}
+
+
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+
+
+	/**
+	 * Replaces the pixels plane by the given one, of the same size, returning the previous plane
+	 * - for ping-ponging between an operation source and destination without copies.
+	 */
+	long[] swapPixels(long[] pixels) {
+
+		long[] previous = mPixels;
+
+		mPixels = pixels;
+
+		return previous;
+	}
+
+
+
+	public int getWordsPerRow() {
+		return mWordsPerRow;
+	}
+
+
+
+	public boolean isHorizontalCandidate(int x, int y) {
+		return ((mHorizontalCandidates[y * mWordsPerRow + (x >> WORD_SHIFT)] >>> (x & WORD_MASK)) & 0x01) != 0;
+	}
+
+
+
+	public boolean isVerticalCandidate(int x, int y) {
+		return ((mVerticalCandidates[y * mWordsPerRow + (x >> WORD_SHIFT)] >>> (x & WORD_MASK)) & 0x01) != 0;
+	}
+
+
+
+	/**
+	 * For every pixel of word "word" of row y, whether the majority (5 or more) of its 3x3
+	 * neighborhood is white - the same decision as Scanner.getBW3x3(), taken for 64 pixels at
+	 * once with a bit sliced adder. Pixels whose neighborhood is not entirely inside the image
+	 * get meaningless values; callers must mask them out.
+	 */
+	public long majority3x3(int word, int y) {
+
+		int rowOffset = (y - 1) * mWordsPerRow + word;
+
+		// Left, center and right neighbors of the three rows
+
+		long c0 = mPixels[rowOffset];
+		long c1 = mPixels[rowOffset + mWordsPerRow];
+		long c2 = mPixels[rowOffset + 2 * mWordsPerRow];
+
+		long l0 = c0 << 1, l1 = c1 << 1, l2 = c2 << 1;
+		long r0 = c0 >>> 1, r1 = c1 >>> 1, r2 = c2 >>> 1;
+
+		if (word > 0) {
+			l0 |= mPixels[rowOffset - 1] >>> WORD_MASK;
+			l1 |= mPixels[rowOffset + mWordsPerRow - 1] >>> WORD_MASK;
+			l2 |= mPixels[rowOffset + 2 * mWordsPerRow - 1] >>> WORD_MASK;
+		}
+
+		if (word < mWordsPerRow - 1) {
+			r0 |= mPixels[rowOffset + 1] << WORD_MASK;
+			r1 |= mPixels[rowOffset + mWordsPerRow + 1] << WORD_MASK;
+			r2 |= mPixels[rowOffset + 2 * mWordsPerRow + 1] << WORD_MASK;
+		}
+
+		// Full adders over each row: one bits (s) and two bits (c)
+
+		long s0 = l0 ^ c0 ^ r0, k0 = (l0 & c0) | (r0 & (l0 ^ c0));
+		long s1 = l1 ^ c1 ^ r1, k1 = (l1 & c1) | (r1 & (l1 ^ c1));
+		long s2 = l2 ^ c2 ^ r2, k2 = (l2 & c2) | (r2 & (l2 ^ c2));
+
+		long ones  = s0 ^ s1 ^ s2;
+		long kOnes = (s0 & s1) | (s2 & (s0 ^ s1));
+
+		// Count of the four two bits (k0, k1, k2, kOnes): at least 3, or exactly 2 with the one bit set
+
+		long p1 = k0 ^ k1, q1 = k0 & k1;
+		long p2 = k2 ^ kOnes, q2 = k2 & kOnes;
+
+		long atLeast3 = (q1 & q2) | (q1 & p2) | (q2 & p1);
+		long exactly2 = (q1 & ~q2 & ~p2) | (q2 & ~q1 & ~p1) | (p1 & p2);
+
+		return atLeast3 | (exactly2 & ones);
+	}
+
+
+
+	public void markHorizontalCandidate(int x, int y) {
+		mHorizontalCandidates[y * mWordsPerRow + (x >> WORD_SHIFT)] |= 1L << (x & WORD_MASK);
+	}
+
+
+
+	public void markVerticalCandidate(int x, int y) {
+		mVerticalCandidates[y * mWordsPerRow + (x >> WORD_SHIFT)] |= 1L << (x & WORD_MASK);
+	}
+
+
+
+	/**
+	 * Packs a thresholded frame in the scanner int format (binary value on bit 24)
+	 */
+	public void packFrom(int[] data) {
+
+		int k = 0;
+
+		for (int y = 0; y < mHeight; y++) {
+
+			int wordOffset = y * mWordsPerRow;
+
+			for (int word = 0; word < mWordsPerRow; word++) {
+
+				int pixels = Math.min(WORD_BITS, mWidth - (word << WORD_SHIFT));
+				long bits  = 0;
+
+				for (int b = 0; b < pixels; b++) {
+					bits |= ((long) ((data[k++] >> 24) & 0x01)) << b;
+				}
+
+				mPixels[wordOffset + word] = bits;
+			}
+		}
+	}
+
+
+
+	/**
+	 * Sets the pixels and both candidates bitmaps from 32 bits words, the least significant one
+	 * of each long word first - the layout of the candidates accelerators packed frames
+	 */
+	public void packFromWords(int[] pixels, int[] horizontalCandidates, int[] verticalCandidates) {
+		combineWords(pixels, mPixels);
+		combineWords(horizontalCandidates, mHorizontalCandidates);
+		combineWords(verticalCandidates, mVerticalCandidates);
+	}
+
+
+
+	private static void combineWords(int[] words, long[] packed) {
+
+		for (int i = 0; i < packed.length; i++) {
+			packed[i] = (words[2 * i] & 0xFFFFFFFFL) | ((long) words[2 * i + 1] << 32);
+		}
+	}
+
+
+
+	public void set(int x, int y, int value) {
+
+		int word  = y * mWordsPerRow + (x >> WORD_SHIFT);
+		long mask = 1L << (x & WORD_MASK);
+
+		if (value != 0) {
+			mPixels[word] |= mask;
+		} else {
+			mPixels[word] &= ~mask;
+		}
+	}
+
+
+
+	/**
+	 * Unpacks the binary pixels to the scanner int format (binary value on bit 24)
+	 */
+	public void unpackTo(int[] data) {
+
+		int k = 0;
+
+		for (int y = 0; y < mHeight; y++) {
+			for (int x = 0; x < mWidth; x++) {
+				data[k++] = get(x, y) << 24;
+			}
+		}
+	}
+}
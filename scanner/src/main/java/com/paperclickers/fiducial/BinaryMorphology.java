@@ -0,0 +1,279 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+
+/**
+ * Morphological operations over bit packed binary images (BinaryImage pixel planes), with a square
+ * structuring element. As in the RenderScript kernels, dilation and erosion refer to the black
+ * regions: dilation turns a pixel black if any pixel under the element is black, erosion only
+ * keeps it black if all of them are. Pixels outside the image are ignored.
+ *
+ * The square element is separable, so each operation is a row pass followed by a column pass,
+ * both working on 64 pixels at a time:
+ *
+ * - rows: the window is the combination of the pixels reaching "half" pixels to the right and to
+ *   the left, each one built by doubling - combining the row with itself shifted by 1, 2, 4...
+ *   pixels - which takes log2(half + 1) shift steps per word and direction;
+ *
+ * - columns: van Herk / Gil-Werman running minimum (maximum): prefix and suffix combinations
+ *   inside blocks of "size" rows, so every output word takes a single combination whatever the
+ *   element size.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class BinaryMorphology {
+
+	final int mWidth;
+	final int mHeight;
+	final int mWordsPerRow;
+
+	final long mLastWordMask;
+
+	// Row pass output, and the column pass prefix and suffix combinations
+
+	final long[] mRowPass;
+	final long[] mPrefix;
+	final long[] mSuffix;
+
+	// Source row, and ping-pong buffers for the row doubling steps
+
+	final long[] mRowSource;
+	final long[] mRowA;
+	final long[] mRowB;
+
+
+
+	public BinaryMorphology(int width, int height) {
+
+		mWidth       = width;
+		mHeight      = height;
+		mWordsPerRow = (width + BinaryImage.WORD_MASK) >> BinaryImage.WORD_SHIFT;
+
+		mLastWordMask = ((width & BinaryImage.WORD_MASK) == 0) ? -1L : (1L << (width & BinaryImage.WORD_MASK)) - 1;
+
+		mRowPass = new long[mWordsPerRow * height];
+		mPrefix  = new long[mWordsPerRow * height];
+		mSuffix  = new long[mWordsPerRow * height];
+
+		mRowSource = new long[mWordsPerRow];
+
+		mRowA = new long[mWordsPerRow];
+		mRowB = new long[mWordsPerRow];
+	}
+
+
+
+	/**
+	 * Dilation of the black regions of "source" into "destination": a pixel is white only if all
+	 * the pixels under the element are white.
+	 */
+	public void dilate(long[] source, long[] destination, int elementSize) {
+
+		rowPass(source, mRowPass, elementSize, true);
+		columnPass(mRowPass, destination, elementSize, true);
+	}
+
+
+
+	/**
+	 * Erosion of the black regions of "source" into "destination": a pixel is white if any of the
+	 * pixels under the element is white.
+	 */
+	public void erode(long[] source, long[] destination, int elementSize) {
+
+		rowPass(source, mRowPass, elementSize, false);
+		columnPass(mRowPass, destination, elementSize, false);
+	}
+
+
+
+	/**
+	 * Combines (AND or OR) every pixel with its "half" neighbors on each side of the same row
+	 */
+	void rowPass(long[] source, long[] destination, int elementSize, boolean and) {
+
+		int half  = (elementSize - 1) / 2;
+		int words = mWordsPerRow;
+
+		// Pixels outside the row must not change the result
+
+		long fill = and ? -1L : 0;
+
+		for (int j = 0; j < mHeight; j++) {
+
+			int offset = j * words;
+
+			System.arraycopy(source, offset, mRowSource, 0, words);
+
+			mRowSource[words - 1] = (mRowSource[words - 1] & mLastWordMask) | (fill & ~mLastWordMask);
+
+			long[] right = reach(mRowSource, half + 1, 1, fill, and);
+
+			System.arraycopy(right, 0, destination, offset, words);
+
+			long[] left = reach(mRowSource, half + 1, -1, fill, and);
+
+			for (int word = 0; word < words; word++) {
+				destination[offset + word] = and ? destination[offset + word] & left[word] : destination[offset + word] | left[word];
+			}
+
+			destination[offset + words - 1] &= mLastWordMask;
+		}
+	}
+
+
+
+	/**
+	 * Combines every pixel of the row with the next "span - 1" pixels in the given direction (1
+	 * for right, -1 for left), by doubling the combined span at each step. Returns the row
+	 * buffer holding the result, which is only valid until the next call.
+	 */
+	long[] reach(long[] row, int span, int direction, long fill, boolean and) {
+
+		long[] current = row;
+
+		// current[x] combines "combined" pixels starting at x
+
+		int combined = 1;
+
+		while (combined < span) {
+
+			int shift = Math.min(combined, span - combined);
+
+			long[] next = (current == mRowA) ? mRowB : mRowA;
+
+			for (int word = 0; word < mWordsPerRow; word++) {
+				long shifted = shifted(current, word, direction * shift, fill);
+
+				next[word] = and ? current[word] & shifted : current[word] | shifted;
+			}
+
+			current = next;
+
+			combined += shift;
+		}
+
+		return current;
+	}
+
+
+
+	/**
+	 * Combines (AND or OR) every pixel with its "half" neighbors above and below it
+	 */
+	void columnPass(long[] source, long[] destination, int elementSize, boolean and) {
+
+		int half  = (elementSize - 1) / 2;
+		int size  = 2 * half + 1;
+		int words = mWordsPerRow;
+
+		// Prefix combinations, from each block start down to each row
+
+		for (int j = 0; j < mHeight; j++) {
+
+			int k = j * words;
+
+			for (int word = 0; word < words; word++, k++) {
+				if (j % size == 0) {
+					mPrefix[k] = source[k];
+				} else {
+					mPrefix[k] = and ? mPrefix[k - words] & source[k] : mPrefix[k - words] | source[k];
+				}
+			}
+		}
+
+		// Suffix combinations, from each row down to its block end
+
+		for (int j = mHeight - 1; j >= 0; j--) {
+
+			int k = j * words;
+
+			for (int word = 0; word < words; word++, k++) {
+				if (j % size == size - 1 || j == mHeight - 1) {
+					mSuffix[k] = source[k];
+				} else {
+					mSuffix[k] = and ? mSuffix[k + words] & source[k] : mSuffix[k + words] | source[k];
+				}
+			}
+		}
+
+		// Rows j - half to j + half, clipped to the image, span at most two blocks
+
+		for (int j = 0; j < mHeight; j++) {
+
+			int first = j - half;
+			int last  = Math.min(j + half, mHeight - 1);
+
+			int firstOffset = first * words;
+			int lastOffset  = last * words;
+			int offset      = j * words;
+
+			for (int word = 0; word < words; word++) {
+				if (first <= 0) {
+					destination[offset + word] = mPrefix[lastOffset + word];
+				} else if (first / size == last / size) {
+					destination[offset + word] = mSuffix[firstOffset + word];
+				} else if (and) {
+					destination[offset + word] = mSuffix[firstOffset + word] & mPrefix[lastOffset + word];
+				} else {
+					destination[offset + word] = mSuffix[firstOffset + word] | mPrefix[lastOffset + word];
+				}
+			}
+		}
+	}
+
+
+
+	/**
+	 * Pixels x + shift of the row, for the 64 pixels x of word "word"; pixels outside the row read
+	 * as "fill".
+	 */
+	long shifted(long[] row, int word, int shift, long fill) {
+
+		int wordShift = shift >> BinaryImage.WORD_SHIFT;
+		int bitShift  = shift & BinaryImage.WORD_MASK;
+
+		long low = wordAt(row, word + wordShift, fill);
+
+		if (bitShift == 0) {
+			return low;
+		}
+
+		long high = wordAt(row, word + wordShift + 1, fill);
+
+		return (low >>> bitShift) | (high << (BinaryImage.WORD_BITS - bitShift));
+	}
+
+
+
+	long wordAt(long[] row, int word, long fill) {
+
+		if (word < 0 || word >= mWordsPerRow) {
+			return fill;
+		}
+
+		return row[word];
+	}
+}
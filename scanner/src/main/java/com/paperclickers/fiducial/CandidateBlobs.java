@@ -0,0 +1,266 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.Arrays;
+
+
+/**
+ * Connected components (8-connectivity) labelling of the topcodes candidates bitmap, so that each
+ * bulls-eye is decoded once, from its candidates centroid, instead of once per candidate pixel.
+ *
+ * Rows are added in order as packed bit rows; each one is split in runs of consecutive
+ * candidates, and every run is joined (union-find) to the runs of the previous row it touches.
+ * The component root is always its first run, so blobs come out in raster order of their first
+ * pixel - the same order the candidates were tried in before.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+class CandidateBlobs {
+
+	static final int INITIAL_CAPACITY = 256;
+
+
+	// Runs: row, first column, column past the end and union-find parent
+
+	int mRunsCount;
+
+	int[] mRunRow    = new int[INITIAL_CAPACITY];
+	int[] mRunStart  = new int[INITIAL_CAPACITY];
+	int[] mRunEnd    = new int[INITIAL_CAPACITY];
+	int[] mRunParent = new int[INITIAL_CAPACITY];
+
+	// Blob of each root run
+	int[] mRunBlob = new int[INITIAL_CAPACITY];
+
+	// Runs of the previous row still able to touch the next runs of the current row
+
+	int mPreviousRowScan;
+	int mCurrentRowFirst;
+	int mCurrentRow;
+
+	// Blobs: pixels count and coordinates sums, for the centroids
+
+	int mBlobsCount;
+
+	int[]  mBlobPixels = new int[INITIAL_CAPACITY];
+	long[] mBlobSumX   = new long[INITIAL_CAPACITY];
+	long[] mBlobSumY   = new long[INITIAL_CAPACITY];
+
+
+
+	CandidateBlobs() {
+		clear();
+	}
+
+
+
+	/**
+	 * Adds the candidates of the given row, as packed bits; rows must be added in increasing order
+	 */
+	void addRow(int row, long[] bits, int words) {
+
+		if (row == mCurrentRow + 1) {
+			mPreviousRowScan = mCurrentRowFirst;
+		} else {
+			mPreviousRowScan = mRunsCount;
+		}
+
+		mCurrentRowFirst = mRunsCount;
+		mCurrentRow      = row;
+
+		int runStart = -1;
+
+		for (int word = 0; word < words; word++) {
+
+			long current = bits[word];
+			int base     = word << BinaryImage.WORD_SHIFT;
+			int bit      = 0;
+
+			while (bit < BinaryImage.WORD_BITS) {
+
+				if (runStart < 0) {
+					long rest = current >>> bit;
+
+					if (rest == 0) {
+						break;
+					}
+
+					bit += Long.numberOfTrailingZeros(rest);
+
+					runStart = base + bit;
+				}
+
+				long rest = ~current >>> bit;
+
+				if (rest == 0) {
+					break; // the run goes on into the next word
+				}
+
+				bit += Long.numberOfTrailingZeros(rest);
+
+				addRun(runStart, base + bit);
+
+				runStart = -1;
+			}
+		}
+
+		if (runStart >= 0) {
+			addRun(runStart, words << BinaryImage.WORD_SHIFT);
+		}
+	}
+
+
+
+	/**
+	 * Adds a run of the current row, joining it to every run of the previous row it touches
+	 */
+	void addRun(int start, int end) {
+
+		if (mRunsCount == mRunRow.length) {
+			int capacity = 2 * mRunsCount;
+
+			mRunRow    = Arrays.copyOf(mRunRow, capacity);
+			mRunStart  = Arrays.copyOf(mRunStart, capacity);
+			mRunEnd    = Arrays.copyOf(mRunEnd, capacity);
+			mRunParent = Arrays.copyOf(mRunParent, capacity);
+			mRunBlob   = Arrays.copyOf(mRunBlob, capacity);
+		}
+
+		int run = mRunsCount++;
+
+		mRunRow[run]    = mCurrentRow;
+		mRunStart[run]  = start;
+		mRunEnd[run]    = end;
+		mRunParent[run] = run;
+
+		// Previous row runs ending before this one (diagonals included) cannot touch the next ones either
+
+		while (mPreviousRowScan < mCurrentRowFirst && mRunEnd[mPreviousRowScan] < start) {
+			mPreviousRowScan++;
+		}
+
+		for (int previous = mPreviousRowScan; previous < mCurrentRowFirst && mRunStart[previous] <= end; previous++) {
+			union(previous, run);
+		}
+	}
+
+
+
+	void clear() {
+		mRunsCount       = 0;
+		mBlobsCount      = 0;
+		mPreviousRowScan = 0;
+		mCurrentRowFirst = 0;
+		mCurrentRow      = -2;
+	}
+
+
+
+	int find(int run) {
+
+		while (mRunParent[run] != run) {
+			mRunParent[run] = mRunParent[mRunParent[run]];
+
+			run = mRunParent[run];
+		}
+
+		return run;
+	}
+
+
+
+	int getBlobsCount() {
+		return mBlobsCount;
+	}
+
+
+
+	int getCentroidX(int blob) {
+		return (int) ((2 * mBlobSumX[blob] + mBlobPixels[blob]) / (2 * mBlobPixels[blob]));
+	}
+
+
+
+	int getCentroidY(int blob) {
+		return (int) ((2 * mBlobSumY[blob] + mBlobPixels[blob]) / (2 * mBlobPixels[blob]));
+	}
+
+
+
+	/**
+	 * Groups the runs added since clear() in blobs, computing their centroids
+	 */
+	void resolve() {
+
+		mBlobsCount = 0;
+
+		for (int run = 0; run < mRunsCount; run++) {
+
+			int root = find(run);
+
+			if (root == run) {
+				if (mBlobsCount == mBlobPixels.length) {
+					int capacity = 2 * mBlobsCount;
+
+					mBlobPixels = Arrays.copyOf(mBlobPixels, capacity);
+					mBlobSumX   = Arrays.copyOf(mBlobSumX, capacity);
+					mBlobSumY   = Arrays.copyOf(mBlobSumY, capacity);
+				}
+
+				mRunBlob[run] = mBlobsCount;
+
+				mBlobPixels[mBlobsCount] = 0;
+				mBlobSumX[mBlobsCount]   = 0;
+				mBlobSumY[mBlobsCount]   = 0;
+
+				mBlobsCount++;
+			}
+
+			int blob   = mRunBlob[root];
+			int length = mRunEnd[run] - mRunStart[run];
+
+			mBlobPixels[blob] += length;
+			mBlobSumX[blob]   += (long) (mRunStart[run] + mRunEnd[run] - 1) * length / 2;
+			mBlobSumY[blob]   += (long) mRunRow[run] * length;
+		}
+	}
+
+
+
+	/**
+	 * Joins the blobs of the two runs, keeping the earliest root
+	 */
+	void union(int a, int b) {
+
+		int rootA = find(a);
+		int rootB = find(b);
+
+		if (rootA < rootB) {
+			mRunParent[rootB] = rootA;
+		} else if (rootB < rootA) {
+			mRunParent[rootA] = rootB;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+
+/**
+ * ScannerAccelerator that also scans the processed frame for topcodes candidates, so that the
+ * frame does not need to go back to the engine through retrieveFrame(): only the bit packed
+ * binary pixels - needed by the decoder - and the candidates bitmaps are retrieved, a thirty
+ * second of the frame each.
+ *
+ * The candidates must be exactly the ones ScannerEngine.scanCandidatesHorizontal() and
+ * scanCandidatesVertical() would mark on the same frame.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public interface CandidatesAccelerator extends ScannerAccelerator {
+
+	/**
+	 * Scans the current thresholded frame for candidates, with bulls-eye runs up to maxUnit
+	 * pixels, and copies the binary pixels and the horizontal and vertical candidates bitmaps
+	 * into "binary". The horizontal and vertical candidates counts are left in counts[0] and
+	 * counts[1].
+	 */
+	void scanCandidates(int maxUnit, BinaryImage binary, int[] counts);
+}
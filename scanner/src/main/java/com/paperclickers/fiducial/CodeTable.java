@@ -0,0 +1,132 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.Arrays;
+
+
+/**
+ * Direct lookup tables over every word a TopCode data ring can read: its canonical - lowest -
+ * rotation, the rotation steps reaching it, and the slot of its code among the ones enrolled in
+ * the session, so that normalizing a decoded word and rejecting the codes out of the session take
+ * a single array read each.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class CodeTable {
+
+	// Words a data ring can read: one bit per sector
+	public static final int WORDS = 1 << TopCode.SECTORS;
+
+	public static final int NOT_ENROLLED = -1;
+
+	private static final short[] CANONICAL = new short[WORDS];
+	private static final byte[] ROTATION   = new byte[WORDS];
+
+	static {
+		int mask = WORDS - 1;
+
+		for (int word = 0; word < WORDS; word++) {
+
+			int bits = word;
+			int min  = word;
+
+			// Same search as the original TopCode.rotateLowest(): the first rotation reaching the
+			// lowest word wins, and none if it is the word itself
+
+			for (int i = 1; i <= TopCode.SECTORS; i++) {
+
+				bits = (((bits << 1) & mask) | (bits >> (TopCode.SECTORS - 1)));
+
+				if (bits < min) {
+					min = bits;
+					ROTATION[word] = (byte) i;
+				}
+			}
+
+			CANONICAL[word] = (short) min;
+		}
+	}
+
+	// Slot of every word, through its canonical code, or NOT_ENROLLED
+	private final short[] mSlots = new short[WORDS];
+
+	private final int mEnrolledCount;
+
+
+
+	/**
+	 * Enrolls "codes", each one getting its index as slot
+	 */
+	public CodeTable(int[] codes) {
+
+		short[] slotOfCode = new short[WORDS];
+
+		Arrays.fill(slotOfCode, (short) NOT_ENROLLED);
+
+		for (int slot = 0; slot < codes.length; slot++) {
+			slotOfCode[CANONICAL[codes[slot]]] = (short) slot;
+		}
+
+		for (int word = 0; word < WORDS; word++) {
+			mSlots[word] = slotOfCode[CANONICAL[word]];
+		}
+
+		mEnrolledCount = codes.length;
+	}
+
+
+
+	/**
+	 * Lowest rotation of "word"
+	 */
+	public static int canonical(int word) {
+		return CANONICAL[word];
+	}
+
+
+
+	public int getEnrolledCount() {
+		return mEnrolledCount;
+	}
+
+
+
+	/**
+	 * Slot of the code "word" reads, in any rotation, or NOT_ENROLLED when it is not part of the
+	 * session
+	 */
+	public int getSlot(int word) {
+		return mSlots[word];
+	}
+
+
+
+	/**
+	 * Left rotation steps, of one sector each, taking "word" to its canonical rotation
+	 */
+	public static int rotation(int word) {
+		return ROTATION[word];
+	}
+}
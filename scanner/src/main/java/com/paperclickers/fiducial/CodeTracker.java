@@ -0,0 +1,228 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Chooses, frame by frame, between a full ScannerEngine.scanProcessing() and tracking the codes
+ * already found with ScannerEngine.trackProcessing(). Cards held by seated students barely move
+ * between frames, so most frames only need their known codes re-decoded; a full scan runs every
+ * "full scan interval" frames, to find the codes shown meanwhile, and as soon as a tracked code
+ * is lost.
+ *
+ * Safe to use from different threads: a pipelined scan asks for the codes to track when a frame
+ * is submitted and hands the result back when it has been decoded, some frames later.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class CodeTracker {
+
+	public static final int FULL_SCAN_INTERVAL = 8;
+
+
+	int mFullScanInterval = FULL_SCAN_INTERVAL;
+
+	// Codes found by the last frame, full scanned or tracked, in display coordinates
+	final ArrayList<TopCode> mTrackedCodes = new ArrayList<TopCode>();
+
+	// Copies and lists of copies given back by update(), reused by the next copies
+	final ArrayList<TopCode> mSpareCodes = new ArrayList<TopCode>();
+	final ArrayList<List<TopCode>> mSpareLists = new ArrayList<List<TopCode>>();
+
+	int mFramesSinceFullScan = 0;
+
+	boolean mFullScanDue = true;
+
+	int mFullScansCount     = 0;
+	int mTrackedFramesCount = 0;
+	int mLostCount          = 0;
+
+
+
+	public synchronized int getFullScanInterval() {
+		return mFullScanInterval;
+	}
+
+
+
+	public synchronized int getFullScansCount() {
+		return mFullScansCount;
+	}
+
+
+
+	/**
+	 * Tracked frames where some tracked code was lost, each one forcing a full scan
+	 */
+	public synchronized int getLostCount() {
+		return mLostCount;
+	}
+
+
+
+	public synchronized int getTrackedFramesCount() {
+		return mTrackedFramesCount;
+	}
+
+
+
+	/**
+	 * Codes to track in the next frame, or null when it must be fully scanned. The list is a
+	 * copy, which can be handed to trackProcessing() and then back to update(), which recycles it.
+	 */
+	public synchronized List<TopCode> nextTrackedCodes() {
+
+		if (mFullScanDue || mTrackedCodes.isEmpty() || mFramesSinceFullScan >= mFullScanInterval - 1) {
+			mFullScanDue         = false;
+			mFramesSinceFullScan = 0;
+
+			mFullScansCount++;
+
+			return null;
+		}
+
+		mFramesSinceFullScan++;
+		mTrackedFramesCount++;
+
+		List<TopCode> copies = mSpareLists.isEmpty() ? new ArrayList<TopCode>() : mSpareLists.remove(mSpareLists.size() - 1);
+
+		copyCodes(mTrackedCodes, copies);
+
+		return copies;
+	}
+
+
+
+	/**
+	 * Pre-sizes the spare codes and lists for tracking up to codesCount codes, with up to
+	 * listsCount lists from nextTrackedCodes() not yet handed back to update() - one for a
+	 * synchronous scan, up to ScanPipeline.FRAMES_COUNT for a pipelined one - so that a steady
+	 * state scan allocates nothing as the tracked codes count changes, instead of growing them the
+	 * first time it tracks more codes. To be called while no list is out, as after reset().
+	 */
+	public synchronized void reserve(int codesCount, int listsCount) {
+
+		int codesInUse = codesCount * (listsCount + 1);
+
+		mTrackedCodes.ensureCapacity(codesCount);
+		mSpareCodes.ensureCapacity(codesInUse);
+		mSpareLists.ensureCapacity(listsCount);
+
+		while (mSpareCodes.size() + mTrackedCodes.size() < codesInUse) {
+			mSpareCodes.add(new TopCode());
+		}
+
+		mSpareLists.clear();
+
+		for (int i = 0; i < listsCount; i++) {
+			mSpareLists.add(new ArrayList<TopCode>(codesCount));
+		}
+	}
+
+
+
+	/**
+	 * Starts over with a full scan, forgetting the tracked codes; for a new frame size
+	 */
+	public synchronized void reset() {
+
+		mTrackedCodes.clear();
+
+		mFramesSinceFullScan = 0;
+		mFullScanDue         = true;
+	}
+
+
+
+	/**
+	 * One or less fully scans every frame
+	 */
+	public synchronized void setFullScanInterval(int frames) {
+		mFullScanInterval = frames;
+	}
+
+
+
+	/**
+	 * Updates the tracked codes with the result of a frame: the codes found by a full scan, when
+	 * trackedCodes is null, or by tracking trackedCodes, as returned by nextTrackedCodes(). The
+	 * codes found are copied; trackedCodes is recycled, and must not be used afterwards.
+	 */
+	public synchronized void update(List<TopCode> trackedCodes, List<TopCode> codesFound) {
+
+		if (trackedCodes != null) {
+			if (codesFound.size() < trackedCodes.size()) {
+				mFullScanDue = true;
+
+				mLostCount++;
+			}
+
+			recycleCodes(trackedCodes);
+
+			mSpareLists.add(trackedCodes);
+		}
+
+		recycleCodes(mTrackedCodes);
+
+		copyCodes(codesFound, mTrackedCodes);
+	}
+
+
+
+	/**
+	 * Adds copies of "codes" to "copies", reusing the spare codes first
+	 */
+	private void copyCodes(List<TopCode> codes, List<TopCode> copies) {
+
+		for (int i = 0; i < codes.size(); i++) {
+
+			TopCode code = codes.get(i);
+			TopCode copy = mSpareCodes.isEmpty() ? new TopCode() : mSpareCodes.remove(mSpareCodes.size() - 1);
+
+			copy.setCode(code.getCode());
+			copy.setLocation(code.getCenterX(), code.getCenterY());
+			copy.setDiameter(code.getDiameter());
+			copy.setOrientation(code.getOrientation());
+
+			copies.add(copy);
+		}
+	}
+
+
+
+	/**
+	 * Moves the copies in "codes" to the spare ones, emptying the list
+	 */
+	private void recycleCodes(List<TopCode> codes) {
+
+		for (int i = 0; i < codes.size(); i++) {
+			mSpareCodes.add(codes.get(i));
+		}
+
+		codes.clear();
+	}
+}
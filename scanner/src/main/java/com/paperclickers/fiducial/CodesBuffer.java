@@ -0,0 +1,89 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Copy of a codes list, reusing its TopCode copies from one list to the next: steady state scans
+ * (see ScannerEngine.setSteadyState()) reuse the codes they find, so the codes handed to another
+ * thread, or kept after the next scan, must be copied.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class CodesBuffer {
+
+	final List<TopCode> mCodes = new ArrayList<TopCode>();
+
+	// Every copy made so far, the first mCodes.size() ones being in use
+	final List<TopCode> mCopies = new ArrayList<TopCode>();
+
+
+
+	public void clear() {
+		mCodes.clear();
+	}
+
+
+
+	/**
+	 * Replaces the buffer codes with copies of "codes" - their code, location, diameter and
+	 * orientation - returning them
+	 */
+	public List<TopCode> copy(List<TopCode> codes) {
+
+		mCodes.clear();
+
+		for (int i = 0; i < codes.size(); i++) {
+
+			TopCode code = codes.get(i);
+
+			if (i == mCopies.size()) {
+				mCopies.add(new TopCode());
+			}
+
+			TopCode copy = mCopies.get(i);
+
+			copy.setCode(code.getCode());
+			copy.setLocation(code.getCenterX(), code.getCenterY());
+			copy.setDiameter(code.getDiameter());
+			copy.setOrientation(code.getOrientation());
+
+			mCodes.add(copy);
+		}
+
+		return mCodes;
+	}
+
+
+
+	/**
+	 * The codes last copied, valid until the next copy
+	 */
+	public List<TopCode> getCodes() {
+		return mCodes;
+	}
+}
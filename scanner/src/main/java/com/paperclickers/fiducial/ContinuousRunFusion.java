@@ -0,0 +1,162 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.Arrays;
+
+
+/**
+ * The answer validation rule of TopCodeValidator, as an AnswerFusion, so that it can be compared
+ * offline against other fusions: an answer is taken once read in a run of consecutive scan cycles
+ * as long as the validation threshold, and a code takes the valid answer read last. Reading
+ * another answer, or missing a cycle, restarts the run. With the moving threshold, the threshold
+ * grows with the scan cycles: INITIAL_THRESHOLD cycles more every "threshold step" cycles.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class ContinuousRunFusion implements AnswerFusion {
+
+	// As TopCodeValidator INITIAL_VALIDATION_THRESHOLD and MAXIMUM_VALIDATION_THRESHOLD
+	public static final int INITIAL_THRESHOLD = 3;
+	public static final int MAXIMUM_THRESHOLD = 100;
+
+
+	final float mThresholdStep;
+	final boolean mMovingThreshold;
+
+	int mThreshold = INITIAL_THRESHOLD;
+
+	// Consecutive cycles each answer has been read for, and the last cycle it was read at, by
+	// [slot * ANSWERS + answer]
+	final int[] mRuns;
+	final int[] mLastCycles;
+
+	// Valid answers of each code, one bit per answer, and the answer read last
+	final byte[] mValidAnswers;
+	final int[] mPreviousAnswers;
+
+
+
+	public ContinuousRunFusion(int capacity, float thresholdStep, boolean movingThreshold) {
+
+		mThresholdStep   = thresholdStep;
+		mMovingThreshold = movingThreshold;
+
+		mRuns            = new int[capacity * ANSWERS];
+		mLastCycles      = new int[capacity * ANSWERS];
+		mValidAnswers    = new byte[capacity];
+		mPreviousAnswers = new int[capacity];
+
+		Arrays.fill(mLastCycles, -1);
+		Arrays.fill(mPreviousAnswers, NO_ANSWER);
+	}
+
+
+
+	@Override
+	public void forceAnswer(int slot, int answer) {
+		mRuns[slot * ANSWERS + answer] = MAXIMUM_THRESHOLD;
+
+		mValidAnswers[slot] |= 1 << answer;
+	}
+
+
+
+	@Override
+	public int getAnswer(int slot) {
+
+		int answer    = NO_ANSWER;
+		int lastCycle = -1;
+
+		for (int i = 0; i < ANSWERS; i++) {
+			if ((mValidAnswers[slot] & (1 << i)) != 0 && mLastCycles[slot * ANSWERS + i] >= lastCycle) {
+				answer    = i;
+				lastCycle = mLastCycles[slot * ANSWERS + i];
+			}
+		}
+
+		return answer;
+	}
+
+
+
+	/**
+	 * One once the code has a valid answer; otherwise, how far the run of the answer read last
+	 * is from the threshold
+	 */
+	@Override
+	public float getConfidence(int slot) {
+
+		int previous = mPreviousAnswers[slot];
+
+		if (mValidAnswers[slot] != 0) {
+			return 1;
+		} else if (previous == NO_ANSWER) {
+			return 0;
+		}
+
+		return Math.min(1.0f, Math.max(0, mRuns[slot * ANSWERS + previous]) / (float) mThreshold);
+	}
+
+
+
+	public int getThreshold() {
+		return mThreshold;
+	}
+
+
+
+	@Override
+	public void observe(int slot, int cycle, int answer) {
+
+		if (answer == NO_ANSWER) {
+			return;
+		}
+
+		if (mMovingThreshold) {
+			mThreshold = Math.max(mThreshold, (int) Math.floor((float) INITIAL_THRESHOLD / mThresholdStep * cycle));
+		}
+
+		int index = slot * ANSWERS + answer;
+
+		boolean continuous = (cycle == mLastCycles[index] + 1);
+
+		if ((mValidAnswers[slot] & (1 << answer)) == 0) {
+
+			if (mPreviousAnswers[slot] != answer || !continuous) {
+
+				// New answer, or missed cycles: the run starts over
+
+				mRuns[index] = 0;
+			} else if (++mRuns[index] >= mThreshold) {
+				mValidAnswers[slot] |= 1 << answer;
+			}
+		} else {
+			mRuns[index] = continuous ? mRuns[index] + 1 : 0;
+		}
+
+		mLastCycles[index]     = cycle;
+		mPreviousAnswers[slot] = answer;
+	}
+}
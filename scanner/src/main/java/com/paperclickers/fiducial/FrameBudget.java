@@ -0,0 +1,149 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+
+/**
+ * Per frame time budget of the scan loop, and its metrics. Every frame gets the same budget from
+ * its scan start, turned into a decode deadline for ScannerEngine.setDecodeDeadline(): the
+ * candidates blobs left undecoded once it is spent are deferred to the next frame, so the loop
+ * keeps up with 1000 / budget frames per second however many candidates a frame has.
+ *
+ * Neither the candidates scan nor the blob being decoded when the deadline passes are
+ * interrupted, so a frame can still overrun its budget; the overruns are counted, along with the
+ * deferred blobs. In a ScanPipeline the stages run in parallel, and the budget applies to the
+ * decode stage alone.
+ *
+ * The metrics are not synchronized: frames must be recorded, and the metrics read, by a single
+ * thread.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class FrameBudget {
+
+	final long mBudget;
+
+	int mFramesCount;
+	int mOverrunsCount;
+	long mWorstOverrun;
+
+	long mDeferredCount;
+	int mLastDeferredCount;
+
+
+
+	/**
+	 * Budget of each frame, in milliseconds; 0 for no budget
+	 */
+	public FrameBudget(int budgetMillis) {
+		mBudget = budgetMillis * 1000000L;
+	}
+
+
+
+	public int getBudgetMillis() {
+		return (int) (mBudget / 1000000L);
+	}
+
+
+
+	/**
+	 * Decode deadline of a frame whose scan started at System.nanoTime() "start"
+	 */
+	public long getDeadline(long start) {
+		return isEnabled() ? start + mBudget : ScannerEngine.NO_DEADLINE;
+	}
+
+
+
+	/**
+	 * Candidates blobs deferred by all the frames recorded
+	 */
+	public long getDeferredCount() {
+		return mDeferredCount;
+	}
+
+
+
+	public int getFramesCount() {
+		return mFramesCount;
+	}
+
+
+
+	public int getLastDeferredCount() {
+		return mLastDeferredCount;
+	}
+
+
+
+	/**
+	 * Frames which took longer than the budget
+	 */
+	public int getOverrunsCount() {
+		return mOverrunsCount;
+	}
+
+
+
+	/**
+	 * Longest time past the budget a frame took, in nanoseconds
+	 */
+	public long getWorstOverrun() {
+		return mWorstOverrun;
+	}
+
+
+
+	public boolean isEnabled() {
+		return mBudget > 0;
+	}
+
+
+
+	/**
+	 * Records a frame which took "elapsed" nanoseconds, leaving "deferredCount" blobs undecoded
+	 */
+	public void record(long elapsed, int deferredCount) {
+
+		mFramesCount++;
+
+		if (isEnabled() && elapsed > mBudget) {
+			mOverrunsCount++;
+
+			mWorstOverrun = Math.max(mWorstOverrun, elapsed - mBudget);
+		}
+
+		mDeferredCount    += deferredCount;
+		mLastDeferredCount = deferredCount;
+	}
+
+
+
+	@Override
+	public String toString() {
+		return String.format("budget(ms): %d, frames: %d, overruns: %d, worst overrun(ms): %.1f, deferred blobs: %d (last frame: %d)",
+				getBudgetMillis(), mFramesCount, mOverrunsCount, mWorstOverrun / 1e6, mDeferredCount, mLastDeferredCount);
+	}
+}
@@ -0,0 +1,455 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+
+/**
+ * Pure Java ScannerAccelerator, producing the same frames as the RenderScript kernels - see
+ * app/src/main/rs/morphoOperations.rs - without a GPU or a RenderScript runtime.
+ *
+ * Every stage but the Wellner threshold, serial by nature, is written as plain counted loops
+ * over whole rows, with no branches in their bodies: each pass combines a row with another one,
+ * shifted by a window offset, using only &, |, Math.min() and Math.max(). Those are the loops the
+ * HotSpot and ART compilers turn into SIMD instructions. The morphology is separable: a
+ * horizontal pass over the element width, then a vertical one over its height. The median
+ * filter is a forgetful selection over the element pixels, each one a whole row.
+ *
+ * As in the kernels, pixels closer to the frame borders than half the element size are not
+ * filtered; they are copied through unchanged.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class JavaAccelerator implements ScannerAccelerator {
+
+	static final int PIXEL_COLOR_MASK = 0x01000000;
+
+	// Same parameters as the Wellner threshold in morphoOperations.rs
+	static final int WELLNER_WINDOW = 30;
+	static final double WELLNER_FACTOR = 0.975;
+
+
+	final int mWidth;
+	final int mHeight;
+
+	final int mElementSize;
+	final int mHalfElementSize;
+
+	int[] mFrame;
+	int[] mTmpFrame;
+
+	// Morphology horizontal pass result
+	int[] mHorizontal;
+
+	// Median forgetful selection rows
+	int[][] mSelection;
+
+	// Integral threshold summed-area table and row prefix sums
+	int[] mIntegralImage;
+	int[] mRowSums;
+
+
+
+	/**
+	 * Element size of the median filter when ScannerEngine.APPLY_MEDIAN_FILTER is set, of the
+	 * morphological operations otherwise - as RenderscriptAccelerator
+	 */
+	public JavaAccelerator(int width, int height, int morphoElementSize) {
+
+		mWidth  = width;
+		mHeight = height;
+
+		mElementSize     = ScannerEngine.APPLY_MEDIAN_FILTER ? ScannerEngine.MEDIAN_FILTER_ELEMENT_SIZE : morphoElementSize;
+		mHalfElementSize = (mElementSize - 1) / 2;
+
+		mFrame    = new int[width * height];
+		mTmpFrame = new int[width * height];
+	}
+
+
+
+	@Override
+	public void adaptiveThreshold() {
+
+		// The exact adaptiveThreshold() invoke of morphoOperations.rs: rows processed back and
+		// forth, the running sum of each pixel kept on its 24 low bits for the row below
+
+		int[] frame = mFrame;
+
+		int w = mWidth;
+		int s = WELLNER_WINDOW;
+		int sum = 128;
+
+		for (int i = 0; i < mHeight; i++) {
+
+			boolean invert = (i & 0x01) != 0;
+
+			for (int j = 0; j < w; j++) {
+
+				int k = i * w + (invert ? w - 1 - j : j);
+				int a = frame[k] >>> 24;
+				int threshold;
+
+				sum += a - (sum / s);
+
+				if (i > 0) {
+					threshold = (sum + (frame[k - w] & 0xffffff)) / (2 * s);
+				} else {
+					threshold = sum / s;
+				}
+
+				a = (a < threshold * WELLNER_FACTOR) ? 0 : 1;
+
+				frame[k] = (a << 24) + (sum & 0xffffff);
+			}
+		}
+	}
+
+
+
+	@Override
+	public void integralThreshold(int windowSize, int percentage) {
+
+		int w = mWidth;
+		int h = mHeight;
+		int stride = w + 1;
+
+		if (mIntegralImage == null) {
+			mIntegralImage = new int[stride * (h + 1)];
+			mRowSums       = new int[w];
+		}
+
+		int[] frame    = mFrame;
+		int[] integral = mIntegralImage;
+		int[] rowSums  = mRowSums;
+
+		// Row prefix sums are serial; adding them to the row above is not
+
+		for (int j = 0; j < h; j++) {
+
+			int sum = 0;
+
+			for (int i = 0; i < w; i++) {
+				sum += frame[j * w + i] >>> 24;
+
+				rowSums[i] = sum;
+			}
+
+			int above   = j * stride + 1;
+			int current = above + stride;
+
+			for (int i = 0; i < w; i++) {
+				integral[current + i] = integral[above + i] + rowSums[i];
+			}
+		}
+
+		int[] thresholded = mTmpFrame;
+
+		int half = windowSize / 2;
+		int keep = 100 - percentage;
+
+		// Columns whose window is not clipped by the frame sides, all with the same pixel count
+
+		int innerStart = Math.min(half, w);
+		int innerEnd   = Math.max(innerStart, w - half);
+
+		for (int j = 0; j < h; j++) {
+
+			int top    = Math.max(0, j - half) * stride;
+			int bottom = (Math.min(h - 1, j + half) + 1) * stride;
+			int rows   = (bottom - top) / stride;
+			int k      = j * w;
+
+			for (int i = 0; i < innerStart; i++) {
+				thresholded[k + i] = integralPixel(frame[k + i], top, bottom, rows, i, half, keep);
+			}
+
+			long count100 = (long) (2 * half + 1) * rows * 100;
+
+			int topLeft     = top - half;
+			int bottomLeft  = bottom - half;
+			int topRight    = top + half + 1;
+			int bottomRight = bottom + half + 1;
+
+			for (int i = innerStart; i < innerEnd; i++) {
+
+				int sum = integral[bottomRight + i] - integral[topRight + i] - integral[bottomLeft + i] + integral[topLeft + i];
+
+				// White, the mask bit, when the luma is above the window average by "keep" percent:
+				// the sign of the difference, shifted into place
+
+				long difference = (long) sum * keep - (frame[k + i] >>> 24) * count100;
+
+				thresholded[k + i] = (int) (difference >>> 63) << 24;
+			}
+
+			for (int i = innerEnd; i < w; i++) {
+				thresholded[k + i] = integralPixel(frame[k + i], top, bottom, rows, i, half, keep);
+			}
+		}
+
+		mTmpFrame = mFrame;
+		mFrame    = thresholded;
+	}
+
+
+
+	/**
+	 * Integral threshold of a pixel whose window may be clipped by the frame sides
+	 */
+	private int integralPixel(int pixel, int top, int bottom, int rows, int i, int half, int keep) {
+
+		int left  = Math.max(0, i - half);
+		int right = Math.min(mWidth - 1, i + half) + 1;
+
+		int count = (right - left) * rows;
+		int sum   = mIntegralImage[bottom + right] - mIntegralImage[top + right] - mIntegralImage[bottom + left] + mIntegralImage[top + left];
+
+		return ((long) (pixel >>> 24) * count * 100 > (long) sum * keep) ? PIXEL_COLOR_MASK : 0;
+	}
+
+
+
+	@Override
+	public void loadFrame(int[] data) {
+		System.arraycopy(data, 0, mFrame, 0, mFrame.length);
+	}
+
+
+
+	@Override
+	public void medianFilter() {
+
+		int w    = mWidth;
+		int half = mHalfElementSize;
+		int size = mElementSize;
+
+		int[] source   = mFrame;
+		int[] filtered = mTmpFrame;
+
+		System.arraycopy(source, 0, filtered, 0, source.length);
+
+		int pixels = size * size;
+		int span   = w - 2 * half;
+
+		if (pixels < 9 || span <= 0) {
+			return;
+		}
+
+		// Forgetful selection: the median of 2r + 1 values is among any r + 2 of them but their
+		// minimum and maximum. Starting with r + 2 values, each round drops the minimum and the
+		// maximum and takes the next value, until the 3 values left hold the median.
+
+		int r = (pixels - 1) / 2;
+
+		if (mSelection == null || mSelection.length < r + 2 || mSelection[0].length < span) {
+			mSelection = new int[r + 2][span];
+		}
+
+		int[][] selection = mSelection;
+
+		for (int y = half; y < mHeight - half; y++) {
+
+			int windowStart = (y - half) * w;
+
+			int count = r + 2;
+
+			for (int p = 0; p < count; p++) {
+				loadSelectionRow(selection[p], source, windowStart + (p / size) * w + (p % size), span);
+			}
+
+			for (int p = count; p < pixels; p++) {
+
+				for (int q = 1; q < count; q++) {
+					compareExchange(selection[0], selection[q], span);
+				}
+
+				for (int q = 1; q < count - 1; q++) {
+					compareExchange(selection[q], selection[count - 1], span);
+				}
+
+				// Minimum replaced by the next value, maximum dropped
+
+				loadSelectionRow(selection[0], source, windowStart + (p / size) * w + (p % size), span);
+
+				count--;
+			}
+
+			int[] a = selection[0];
+			int[] b = selection[1];
+			int[] c = selection[2];
+
+			int k = y * w + half;
+
+			for (int i = 0; i < span; i++) {
+				int median = Math.max(Math.min(a[i], b[i]), Math.min(Math.max(a[i], b[i]), c[i]));
+
+				filtered[k + i] = median ^ Integer.MIN_VALUE;
+			}
+		}
+
+		mTmpFrame = mFrame;
+		mFrame    = filtered;
+	}
+
+
+
+	/**
+	 * Pixels are compared as unsigned, as in the kernels: flipping their sign bit makes Math.min()
+	 * and Math.max() order them so
+	 */
+	private static void loadSelectionRow(int[] row, int[] source, int offset, int count) {
+
+		for (int i = 0; i < count; i++) {
+			row[i] = source[offset + i] ^ Integer.MIN_VALUE;
+		}
+	}
+
+
+
+	private static void compareExchange(int[] low, int[] high, int count) {
+
+		for (int i = 0; i < count; i++) {
+			int a = low[i];
+			int b = high[i];
+
+			low[i]  = Math.min(a, b);
+			high[i] = Math.max(a, b);
+		}
+	}
+
+
+
+	@Override
+	public void morphoClosing() {
+
+		morphology(mFrame, mTmpFrame, true);
+		morphology(mTmpFrame, mFrame, false);
+	}
+
+
+
+	@Override
+	public void morphoOpening() {
+
+		morphology(mFrame, mTmpFrame, false);
+		morphology(mTmpFrame, mFrame, true);
+	}
+
+
+
+	/**
+	 * Dilation (or erosion) of the black pixels of "source" into "destination": a pixel is white
+	 * only when its whole element is white (or when any pixel in it is), so the element mask bits
+	 * are and-ed (or or-ed), first along the rows and then down the columns.
+	 */
+	private void morphology(int[] source, int[] destination, boolean dilation) {
+
+		int w    = mWidth;
+		int h    = mHeight;
+		int half = mHalfElementSize;
+		int size = mElementSize;
+
+		int span = w - 2 * half;
+
+		System.arraycopy(source, 0, destination, 0, source.length);
+
+		if (span <= 0 || h <= 2 * half) {
+			return;
+		}
+
+		if (mHorizontal == null) {
+			mHorizontal = new int[w * h];
+		}
+
+		int[] horizontal = mHorizontal;
+
+		for (int j = 0; j < h; j++) {
+
+			int k = j * w + half;
+
+			for (int i = 0; i < span; i++) {
+				horizontal[k + i] = source[k - half + i];
+			}
+
+			for (int d = 1; d < size; d++) {
+
+				int shifted = k - half + d;
+
+				if (dilation) {
+					for (int i = 0; i < span; i++) {
+						horizontal[k + i] &= source[shifted + i];
+					}
+				} else {
+					for (int i = 0; i < span; i++) {
+						horizontal[k + i] |= source[shifted + i];
+					}
+				}
+			}
+		}
+
+		for (int j = half; j < h - half; j++) {
+
+			int k = j * w + half;
+
+			for (int i = 0; i < span; i++) {
+				destination[k + i] = horizontal[k - half * w + i] & PIXEL_COLOR_MASK;
+			}
+
+			for (int d = 1; d < size; d++) {
+
+				int shifted = k + (d - half) * w;
+
+				if (dilation) {
+					for (int i = 0; i < span; i++) {
+						destination[k + i] &= horizontal[shifted + i];
+					}
+				} else {
+					for (int i = 0; i < span; i++) {
+						destination[k + i] |= horizontal[shifted + i] & PIXEL_COLOR_MASK;
+					}
+				}
+			}
+		}
+	}
+
+
+
+	@Override
+	public void release() {
+
+		mFrame         = null;
+		mTmpFrame      = null;
+		mHorizontal    = null;
+		mSelection     = null;
+		mIntegralImage = null;
+		mRowSums       = null;
+	}
+
+
+
+	@Override
+	public void retrieveFrame(int[] data) {
+		System.arraycopy(mFrame, 0, data, 0, mFrame.length);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.Arrays;
+
+
+/**
+ * Bayesian AnswerFusion: each code keeps the log-likelihood of every answer given the answers
+ * read from it, assuming each reading is right with probability READ_ACCURACY and otherwise any of
+ * the other answers alike. A reading of an answer then adds log(READ_ACCURACY * (ANSWERS - 1) /
+ * (1 - READ_ACCURACY)) to that answer log-odds against each other one. The posterior of the most
+ * likely answer is the code confidence; once it reaches ANSWER_CONFIDENCE the code takes that
+ * answer, and keeps it until another answer reaches it.
+ *
+ * Unlike the continuous run rule, evidence is not lost when a cycle is missed and the confidence
+ * needed does not grow with the scan length, so students seen late or intermittently get their
+ * answer as fast as the others. The log-likelihoods decay by DECAY_PER_CYCLE every scan cycle, so
+ * that a student changing answer is followed, and old misreadings fade.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class LogOddsFusion implements AnswerFusion {
+
+	// Probability a reading gives the actual answer of the card
+	public static final float READ_ACCURACY = 0.8f;
+
+	// Posterior probability a code must reach to take its most likely answer
+	public static final float ANSWER_CONFIDENCE = 0.99f;
+
+	// Log-likelihoods kept from one scan cycle to the next
+	public static final float DECAY_PER_CYCLE = 0.95f;
+
+
+	// Log-odds added by a reading to its answer
+	final float mReadWeight;
+
+	final float mAnswerConfidence;
+	final float mDecay;
+
+	// Log-likelihood of each answer, by [slot * ANSWERS + answer], as of the code last reading
+	final float[] mLogLikelihoods;
+	final int[] mLastCycles;
+
+	final int[] mAnswers;
+	final float[] mConfidences;
+
+
+
+	public LogOddsFusion(int capacity) {
+		this(capacity, READ_ACCURACY, ANSWER_CONFIDENCE, DECAY_PER_CYCLE);
+	}
+
+
+
+	public LogOddsFusion(int capacity, float readAccuracy, float answerConfidence, float decayPerCycle) {
+
+		if (readAccuracy <= 1.0f / ANSWERS || readAccuracy >= 1) {
+			throw new IllegalArgumentException(String.format("Read accuracy must be between %f and 1: %f", 1.0f / ANSWERS, readAccuracy));
+		}
+
+		mReadWeight       = (float) Math.log(readAccuracy * (ANSWERS - 1) / (1 - readAccuracy));
+		mAnswerConfidence = answerConfidence;
+		mDecay            = decayPerCycle;
+
+		mLogLikelihoods = new float[capacity * ANSWERS];
+		mLastCycles     = new int[capacity];
+		mAnswers        = new int[capacity];
+		mConfidences    = new float[capacity];
+
+		Arrays.fill(mLastCycles, -1);
+		Arrays.fill(mAnswers, NO_ANSWER);
+		Arrays.fill(mConfidences, 1.0f / ANSWERS);
+	}
+
+
+
+	/**
+	 * The recalled answer is taken as if read until reaching ANSWER_CONFIDENCE
+	 */
+	@Override
+	public void forceAnswer(int slot, int answer) {
+
+		int base = slot * ANSWERS;
+
+		Arrays.fill(mLogLikelihoods, base, base + ANSWERS, 0);
+
+		mConfidences[slot] = leadingPosterior(base, answer);
+
+		while (mConfidences[slot] < mAnswerConfidence) {
+			mLogLikelihoods[base + answer] += mReadWeight;
+
+			mConfidences[slot] = leadingPosterior(base, answer);
+		}
+
+		mAnswers[slot] = answer;
+	}
+
+
+
+	@Override
+	public int getAnswer(int slot) {
+		return mAnswers[slot];
+	}
+
+
+
+	@Override
+	public float getConfidence(int slot) {
+		return mConfidences[slot];
+	}
+
+
+
+	@Override
+	public void observe(int slot, int cycle, int answer) {
+
+		if (answer == NO_ANSWER) {
+			return;
+		}
+
+		int base = slot * ANSWERS;
+
+		if (mLastCycles[slot] >= 0 && cycle > mLastCycles[slot]) {
+
+			float decay = (float) Math.pow(mDecay, cycle - mLastCycles[slot]);
+
+			for (int i = base; i < base + ANSWERS; i++) {
+				mLogLikelihoods[i] *= decay;
+			}
+		}
+
+		mLastCycles[slot] = cycle;
+
+		mLogLikelihoods[base + answer] += mReadWeight;
+
+		int leading = 0;
+
+		for (int i = 1; i < ANSWERS; i++) {
+			if (mLogLikelihoods[base + i] > mLogLikelihoods[base + leading]) {
+				leading = i;
+			}
+		}
+
+		mConfidences[slot] = leadingPosterior(base, leading);
+
+		if (mConfidences[slot] >= mAnswerConfidence) {
+			mAnswers[slot] = leading;
+		}
+	}
+
+
+
+	/**
+	 * Posterior probability of the leading answer, from the code log-likelihoods starting at base
+	 */
+	private float leadingPosterior(int base, int leading) {
+
+		float sum = 0;
+
+		for (int i = base; i < base + ANSWERS; i++) {
+			sum += (float) Math.exp(mLogLikelihoods[i] - mLogLikelihoods[base + leading]);
+		}
+
+		return 1 / sum;
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Debug log messages deferred out of the frame scanning loop: a message is recorded as its format
+ * and up to MAX_ARGUMENTS numeric arguments, into preallocated slots, and only formatted when the
+ * ring is drained - by any thread, off the scanning path. Recording never allocates nor blocks:
+ * once the ring is full, new messages are dropped and counted until it is drained.
+ *
+ * Lock free for a single recording thread and a single draining one.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class LogRing {
+
+	public static final int MAX_ARGUMENTS = 5;
+
+
+	/**
+	 * Receives the drained messages, already formatted
+	 */
+	public interface Sink {
+		void log(String message);
+	}
+
+
+	private final int mMask;
+
+	private final String[] mFormats;
+	private final int[] mArgumentsCount;
+	private final long[] mArguments;
+
+	// Next message to be recorded, written by the recording thread only, and next one to be drained
+	private final AtomicLong mHead = new AtomicLong();
+	private final AtomicLong mTail = new AtomicLong();
+
+	private volatile long mDroppedCount;
+
+
+
+	/**
+	 * Holds "capacity" messages, rounded up to a power of two
+	 */
+	public LogRing(int capacity) {
+
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+
+		mMask = size - 1;
+
+		mFormats        = new String[size];
+		mArgumentsCount = new int[size];
+		mArguments      = new long[size * MAX_ARGUMENTS];
+	}
+
+
+
+	public void add(String format, long a) {
+		put(format, 1, a, 0, 0, 0, 0);
+	}
+
+
+
+	public void add(String format, long a, long b) {
+		put(format, 2, a, b, 0, 0, 0);
+	}
+
+
+
+	public void add(String format, long a, long b, long c) {
+		put(format, 3, a, b, c, 0, 0);
+	}
+
+
+
+	public void add(String format, long a, long b, long c, long d) {
+		put(format, 4, a, b, c, d, 0);
+	}
+
+
+
+	public void add(String format, long a, long b, long c, long d, long e) {
+		put(format, 5, a, b, c, d, e);
+	}
+
+
+
+	/**
+	 * Formats the messages recorded so far, oldest first, handing them to "sink"; returns how
+	 * many there were
+	 */
+	public int drain(Sink sink) {
+
+		long tail = mTail.get();
+		long head = mHead.get();
+
+		for (long message = tail; message < head; message++) {
+
+			int slot  = (int) message & mMask;
+			int count = mArgumentsCount[slot];
+
+			Object[] arguments = new Object[count];
+
+			for (int i = 0; i < count; i++) {
+				arguments[i] = mArguments[slot * MAX_ARGUMENTS + i];
+			}
+
+			String format = mFormats[slot];
+
+			mFormats[slot] = null;
+
+			mTail.lazySet(message + 1);
+
+			sink.log(String.format(format, arguments));
+		}
+
+		return (int) (head - tail);
+	}
+
+
+
+	/**
+	 * Messages dropped since the ring was created, for being recorded while it was full
+	 */
+	public long getDroppedCount() {
+		return mDroppedCount;
+	}
+
+
+
+	private void put(String format, int count, long a, long b, long c, long d, long e) {
+
+		long head = mHead.get();
+
+		if (head - mTail.get() > mMask) {
+			mDroppedCount++;
+
+			return;
+		}
+
+		int slot = (int) head & mMask;
+		int base = slot * MAX_ARGUMENTS;
+
+		mFormats[slot]        = format;
+		mArgumentsCount[slot] = count;
+
+		mArguments[base]     = a;
+		mArguments[base + 1] = b;
+		mArguments[base + 2] = c;
+		mArguments[base + 3] = d;
+		mArguments[base + 4] = e;
+
+		// Publishes the slot contents along with the new head
+
+		mHead.lazySet(head + 1);
+	}
+}
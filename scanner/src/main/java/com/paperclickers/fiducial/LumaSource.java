@@ -0,0 +1,43 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+
+/**
+ * Where the ScannerEngine threshold reads the frame luma from, one run of pixels at a time, so
+ * frames are scanned straight from their own format - a camera frame Y plane, an ARGB bitmap or
+ * a scanner input plane - without being converted into an intermediate plane first.
+ *
+ * Runs are read from the thresholding threads, possibly at the same time.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public interface LumaSource {
+
+	/**
+	 * Reads the luma, from 0 to 255, of the "count" pixels starting at "offset" (row * width +
+	 * column) in the frame, into luma[lumaOffset] on.
+	 */
+	void readLuma(int offset, int[] luma, int lumaOffset, int count);
+}
@@ -0,0 +1,71 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+
+/**
+ * Luma of a frame in the scanner input format: one pixel per int, luma on its most significant
+ * byte
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class PlaneLumaSource implements LumaSource {
+
+	int[] mPlane;
+
+
+
+	public PlaneLumaSource() {
+	}
+
+
+
+	public PlaneLumaSource(int[] plane) {
+		mPlane = plane;
+	}
+
+
+
+	public int[] getPlane() {
+		return mPlane;
+	}
+
+
+
+	@Override
+	public void readLuma(int offset, int[] luma, int lumaOffset, int count) {
+
+		int[] plane = mPlane;
+
+		for (int i = 0; i < count; i++) {
+			luma[lumaOffset + i] = plane[offset + i] >>> 24;
+		}
+	}
+
+
+
+	public void setPlane(int[] plane) {
+		mPlane = plane;
+	}
+}
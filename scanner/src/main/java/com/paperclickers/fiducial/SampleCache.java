@@ -0,0 +1,111 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.Arrays;
+
+
+/**
+ * Scanner.getSample3x3() results of a single TopCode decode: the unit and arc adjustments tried
+ * by TopCode.decode() sample the same pixels over and over - about three times each - so every
+ * pixel of a square window around the code is sampled once and then read back. Entries are
+ * validated by a stamp, which moves on at each decode instead of clearing the window.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+class SampleCache {
+
+	// Larger codes sample pixels so far apart that the window would hardly be reused
+	static final int MAX_RADIUS = 256;
+
+
+	int[] mValues = new int[0];
+	int[] mStamps = new int[0];
+
+	int mStamp;
+
+	// Window, in image coordinates; an empty window samples the image directly
+
+	int mLeft;
+	int mTop;
+	int mSide;
+
+
+
+	/**
+	 * Sample at (x, y), from the window when inside it
+	 */
+	int getSample3x3(Scanner scanner, int x, int y) {
+
+		int dx = x - mLeft;
+		int dy = y - mTop;
+
+		if (dx < 0 || dy < 0 || dx >= mSide || dy >= mSide) {
+			return scanner.getSample3x3(x, y);
+		}
+
+		int index = dy * mSide + dx;
+
+		if (mStamps[index] != mStamp) {
+			mValues[index] = scanner.getSample3x3(x, y);
+			mStamps[index] = mStamp;
+		}
+
+		return mValues[index];
+	}
+
+
+
+	/**
+	 * Empties the cache, centering its window at (cx, cy) and sizing it to the given radius
+	 */
+	void reset(int cx, int cy, int radius) {
+
+		if (radius > MAX_RADIUS) {
+			mSide = 0;
+
+			return;
+		}
+
+		mSide = 2 * radius + 1;
+		mLeft = cx - radius;
+		mTop  = cy - radius;
+
+		int size = mSide * mSide;
+
+		if (mValues.length < size) {
+			mValues = new int[size];
+			mStamps = new int[size];
+			mStamp  = 0;
+		}
+
+		mStamp++;
+
+		if (mStamp == 0) {
+			Arrays.fill(mStamps, 0);
+
+			mStamp = 1;
+		}
+	}
+}
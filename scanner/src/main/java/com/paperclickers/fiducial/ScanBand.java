@@ -0,0 +1,192 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * A part of the frame, as scanned by ScannerEngine, and the scanning state private to it, so that
+ * parts can be scanned concurrently. Thresholding, horizontal scanning and decoding work on the
+ * band rows, while the vertical scan works on its columns: the column state machines are
+ * independent, so splitting them among bands needs no overlap. The rows and columns a band owns
+ * are the only ones it writes to, in the binary image and candidates bitmaps. The sequential scan
+ * is a single band covering the whole frame.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+class ScanBand {
+
+	// Owned rows: [mStartRow, mEndRow)
+
+	int mStartRow;
+	int mEndRow;
+
+	// Owned columns, in binary image words: [mStartWord, mEndWord)
+
+	int mStartWord;
+	int mEndWord;
+
+	// Running threshold sums of the previous row, the only ones the Wellner threshold looks back at
+	int[] mRowSums;
+
+	// Running threshold sum carried from one row to the next
+	int mThresholdSum;
+
+	// Luma of the row being thresholded, as read from the frame LumaSource
+	int[] mLumaRow;
+
+	// Vertical run-length state for every column: level, run start row, b1 and w1 tuples
+	int[] mColumnsState;
+
+	// Effective candidates of the row being labelled, and their connected blobs
+	long[] mCandidatesRow;
+	final CandidateBlobs mBlobs = new CandidateBlobs();
+
+	// Samples of the code being decoded
+	final SampleCache mSampleCache = new SampleCache();
+
+	// Codes decoded from the band candidates
+	final List<TopCode> mSpots = new ArrayList<TopCode>();
+
+	// Codes decoded into by a steady state scan, reused from one frame to the next, and how many
+	// of them the frame being decoded has taken
+	final List<TopCode> mCodesPool = new ArrayList<TopCode>();
+	int mPooledCount;
+
+	// Centroids of the candidates blobs which did not decode, as x, y pairs
+	int[] mMissedBlobs = new int[2 * CandidateBlobs.INITIAL_CAPACITY];
+	int mMissedCount;
+
+	// Centroids of the blobs left undecoded by the decode deadline and how many frames in a row
+	// they have been, as x, y, age triples, and the ones left by the previous frame
+	int[] mDeferredBlobs = new int[3 * CandidateBlobs.INITIAL_CAPACITY];
+	int mDeferredCount;
+
+	int[] mPreviousDeferredBlobs = new int[3 * CandidateBlobs.INITIAL_CAPACITY];
+	int mPreviousDeferredCount;
+
+	// Budgeted decode order of the blobs, see ScannerEngine.sortDecodeOrder()
+	long[] mDecodeOrder;
+
+	int mHorizontalCandidates;
+	int mVerticalCandidates;
+	int mEffectiveCandidates;
+	int mTestedCount;
+
+
+
+	ScanBand(int startRow, int endRow, int startWord, int endWord) {
+		set(startRow, endRow, startWord, endWord);
+	}
+
+
+
+	void addDeferredBlob(int x, int y, int age) {
+
+		if (3 * mDeferredCount == mDeferredBlobs.length) {
+			mDeferredBlobs = Arrays.copyOf(mDeferredBlobs, 2 * mDeferredBlobs.length);
+		}
+
+		mDeferredBlobs[3 * mDeferredCount]     = x;
+		mDeferredBlobs[3 * mDeferredCount + 1] = y;
+		mDeferredBlobs[3 * mDeferredCount + 2] = age;
+
+		mDeferredCount++;
+	}
+
+
+
+	void addMissedBlob(int x, int y) {
+
+		if (2 * mMissedCount == mMissedBlobs.length) {
+			mMissedBlobs = Arrays.copyOf(mMissedBlobs, 2 * mMissedBlobs.length);
+		}
+
+		mMissedBlobs[2 * mMissedCount]     = x;
+		mMissedBlobs[2 * mMissedCount + 1] = y;
+
+		mMissedCount++;
+	}
+
+
+
+	/**
+	 * Next code of the band pool, grown the first time the frame takes more codes than any before
+	 */
+	TopCode pooledCode() {
+
+		if (mPooledCount == mCodesPool.size()) {
+			mCodesPool.add(new TopCode());
+		}
+
+		return mCodesPool.get(mPooledCount++);
+	}
+
+
+
+	/**
+	 * Age of the oldest blob deferred by the previous frame within "distance" pixels, along each
+	 * axis, of (x, y); 0 when there is none
+	 */
+	int previousDeferredAge(int x, int y, int distance) {
+
+		int age = 0;
+
+		for (int k = 0; k < 3 * mPreviousDeferredCount; k += 3) {
+			if (Math.abs(mPreviousDeferredBlobs[k] - x) <= distance && Math.abs(mPreviousDeferredBlobs[k + 1] - y) <= distance) {
+				age = Math.max(age, mPreviousDeferredBlobs[k + 2]);
+			}
+		}
+
+		return age;
+	}
+
+
+
+	void set(int startRow, int endRow, int startWord, int endWord) {
+		mStartRow  = startRow;
+		mEndRow    = endRow;
+		mStartWord = startWord;
+		mEndWord   = endWord;
+	}
+
+
+
+	/**
+	 * The blobs deferred so far become the previous frame ones, before decoding a new frame
+	 */
+	void swapDeferredBlobs() {
+
+		int[] previous = mPreviousDeferredBlobs;
+
+		mPreviousDeferredBlobs = mDeferredBlobs;
+		mPreviousDeferredCount = mDeferredCount;
+
+		mDeferredBlobs = previous;
+		mDeferredCount = 0;
+	}
+}
@@ -0,0 +1,480 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Pipelined version of ScannerEngine.scanProcessing(), overlapping the stages of consecutive
+ * frames: while the caller fills frame N + 1 with its Y plane, frame N is thresholded and has its
+ * candidates scanned, by the scan engine on the scan thread, and frame N - 1 has its candidates
+ * decoded, by the decode engine on the decode thread, which then hands the codes found to the
+ * listener. A frame can also be submitted for tracking the codes found in previous frames, as done
+ * by ScannerEngine.trackProcessing(), instead of being fully scanned.
+ *
+ * Frames - the camera frame Y plane, scanned straight through a YuvLumaSource, and the binary
+ * image the candidates are marked in - are recycled through bounded queues: acquireFrame() waits
+ * for a free one, so a slow stage holds back the caller instead of piling frames up. Each stage
+ * only adds its own time to the frame latency.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class ScanPipeline {
+
+	// One frame being filled, one being scanned and one being decoded
+	public static final int FRAMES_COUNT = 3;
+
+	// How often the stage threads, and a caller waiting for a free frame, check whether the
+	// pipeline has been shut down
+	static final int SHUTDOWN_POLL_MS = 100;
+
+
+	/**
+	 * Receives the decoded frames, on the decode thread. The frame is recycled when the call
+	 * returns; its codes list is not, and can be kept, unless the decode engine scans in steady
+	 * state - see ScannerEngine.setSteadyState() - when both the list and its codes are reused by
+	 * the next frames, so they must be copied to be kept.
+	 */
+	public interface Listener {
+		void onFrameDecoded(Frame frame);
+	}
+
+
+	public static class Frame {
+
+		final int mWidth;
+		final int mHeight;
+
+		final byte[] mLuma;
+
+		final YuvLumaSource mSource;
+
+		final BinaryImage mBinary;
+
+		boolean mHasRotated;
+		boolean mUseMorpho;
+
+		long mSubmitTime;
+
+		int mCandidatesCount;
+
+		// Decode stage time, in nanoseconds, and candidates blobs it left undecoded
+		long mDecodeTime;
+		int mDeferredCount;
+
+		List<TopCode> mCodes;
+
+		// Codes list reused by the steady state decodes
+		final List<TopCode> mCodesBuffer = new ArrayList<TopCode>();
+
+		// Codes tracked by the frame, or null for a full scan
+		List<TopCode> mTrackedCodes;
+
+		// Caller state the frame was submitted with, handed back as is to the listener
+		Object mTag;
+
+
+
+		Frame(int width, int height) {
+			mWidth  = width;
+			mHeight = height;
+			mLuma   = new byte[width * height];
+			mSource = new YuvLumaSource(mLuma);
+			mBinary = new BinaryImage(width, height);
+		}
+
+
+
+		public int getCandidatesCount() {
+			return mCandidatesCount;
+		}
+
+
+
+		public List<TopCode> getCodes() {
+			return mCodes;
+		}
+
+
+
+		/**
+		 * Time the frame took to decode, in nanoseconds
+		 */
+		public long getDecodeTime() {
+			return mDecodeTime;
+		}
+
+
+
+		/**
+		 * Candidates blobs left undecoded by the decode deadline, see setFrameBudget()
+		 */
+		public int getDeferredCount() {
+			return mDeferredCount;
+		}
+
+
+
+		public int getHeight() {
+			return mHeight;
+		}
+
+
+
+		/**
+		 * Y plane, to be filled with the first width * height bytes of the YUV420SP camera frame
+		 */
+		public byte[] getLuma() {
+			return mLuma;
+		}
+
+
+
+		/**
+		 * System.currentTimeMillis() when the frame was submitted
+		 */
+		public long getSubmitTime() {
+			return mSubmitTime;
+		}
+
+
+
+		/**
+		 * Caller state the frame was submitted with, see submitFrame(); null when none was given
+		 */
+		public Object getTag() {
+			return mTag;
+		}
+
+
+
+		/**
+		 * Codes the frame has tracked, as submitted, or null when it has been fully scanned
+		 */
+		public List<TopCode> getTrackedCodes() {
+			return mTrackedCodes;
+		}
+
+
+
+		public int getWidth() {
+			return mWidth;
+		}
+
+
+
+		public boolean hasRotated() {
+			return mHasRotated;
+		}
+	}
+
+
+	/**
+	 * First in, first out queue of up to FRAMES_COUNT frames, waiting on its own monitor: unlike
+	 * the java.util.concurrent queues, waiting for a frame allocates nothing.
+	 */
+	static class FrameQueue {
+
+		final Frame[] mFrames = new Frame[FRAMES_COUNT];
+
+		int mHead;
+		int mCount;
+
+
+
+		synchronized void add(Frame frame) {
+
+			if (mCount == mFrames.length) {
+				throw new IllegalStateException("Frame queue full");
+			}
+
+			mFrames[(mHead + mCount) % mFrames.length] = frame;
+			mCount++;
+
+			notifyAll();
+		}
+
+
+
+		/**
+		 * Takes the first frame, waiting up to timeoutMs for one; null when there is none by then
+		 */
+		synchronized Frame poll(long timeoutMs) throws InterruptedException {
+
+			long deadline = System.currentTimeMillis() + timeoutMs;
+
+			while (mCount == 0) {
+
+				long remaining = deadline - System.currentTimeMillis();
+
+				if (remaining <= 0) {
+					return null;
+				}
+
+				wait(remaining);
+			}
+
+			Frame frame = mFrames[mHead];
+
+			mFrames[mHead] = null;
+
+			mHead = (mHead + 1) % mFrames.length;
+			mCount--;
+
+			return frame;
+		}
+	}
+
+
+	final ScannerEngine mScanEngine;
+	final ScannerEngine mDecodeEngine;
+
+	final Listener mListener;
+
+	final FrameQueue mFreeFrames   = new FrameQueue();
+	final FrameQueue mScanFrames   = new FrameQueue();
+	final FrameQueue mDecodeFrames = new FrameQueue();
+
+	final Thread mScanThread;
+	final Thread mDecodeThread;
+
+	volatile boolean mRunning = true;
+
+	volatile FrameBudget mFrameBudget = null;
+
+
+
+	/**
+	 * Both engines must have the same size; each one is only used by its own stage thread from
+	 * now on.
+	 */
+	public ScanPipeline(ScannerEngine scanEngine, ScannerEngine decodeEngine, Listener listener) {
+
+		if (scanEngine.w != decodeEngine.w || scanEngine.h != decodeEngine.h) {
+			throw new IllegalArgumentException(String.format("Scan engine is %d x %d; decode engine is %d x %d",
+					scanEngine.w, scanEngine.h, decodeEngine.w, decodeEngine.h));
+		}
+
+		mScanEngine   = scanEngine;
+		mDecodeEngine = decodeEngine;
+		mListener     = listener;
+
+		for (int i = 0; i < FRAMES_COUNT; i++) {
+			mFreeFrames.add(new Frame(scanEngine.w, scanEngine.h));
+		}
+
+		mScanThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					while (mRunning) {
+						Frame frame = mScanFrames.poll(SHUTDOWN_POLL_MS);
+
+						if (frame != null) {
+							scanFrame(frame);
+						}
+					}
+				} catch (InterruptedException e) {
+					// shutdown
+				}
+			}
+		}, "ScanPipeline.scan");
+
+		mDecodeThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					while (mRunning) {
+						Frame frame = mDecodeFrames.poll(SHUTDOWN_POLL_MS);
+
+						if (frame != null) {
+							decodeFrame(frame);
+						}
+					}
+				} catch (InterruptedException e) {
+					// shutdown
+				}
+			}
+		}, "ScanPipeline.decode");
+
+		mScanThread.setDaemon(true);
+		mDecodeThread.setDaemon(true);
+
+		mScanThread.start();
+		mDecodeThread.start();
+	}
+
+
+
+	/**
+	 * Waits for a free frame, to be filled and then submitted; returns null once the pipeline
+	 * has been shut down
+	 */
+	public Frame acquireFrame() throws InterruptedException {
+
+		while (mRunning) {
+			Frame frame = mFreeFrames.poll(SHUTDOWN_POLL_MS);
+
+			if (frame != null) {
+				return frame;
+			}
+		}
+
+		return null;
+	}
+
+
+
+	/**
+	 * Gives back a frame acquired with acquireFrame() which will not be submitted
+	 */
+	public void discardFrame(Frame frame) {
+		mFreeFrames.add(frame);
+	}
+
+
+
+	void decodeFrame(Frame frame) {
+
+		long start = System.nanoTime();
+
+		FrameBudget budget = mFrameBudget;
+
+		mDecodeEngine.binary = frame.mBinary;
+		mDecodeEngine.setDecodeDeadline((budget != null) ? budget.getDeadline(start) : ScannerEngine.NO_DEADLINE);
+
+		if (mDecodeEngine.isSteadyState()) {
+			frame.mCodes = frame.mCodesBuffer;
+
+			frame.mCodes.clear();
+		} else {
+			frame.mCodes = new ArrayList<TopCode>();
+		}
+
+		if (frame.mTrackedCodes != null) {
+			mDecodeEngine.decodeTrackedCodes(frame.mHasRotated, frame.mTrackedCodes, frame.mCodes);
+
+			frame.mCandidatesCount = 0;
+		} else {
+			mDecodeEngine.decodeCandidates(frame.mHasRotated, frame.mCodes);
+
+			frame.mCandidatesCount = mDecodeEngine.getCandidatesCount();
+		}
+
+		frame.mDeferredCount = mDecodeEngine.getDeferredCount();
+		frame.mDecodeTime    = System.nanoTime() - start;
+
+		mListener.onFrameDecoded(frame);
+
+		frame.mCodes        = null;
+		frame.mTrackedCodes = null;
+		frame.mTag          = null;
+
+		mFreeFrames.add(frame);
+	}
+
+
+
+	void scanFrame(Frame frame) {
+
+		mScanEngine.binary = frame.mBinary;
+
+		if (frame.mTrackedCodes != null) {
+			mScanEngine.thresholdTrackedRegions(frame.mSource, frame.mHasRotated, frame.mTrackedCodes);
+		} else {
+			mScanEngine.scanCandidates(frame.mSource, frame.mUseMorpho);
+		}
+
+		mDecodeFrames.add(frame);
+	}
+
+
+
+	/**
+	 * Budget each frame decode gets, from its start; null for none. The frames are not recorded
+	 * in it: the listener can do it, from the frames decode time and deferred blobs.
+	 */
+	public void setFrameBudget(FrameBudget budget) {
+		mFrameBudget = budget;
+	}
+
+
+
+	/**
+	 * Stops both stage threads, waiting for the frames being scanned and decoded; frames still
+	 * queued are not decoded
+	 */
+	public void shutdown() {
+
+		mRunning = false;
+
+		try {
+			mScanThread.join();
+			mDecodeThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+
+	/**
+	 * Queues a frame acquired with acquireFrame(), after filling its Y plane, to be scanned
+	 */
+	public void submitFrame(Frame frame, boolean hasRotated, boolean useMorpho) {
+		submitFrame(frame, hasRotated, useMorpho, null);
+	}
+
+
+
+	/**
+	 * Queues a frame acquired with acquireFrame(), after filling its Y plane, to track the given
+	 * codes, or to be scanned when trackedCodes is null
+	 */
+	public void submitFrame(Frame frame, boolean hasRotated, boolean useMorpho, List<TopCode> trackedCodes) {
+		submitFrame(frame, hasRotated, useMorpho, trackedCodes, null);
+	}
+
+
+
+	/**
+	 * Same as above, also tagging the frame with the caller state it was submitted with - the
+	 * frames still in the pipeline keep their own, whatever the caller state is by the time they
+	 * are decoded; see Frame.getTag()
+	 */
+	public void submitFrame(Frame frame, boolean hasRotated, boolean useMorpho, List<TopCode> trackedCodes, Object tag) {
+
+		frame.mHasRotated   = hasRotated;
+		frame.mUseMorpho    = useMorpho;
+		frame.mTrackedCodes = trackedCodes;
+		frame.mTag          = tag;
+		frame.mSubmitTime   = System.currentTimeMillis();
+
+		mScanFrames.add(frame);
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+
+/**
+ * A rectangle of the frame to be scanned: [left, right) x [top, bottom), in pixels. Parts
+ * outside the frame are ignored.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class ScanRegion {
+
+	int mLeft;
+	int mTop;
+	int mRight;
+	int mBottom;
+
+
+
+	public ScanRegion(int left, int top, int right, int bottom) {
+		set(left, top, right, bottom);
+	}
+
+
+
+	public int getBottom() {
+		return mBottom;
+	}
+
+
+
+	public int getLeft() {
+		return mLeft;
+	}
+
+
+
+	public int getRight() {
+		return mRight;
+	}
+
+
+
+	public int getTop() {
+		return mTop;
+	}
+
+
+
+	/**
+	 * Moves the region, so that the engine can reuse it from one frame to the next
+	 */
+	ScanRegion set(int left, int top, int right, int bottom) {
+		mLeft   = left;
+		mTop    = top;
+		mRight  = right;
+		mBottom = bottom;
+
+		return this;
+	}
+
+
+
+	@Override
+	public String toString() {
+		return String.format("[%d, %d) x [%d, %d)", mLeft, mRight, mTop, mBottom);
+	}
+}
@@ -24,7 +24,9 @@
  *
  *
  *
- * This version was slightly changed to include additional comments.
+ * This version was slightly changed to include additional comments, and to
+ * receive the image as a plain ARGB array instead of an Android Bitmap, so it
+ * has no platform dependencies.
  * The original source can be found at :
  * 		http://users.eecs.northwestern.edu/~mhorn/topcodes/
  */
@@ -33,8 +35,6 @@ package com.paperclickers.fiducial;
 
 import java.util.List;
 
-import android.graphics.Bitmap;
-
 /**
  * Loads and scans images for TopCodes. The algorithm does a single sweep of an
  * image (scanning one horizontal line at a time) looking for a TopCode bullseye
@@ -52,9 +52,12 @@ public class Scanner {
 	/** Total height of image */
 	protected int h;
 
-	/** Holds processed binary pixel data */
+	/** Holds the image pixels, and the running threshold sums once thresholded */
 	protected int[] data;
 
+	/** Holds processed binary pixel data and candidate locations, bit packed */
+	protected BinaryImage binary;
+
 	/** Candidate code count */
 	protected int ccount;
 
@@ -74,21 +77,25 @@ public class Scanner {
 		this.w = 0;
 		this.h = 0;
 		this.data = null;
+		this.binary = null;
 		this.ccount = 0;
 		this.tcount = 0;
 		this.maxu = 80;
 	}
 
 	/**
-	 * Scan the given image and return a list of all topcodes found in it.
+	 * Scan the given ARGB image and return a list of all topcodes found in it.
 	 */
-	public List<TopCode> scan(Bitmap image) {
-		this.w = image.getWidth();
-		this.h = image.getHeight();
+	public List<TopCode> scan(int[] image, int width, int height) {
+		this.w = width;
+		this.h = height;
 		if (data == null || data.length < w * h) {
 			this.data = new int[w * h];
 		}
-		image.getPixels(this.data, 0, w, 0, 0, w, h);
+		System.arraycopy(image, 0, this.data, 0, w * h);
+		if (binary == null || binary.getWidth() != w || binary.getHeight() != h) {
+			this.binary = new BinaryImage(w, h);
+		}
 
 		threshold(); // run the adaptive threshold filter
 		
@@ -145,8 +152,7 @@ public class Scanner {
 	 * Binary (thresholded black/white) value for pixel (x,y)
 	 */
 	protected int getBW(int x, int y) {
-		int pixel = data[y * w + x];
-		return (pixel >> 24) & 0x01;
+		return binary.get(x, y);
 	}
 
 	/**
@@ -156,18 +162,8 @@ public class Scanner {
 	protected int getSample3x3(int x, int y) {
 		if (x < 1 || x > w - 2 || y < 1 || y >= h - 2)
 			return 0;
-		int pixel, sum = 0;
 
-		for (int j = y - 1; j <= y + 1; j++) {
-			for (int i = x - 1; i <= x + 1; i++) {
-				pixel = data[j * w + i];
-				if ((pixel & 0x01000000) > 0) {
-					sum += 0xff;
-				}
-			}
-		}
-		// return (sum >= 5) ? 1 : 0;
-		return (sum / 9);
+		return (binary.count3x3(x, y) * 0xff) / 9;
 	}
 
 	/**
@@ -177,20 +173,14 @@ public class Scanner {
 	protected int getBW3x3(int x, int y) {
 		if (x < 1 || x > w - 2 || y < 1 || y >= h - 2)
 			return 0;
-		int pixel, sum = 0;
 
-		for (int j = y - 1; j <= y + 1; j++) {
-			for (int i = x - 1; i <= x + 1; i++) {
-				pixel = data[j * w + i];
-				sum += ((pixel >> 24) & 0x01);
-			}
-		}
-		return (sum >= 5) ? 1 : 0;
+		return (binary.count3x3(x, y) >= 5) ? 1 : 0;
 	}
 
 	/**
 	 * Perform Wellner adaptive thresholding to produce binary pixel data. Also
-	 * mark candidate spotcode locations.
+	 * mark candidate spotcode locations. The running sums are kept in data, while
+	 * the binary pixels and candidates go to the bit packed image.
 	 * 
 	 * "Adaptive Thresholding for the DigitalDesk" EuroPARC Technical Report
 	 * EPC-93-110
@@ -204,6 +194,7 @@ public class Scanner {
 		int b1, w1, b2, level, dk;
 
 		this.ccount = 0;
+		binary.clearCandidates();
 
 		for (int j = 0; j < h; j++) {
 			level = b1 = b2 = w1 = 0;
@@ -256,6 +247,7 @@ public class Scanner {
 				// for this pixel in the RGB channels
 				// ----------------------------------------
 				data[k] = (a << 24) + (sum & 0xffffff);
+				binary.set(k - j * w, j, a);
 
 				switch (level) {
 
@@ -296,7 +288,6 @@ public class Scanner {
 					}
 					// This could be a top code
 					else {
-						int mask;
 						if (b1 >= 2
 								&& b2 >= 2
 								&& // less than 2 pixels... not interested
@@ -305,8 +296,6 @@ public class Scanner {
 								&& Math.abs(b1 + b2 - w1) <= w1
 								&& Math.abs(b1 - b2) <= b1
 								&& Math.abs(b1 - b2) <= b2) {
-							mask = 0x2000000;
-
 							dk = 1 + b2 + w1 / 2;
 							if (j % 2 == 0) {
 								dk = k - dk;
@@ -314,9 +303,11 @@ public class Scanner {
 								dk = k + dk;
 							}
 
-							data[dk - 1] |= mask;
-							data[dk] |= mask;
-							data[dk + 1] |= mask;
+							dk -= j * w;
+
+							binary.markHorizontalCandidate(dk - 1, j);
+							binary.markHorizontalCandidate(dk, j);
+							binary.markHorizontalCandidate(dk + 1, j);
 							ccount += 3; // count candidate codes
 						}
 						b1 = b2;
@@ -341,14 +332,13 @@ public class Scanner {
 
 		TopCode spot = new TopCode();
 		
-		int k = w * 2;
 		for (int j = 2; j < h - 2; j++) {
-			for (int i = 0; i < w; i++) {
-				if ((data[k] & 0x2000000) > 0) {
-					if ((data[k - 1] & 0x2000000) > 0
-							&& (data[k + 1] & 0x2000000) > 0
-							&& (data[k - w] & 0x2000000) > 0
-							&& (data[k + w] & 0x2000000) > 0) {
+			for (int i = 1; i < w - 1; i++) {
+				if (binary.isHorizontalCandidate(i, j)) {
+					if (binary.isHorizontalCandidate(i - 1, j)
+							&& binary.isHorizontalCandidate(i + 1, j)
+							&& binary.isHorizontalCandidate(i, j - 1)
+							&& binary.isHorizontalCandidate(i, j + 1)) {
 						/*
 						 * if ((data[k-w] & 0x2000000) > 0 || (data[k+w] &
 						 * 0x2000000) > 0)) {
@@ -364,7 +354,6 @@ public class Scanner {
 						}
 					}
 				}
-				k++;
 			}
 		}
 
@@ -405,19 +394,61 @@ public class Scanner {
 
 	/**
 	 * Counts the number of horizontal pixels in direction (d) from (x,y) until a color change is
-	 * perceived.
+	 * perceived. The direction is either 1 or -1; 64 samples are taken at once, jumping straight
+	 * to the first one with a different color.
 	 */
 	protected int xdist(int x, int y, int d) {
-		int sample;
 		int start = getBW3x3(x, y);
 
-		for (int i = x + d; i > 1 && i < w - 1; i += d) {
-			sample = getBW3x3(i, y);
-			if (start + sample == 1) {
-				return (d > 0) ? i - x : x - i;
+		if (y < 1 || y >= h - 2) {
+			return -1; // every sample is black, as is the start
+		}
+
+		// Samples are taken from 2 to w - 2
+
+		int first = x + d;
+		int last  = (d > 0) ? w - 2 : 2;
+
+		if (first < 2 || first > w - 2) {
+			return -1;
+		}
+
+		int firstWord = first >> BinaryImage.WORD_SHIFT;
+		int lastWord  = last >> BinaryImage.WORD_SHIFT;
+
+		for (int word = firstWord; ; word += d) {
+			long changes = binary.majority3x3(word, y);
+
+			if (start == 1) {
+				changes = ~changes;
+			}
+
+			if (d > 0) {
+				if (word == firstWord) {
+					changes &= -1L << (first & BinaryImage.WORD_MASK);
+				}
+				if (word == lastWord) {
+					changes &= -1L >>> (BinaryImage.WORD_MASK - (last & BinaryImage.WORD_MASK));
+				}
+				if (changes != 0) {
+					return (word << BinaryImage.WORD_SHIFT) + Long.numberOfTrailingZeros(changes) - x;
+				}
+			} else {
+				if (word == firstWord) {
+					changes &= -1L >>> (BinaryImage.WORD_MASK - (first & BinaryImage.WORD_MASK));
+				}
+				if (word == lastWord) {
+					changes &= -1L << (last & BinaryImage.WORD_MASK);
+				}
+				if (changes != 0) {
+					return x - ((word << BinaryImage.WORD_SHIFT) + BinaryImage.WORD_MASK - Long.numberOfLeadingZeros(changes));
+				}
+			}
+
+			if (word == lastWord) {
+				return -1;
 			}
 		}
-		return -1;
 	}
 
 }
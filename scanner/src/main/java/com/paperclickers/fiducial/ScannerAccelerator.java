@@ -0,0 +1,80 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+
+/**
+ * Optional accelerated back-end for the image filtering stages of the ScannerEngine (threshold and
+ * morphological operations). When no accelerator is set, the engine runs its own scalar Java
+ * implementation of those stages.
+ *
+ * The accelerator keeps its own copy of the frame between calls; the engine only gets the
+ * processed pixels back when calling retrieveFrame() - or, from a CandidatesAccelerator, only the
+ * packed binary pixels and candidates.
+ */
+
+public interface ScannerAccelerator {
+
+	/**
+	 * Loads the given luma frame (luma on the most significant byte of each pixel) into the
+	 * accelerator.
+	 */
+	void loadFrame(int[] data);
+
+	/**
+	 * Applies the median filter over the current frame
+	 */
+	void medianFilter();
+
+	/**
+	 * Runs the Wellner adaptive threshold over the current frame, waiting for its completion
+	 */
+	void adaptiveThreshold();
+
+	/**
+	 * Runs the integral image (Bradley & Roth) threshold over the current frame, with the given
+	 * window size, marking black the pixels "percentage" below their window average; waits for
+	 * its completion
+	 */
+	void integralThreshold(int windowSize, int percentage);
+
+	/**
+	 * Morphological closing (dilation followed by erosion) of the current thresholded frame
+	 */
+	void morphoClosing();
+
+	/**
+	 * Morphological opening (erosion followed by dilation) of the current thresholded frame
+	 */
+	void morphoOpening();
+
+	/**
+	 * Copies the current processed frame back to the given buffer
+	 */
+	void retrieveFrame(int[] data);
+
+	/**
+	 * Releases all the resources held by the accelerator
+	 */
+	void release();
+}
@@ -0,0 +1,2650 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ * 
+ * Copyright (C) 2015-2016 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2016 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *   
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * 
+ */
+
+
+package com.paperclickers.fiducial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.Math.min;
+
+
+/**
+ * 
+ * @author Eduardo Seiti de Oliveira
+ * 
+ * Platform independent TopCodes scanning pipeline: adaptive threshold, optional morphological
+ * operations, horizontal and vertical candidates scan and codes decoding, working over a luma
+ * plane. The image filtering stages can be delegated to a ScannerAccelerator; otherwise they run
+ * in plain Java.
+ *
+ */
+
+public class ScannerEngine extends Scanner {
+
+	final static String TAG = "paperclickers.engine";
+	
+	// Use this constant to enable logging the number of candidates found
+	public static final boolean CANDIDATES_LOG = true;
+    
+    // Use this constant to enable logging the main methods execution time
+    public static final boolean LOG_EXECUTION_TIMES = true;
+    
+	// Use this constant to enable testing vertically the image for topcode candidates
+	public static final boolean TEST_VERTICAL_CANDIDATES = true;
+
+	// Use this constant to enable the single pass candidates scan, which also thresholds each row right before scanning
+	// it when there is no accelerator nor morphological operations in between
+	public static final boolean USE_FUSED_SCANNING = true;
+
+	// Use this constant to enable deferring the candidates blobs left undecoded when the decode deadline passes to the
+	// next frame, which decodes the blobs found around them first. Either way they are recorded, for getDeferredCount(),
+	// but otherwise the next frame ignores them, decoding its blobs in plain quality order
+	public static final boolean DEFER_UNDECODED_BLOBS = true;
+
+	//
+	// The median filter has been implemented as an option for dealing with corrupted TopCodes; however, morphological
+	// operations ended up with better performance.
+	//
+	// The median filter is only available through a ScannerAccelerator. To test it make sure an accelerator is set
+	// and the morphological operations are disabled.
+	//
+
+	public static final boolean APPLY_MEDIAN_FILTER = false;
+
+
+	//
+	// Threshold modes: Wellner's running average, in which every pixel depends on the previous one, or Bradley & Roth
+	// window average computed from an integral image (summed-area table), in which every pixel decision is
+	// independent, so that it can be split among threads or run as a parallel kernel.
+	//
+
+	public static final int THRESHOLD_WELLNER  = 0;
+	public static final int THRESHOLD_INTEGRAL = 1;
+
+	// Integral threshold: a pixel is black when it is this percentage below its window average
+	public static final int INTEGRAL_THRESHOLD_PERCENTAGE = 15;
+
+	// Integral threshold default window size, as a fraction of the image width
+	public static final int INTEGRAL_THRESHOLD_WINDOW_DIVISOR = 8;
+
+
+	// Wellner running sum the whole frame threshold starts from, on the first row
+	static final int WELLNER_INITIAL_SUM = 128;
+
+
+	// Rows thresholded ahead of each parallel scan band, only to seed the Wellner running sums: the threshold of a
+	// row only looks back at the previous row, and the sum carried from the row before fades along a whole row. The
+	// seed is still approximate - on flat areas the integer running sum can settle a few units away from the whole
+	// frame one - so band thresholding may differ from it by a few pixels, mostly on its first rows
+	public static final int WELLNER_BAND_WARMUP_ROWS = 2;
+
+
+	// Candidates blob decoding positions, as (x, y) offsets from the blob centroid: the centroid itself, then its 4
+	// neighbors, in case the centroid lies right on a thresholding defect
+	static final int[] DECODE_JITTER_OFFSETS = {0, 0, -1, 0, 1, 0, 0, -1, 0, 1};
+
+	// Decode deadline meaning every blob is decoded, see setDecodeDeadline()
+	public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	// Largest centroid displacement, in pixels along each axis, of a blob deferred by the previous frame
+	static final int DEFERRED_BLOB_DISTANCE = 8;
+
+	// Frames in a row a blob can be deferred for before its priority stops growing
+	static final int MAX_DEFERRED_AGE = 1 << 12;
+
+	// Blobs a budgeted decode goes through even past its deadline, so that frames whose candidates scan alone spends
+	// the budget still make progress on the longest deferred blobs
+	static final int MIN_BUDGETED_BLOBS = 1;
+
+	// Pixels, on each side of a blob centroid, its candidates cross is measured over, see blobQuality()
+	static final int BLOB_QUALITY_RADIUS = 12;
+
+	// Debug log messages a steady state scan keeps until drainLog() formats them; older messages
+	// are kept and the newer ones dropped when full
+	public static final int DEFERRED_LOG_CAPACITY = 256;
+
+	// Smallest unit, in coarse level pixels, codes are reliably decoded at by the pyramid scan;
+	// codes up to it, plus a pixel of thresholding slack, are scanned for at full resolution
+	public static final int PYRAMID_COARSE_MIN_UNIT = 3;
+
+	// Half side of the region thresholded around each tracked code, in code diameters: the code
+	// reaches half its diameter away from its center, and can move a quarter of it between frames
+	public static final float TRACKING_REGION_DIAMETERS = 0.75f;
+
+	// Positions, relative to its last known center and in code units, a tracked code is decoded
+	// from, in order, until it decodes; the bulls-eye center is one unit wide
+	static final int[] TRACKING_OFFSETS = {0, 0, -1, 0, 1, 0, 0, -1, 0, 1};
+
+	// Pixels on the left of a region the Wellner running sum is seeded from; the sum keeps less
+	// than 5% of a pixel after 90 others
+	public static final int WELLNER_REGION_WARMUP_COLUMNS = 96;
+
+
+	public static final int MORPHO_DILATION_STRUCT_SIZE = 3;
+	public static final int MORPHO_EROSION_STRUCT_SIZE  = 3;
+
+	// Median filter size can be up to 7 - there is a constant defined in renderscript code.
+
+	public static final int MEDIAN_FILTER_ELEMENT_SIZE = 5;
+	public static final int MEDIAN_FILTER_HALF_ELEMENT_SIZE = (MEDIAN_FILTER_ELEMENT_SIZE - 1) / 2;
+
+	public static final int PIXEL_COLOR_MASK = 0x01000000;
+	
+
+	boolean mUseMorphoOperations = false;
+	int mMorphoElementSize = MORPHO_DILATION_STRUCT_SIZE;
+
+
+	
+	long mStartThresholdTime;
+	long mEndThresholdTime;
+	long mStartFindCodesTime;
+	long mEndFindCodesTime;
+
+	long mStartDilationTime;
+	long mEndDilationTime;
+	long mStartErosionTime;
+	long mEndErosionTime;
+
+	long mStartDilation2Time;
+	long mEndDilation2Time;
+	long mStartErosion2Time;
+	long mEndErosion2Time;
+
+	long mStartOpeningTime;
+	long mEndOpeningTime;
+	long mStartClosingTime;
+	long mEndClosingTime;
+
+	long mStartMedianFilterTime;
+	long mEndMedianFilterTime;
+
+	long mStartHorizontalScanTime;
+	long mEndHorizontalScanTime;
+	
+	long mStartVerticalScanTime;
+	long mEndVerticalScanTime;
+
+
+
+	// Java morphological operations and their destination, swapped with the binary image pixels after each one
+	protected BinaryMorphology mMorphology;
+	protected long[] mWorkingPixels;
+
+	// Luma of the frame being scanned; scanner input planes are read through mPlaneSource, and
+	// one byte luma planes given to scanLuma() through mBytesSource
+	protected LumaSource mLumaSource;
+
+	protected final PlaneLumaSource mPlaneSource = new PlaneLumaSource();
+	protected final YuvLumaSource mBytesSource   = new YuvLumaSource(null, 0);
+
+	// Scanner input plane the accelerator hands the filtered frame back into, also loaded from it
+	// for luma sources other than a plane
+	protected int[] mAcceleratorPlane;
+
+	int mThresholdMode = THRESHOLD_WELLNER;
+	int mIntegralWindowSize;
+
+	// TopCode unit and arc adjustments search: TopCode.SEARCH_EXHAUSTIVE or TopCode.SEARCH_COARSE_TO_FINE
+	int mDecodeSearch = TopCode.SEARCH_EXHAUSTIVE;
+
+	// Summed-area table of the luma frame, (w + 1) x (h + 1) with a zeroed first row and column; an int holds the
+	// sum of frames up to 8 megapixels
+	protected int[] mIntegralImage;
+
+	// Whole frame band, used by the sequential scan
+	protected final ScanBand mFrameBand = new ScanBand(0, 0, 0, 0);
+
+	// Pixels covered by the regions to be thresholded, bit packed as the binary image
+	protected long[] mRegionPixels;
+
+	// Running sums of the regions being thresholded, and the samples of the tracked codes
+	protected final ScanBand mRegionBand = new ScanBand(0, 0, 0, 0);
+
+	// Parallel scan bands, the threads scanning them and the tasks of each scan phase; no bands for the sequential scan
+	protected ScanBand[] mBands;
+
+	BandWorkers mBandWorkers;
+
+	List<Runnable> mBandsScanTasks;
+	List<Runnable> mBandsVerticalScanTasks;
+	List<Runnable> mBandsFindCodesTasks;
+
+	// Current parallel scan parameters, read by the tasks
+	boolean mBandsApplyThreshold;
+	boolean mBandsHasRotated;
+
+	ScannerAccelerator mAccelerator = null;
+
+	// System.nanoTime() findCodes() stops decoding blobs at, and the blobs it left undecoded
+	long mDecodeDeadline = NO_DEADLINE;
+	int mDeferredCount;
+
+	// Horizontal and vertical candidates counts of a CandidatesAccelerator scan
+	final int[] mAcceleratedCounts = new int[2];
+
+	// Pyramid scan: downsampling factor, engine scanning the coarse level and its luma plane; no
+	// coarse engine for the full resolution scan
+	int mPyramidFactor = 1;
+
+	ScannerEngine mCoarseEngine;
+	int[] mCoarsePlane;
+
+	// Sums of the coarse pixels of the row being downsampled
+	int[] mCoarseSums;
+
+	final List<TopCode> mCoarseCodes = new ArrayList<TopCode>();
+	final List<ScanRegion> mFineRegions = new ArrayList<ScanRegion>();
+
+	// Regions mFineRegions is filled with, reused from one frame to the next
+	final List<ScanRegion> mFineRegionsPool = new ArrayList<ScanRegion>();
+
+	// Whether a candidate counts without its 4 neighbors also marked as candidates, as the pyramid
+	// coarse level does for the bulls-eyes too small to mark them, see pyramidProcessing()
+	boolean mIsolatedCandidates = false;
+
+	// Codes enrolled in the session; null accepts every valid code
+	CodeTable mEnrolledCodes = null;
+
+	// Steady state scan, see setSteadyState(): codes are taken from the bands pools and the debug
+	// log messages are recorded in mDeferredLog
+	boolean mSteadyState = false;
+
+	LogRing mDeferredLog;
+
+	// Set on engines whose debug log goes nowhere, as the pyramid coarse one, so that the messages
+	// are not even formatted
+	boolean mLogDiscarded = false;
+
+	// Messages drained from mDeferredLog, handed over to debugLog()
+	final LogRing.Sink mDeferredLogSink = new LogRing.Sink() {
+		@Override
+		public void log(String message) {
+			debugLog(message);
+		}
+	};
+
+	
+	/**
+	 * Adaptive threshold of the frame luma, read from mLumaSource, using the current threshold
+	 * mode, writing the binary pixels to the packed image.
+	 */
+	protected void adaptiveThreshold() {
+
+		ScanBand band = frameBand();
+
+		this.ccount = 0;
+
+		prepareThreshold();
+		prepareBandThreshold(band);
+
+		for (int j = 0; j < h; j++) {
+			thresholdRow(j, band);
+		}
+	}
+
+
+
+	/**
+	 * Fills the summed-area table of the frame luma
+	 */
+	protected void buildIntegralImage() {
+
+		int stride = w + 1;
+
+		if (mIntegralImage == null || mIntegralImage.length != stride * (h + 1)) {
+			mIntegralImage = new int[stride * (h + 1)];
+		}
+
+		int[] luma = lumaRow(frameBand());
+
+		for (int j = 0; j < h; j++) {
+
+			int rowSum = 0;
+
+			int above   = j * stride + 1;
+			int current = above + stride;
+
+			mLumaSource.readLuma(j * w, luma, 0, w);
+
+			for (int i = 0; i < w; i++) {
+				rowSum += luma[i];
+
+				mIntegralImage[current + i] = mIntegralImage[above + i] + rowSum;
+			}
+		}
+	}
+
+
+
+	public ScannerEngine(int width, int height) {
+		super();
+
+		this.maxu = min(width / TopCode.WIDTH, height / TopCode.WIDTH);
+
+		this.w = width;
+		this.h = height;
+
+		this.binary = new BinaryImage(width, height);
+
+		mIntegralWindowSize = width / INTEGRAL_THRESHOLD_WINDOW_DIVISOR;
+	}
+
+
+
+	/**
+	 * Hook for the platform debug log; the engine itself does not log anything.
+	 */
+	protected void debugLog(String message) {
+	}
+
+
+
+	/**
+	 * Formats a debug log message with its arguments, right away or, in steady state, only when
+	 * the log is drained - see drainLog().
+	 */
+	protected void debugLog(String format, long a) {
+		if (mLogDiscarded) {
+			return;
+		}
+
+		if (mSteadyState) {
+			mDeferredLog.add(format, a);
+		} else {
+			debugLog(String.format(format, a));
+		}
+	}
+
+
+
+	protected void debugLog(String format, long a, long b) {
+		if (mLogDiscarded) {
+			return;
+		}
+
+		if (mSteadyState) {
+			mDeferredLog.add(format, a, b);
+		} else {
+			debugLog(String.format(format, a, b));
+		}
+	}
+
+
+
+	protected void debugLog(String format, long a, long b, long c) {
+		if (mLogDiscarded) {
+			return;
+		}
+
+		if (mSteadyState) {
+			mDeferredLog.add(format, a, b, c);
+		} else {
+			debugLog(String.format(format, a, b, c));
+		}
+	}
+
+
+
+	protected void debugLog(String format, long a, long b, long c, long d) {
+		if (mLogDiscarded) {
+			return;
+		}
+
+		if (mSteadyState) {
+			mDeferredLog.add(format, a, b, c, d);
+		} else {
+			debugLog(String.format(format, a, b, c, d));
+		}
+	}
+
+
+
+	protected void debugLog(String format, long a, long b, long c, long d, long e) {
+		if (mLogDiscarded) {
+			return;
+		}
+
+		if (mSteadyState) {
+			mDeferredLog.add(format, a, b, c, d, e);
+		} else {
+			debugLog(String.format(format, a, b, c, d, e));
+		}
+	}
+
+
+
+	/**
+	 * Hands the debug log messages recorded by the steady state scans over to debugLog(String),
+	 * formatting them; meant to be called out of the scanning path. Returns how many there were.
+	 */
+	public int drainLog() {
+		return (mDeferredLog != null) ? mDeferredLog.drain(mDeferredLogSink) : 0;
+	}
+
+
+
+	public void finalize() {
+		if (mAccelerator != null) {
+			mAccelerator.release();
+
+			mAccelerator = null;
+		}
+
+		setParallelBands(0);
+    }
+
+
+
+	/**
+	 * The whole frame band, sized to the current frame
+	 */
+	protected ScanBand frameBand() {
+
+		mFrameBand.set(0, h, 0, binary.mWordsPerRow);
+
+		return mFrameBand;
+	}
+
+
+
+	/**
+	 * The band buffer rows are read from the luma source into, sized to the frame width
+	 */
+	protected int[] lumaRow(ScanBand band) {
+
+		if (band.mLumaRow == null || band.mLumaRow.length != w) {
+			band.mLumaRow = new int[w];
+		}
+
+		return band.mLumaRow;
+	}
+
+
+
+	/**
+	 * mPlaneSource, set to read the given scanner input plane
+	 */
+	protected LumaSource planeSource(int[] image) {
+
+		mPlaneSource.setPlane(image);
+
+		return mPlaneSource;
+	}
+
+
+
+	/**
+	 * The frame as a scanner input plane, for the accelerator to load: the plane itself when read
+	 * from one, otherwise a copy in mAcceleratorPlane
+	 */
+	protected int[] acceleratorPlane(LumaSource source) {
+
+		if (mAcceleratorPlane == null) {
+			mAcceleratorPlane = new int[w * h];
+		}
+
+		if (source instanceof PlaneLumaSource) {
+			return ((PlaneLumaSource) source).getPlane();
+		}
+
+		source.readLuma(0, mAcceleratorPlane, 0, w * h);
+
+		for (int i = 0; i < w * h; i++) {
+			mAcceleratorPlane[i] <<= 24;
+		}
+
+		return mAcceleratorPlane;
+	}
+
+
+
+	public ScannerAccelerator getAccelerator() {
+		return mAccelerator;
+	}
+
+
+
+	/**
+	 * Candidates bitmap word at the given index: horizontal candidates, also confirmed vertically
+	 * when testing vertical candidates
+	 */
+	private long candidatesWord(int index) {
+
+		if (TEST_VERTICAL_CANDIDATES) {
+			return binary.mHorizontalCandidates[index] & binary.mVerticalCandidates[index];
+		} else {
+			return binary.mHorizontalCandidates[index];
+		}
+	}
+
+
+
+	/**
+	 * Whether (x, y), at least one pixel away from the image borders, is a candidate with its 4
+	 * neighbors also marked as candidates
+	 */
+	private boolean isEffectiveCandidate(int x, int y) {
+
+		return isCandidate(x, y) && isCandidate(x - 1, y) && isCandidate(x + 1, y) && isCandidate(x, y - 1) && isCandidate(x, y + 1);
+	}
+
+
+
+	private boolean isCandidate(int x, int y) {
+		return ((candidatesWord(y * binary.mWordsPerRow + (x >> BinaryImage.WORD_SHIFT)) >>> (x & BinaryImage.WORD_MASK)) & 0x01) != 0;
+	}
+
+
+
+	boolean isEnrolled(TopCode spot) {
+		return mEnrolledCodes == null || mEnrolledCodes.getSlot(spot.getCode()) != CodeTable.NOT_ENROLLED;
+	}
+
+
+
+	/**
+	 * Scan the image line by line looking for marked topcodes
+	 * candidates
+	 */
+	protected List<TopCode> findCodes(boolean hasRotated, List<TopCode> spots) {
+
+		ScanBand band = frameBand();
+
+		findCodes(hasRotated, spots, band);
+
+		this.tcount         = band.mTestedCount;
+		this.mDeferredCount = band.mDeferredCount;
+
+		if (TEST_VERTICAL_CANDIDATES) {
+			ccount = band.mEffectiveCandidates;
+		}
+		
+		if (CANDIDATES_LOG) {
+			debugLog("findCodes. Effective candidates count: %d", band.mEffectiveCandidates);
+		}
+		
+		return spots;
+	}
+
+
+
+	/**
+	 * Decodes the candidates of the band rows, adding the codes found to "spots"; the candidates
+	 * and tested codes counts are left in the band.
+	 *
+	 * Candidates are grouped in connected blobs - each one normally a single bulls-eye - and every
+	 * blob is decoded once, from its centroid, also trying the DECODE_JITTER_OFFSETS around it
+	 * covered by the blob when the centroid itself does not decode.
+	 */
+	protected void findCodes(boolean hasRotated, List<TopCode> spots, ScanBand band) {
+		
+		int effectiveCandidatesCount = 0;
+		int testedCount = 0;
+
+		int words = binary.mWordsPerRow;
+
+		if (band.mCandidatesRow == null || band.mCandidatesRow.length != words) {
+			band.mCandidatesRow = new long[words];
+		}
+
+		long[] candidatesRow = band.mCandidatesRow;
+
+		CandidateBlobs blobs = band.mBlobs;
+
+		blobs.clear();
+
+		for (int j = Math.max(2, band.mStartRow); j < Math.min(h - 2, band.mEndRow); j++) {
+
+			int offset = j * words;
+
+			for (int word = 0; word < words; word++) {
+
+				long candidates = candidatesWord(offset + word);
+
+				if (candidates != 0 && !mIsolatedCandidates) {
+
+					// A candidate must have its 4 neighbors also marked as candidates
+
+					long left  = candidates << 1;
+					long right = candidates >>> 1;
+
+					if (word > 0) {
+						left |= candidatesWord(offset + word - 1) >>> BinaryImage.WORD_MASK;
+					}
+
+					if (word < words - 1) {
+						right |= candidatesWord(offset + word + 1) << BinaryImage.WORD_MASK;
+					}
+
+					candidates &= left & right & candidatesWord(offset - words + word) & candidatesWord(offset + words + word);
+				}
+
+				effectiveCandidatesCount += Long.bitCount(candidates);
+
+				candidatesRow[word] = candidates;
+			}
+
+			blobs.addRow(j, candidatesRow, words);
+		}
+
+		blobs.resolve();
+
+		band.mMissedCount = 0;
+
+		band.swapDeferredBlobs();
+
+		band.mPooledCount = 0;
+
+		TopCode spot = newSpot(band);
+
+		int posX, posY;
+
+		int blobsCount = blobs.getBlobsCount();
+
+		boolean budgeted = (mDecodeDeadline != NO_DEADLINE);
+
+		if (budgeted) {
+			sortDecodeOrder(band);
+		}
+
+		for (int n = 0; n < blobsCount; n++) {
+
+			int blob = budgeted ? decodeOrderBlob(band, n) : n;
+
+			int i = blobs.getCentroidX(blob);
+			int j = blobs.getCentroidY(blob);
+
+			if (budgeted && n >= MIN_BUDGETED_BLOBS && System.nanoTime() - mDecodeDeadline >= 0) {
+
+				// Out of time: the rest of the blobs are recorded, for the next frame to decode first
+				// when DEFER_UNDECODED_BLOBS, and left undecoded
+
+				band.addDeferredBlob(i, j, Math.min(decodeOrderAge(band, n) + 1, MAX_DEFERRED_AGE));
+
+				continue;
+			}
+
+			posX = i;
+			posY = j;
+
+			if (hasRotated) {
+				posX = h - j;
+				posY = i;
+			}
+
+			if (overlaps(spots, posX, posY) != null) {
+				continue;
+			}
+
+			for (int k = 0; k < DECODE_JITTER_OFFSETS.length; k += 2) {
+
+				int x = i + DECODE_JITTER_OFFSETS[k];
+				int y = j + DECODE_JITTER_OFFSETS[k + 1];
+
+				// Besides the centroid, only positions the blob actually covers are worth decoding
+
+				if (k > 0 && (x < 1 || x > w - 2 || y < 2 || y >= h - 2 || !isEffectiveCandidate(x, y))) {
+					continue;
+				}
+
+				testedCount++;
+				spot.decode(this, x, y, band.mSampleCache, mDecodeSearch);
+
+				if (spot.isValid()) {
+					break;
+				}
+			}
+
+			if (spot.isValid()) {
+
+				// Codes out of the session are dropped right away, the spot being reused
+
+				if (!isEnrolled(spot)) {
+					continue;
+				}
+
+				if (hasRotated) {
+					rotateSpot(spot);
+				}
+
+				// Repeated codes are kept: the answers validation tells duplicated cards apart
+
+				spots.add(spot);
+
+				spot = newSpot(band);
+			} else {
+				band.addMissedBlob(i, j);
+			}
+		}
+
+		band.mEffectiveCandidates = effectiveCandidatesCount;
+		band.mTestedCount         = testedCount;
+	}
+
+
+
+	/**
+	 * Sorts the band blobs in the order a budgeted decode goes through them: first the ones around
+	 * a blob deferred by the previous frames, the longest deferred first, so that no blob is
+	 * deferred forever, and then by decreasing blobQuality(). Blobs of the same priority keep
+	 * their top to bottom order.
+	 */
+	private void sortDecodeOrder(ScanBand band) {
+
+		CandidateBlobs blobs = band.mBlobs;
+
+		int blobsCount = blobs.getBlobsCount();
+
+		if (band.mDecodeOrder == null || band.mDecodeOrder.length < blobsCount) {
+			band.mDecodeOrder = new long[Math.max(blobsCount, CandidateBlobs.INITIAL_CAPACITY)];
+		}
+
+		for (int blob = 0; blob < blobsCount; blob++) {
+
+			int x = blobs.getCentroidX(blob);
+			int y = blobs.getCentroidY(blob);
+
+			// The age goes above any quality, at most 2 * (2 * BLOB_QUALITY_RADIUS + 1)
+
+			long age = DEFER_UNDECODED_BLOBS ? band.previousDeferredAge(x, y, DEFERRED_BLOB_DISTANCE) : 0;
+
+			long priority = (age << 16) + blobQuality(x, y);
+
+			band.mDecodeOrder[blob] = (priority << 32) | (Integer.MAX_VALUE - blob);
+		}
+
+		Arrays.sort(band.mDecodeOrder, 0, blobsCount);
+	}
+
+
+
+	/**
+	 * How likely the blob centered at (x, y) is a code: the length of its candidates cross, the
+	 * horizontal candidates along its column plus the vertical ones along its row, up to
+	 * BLOB_QUALITY_RADIUS pixels away. Every row crossing a bulls-eye marks its center, so on
+	 * codes the cross spans the whole bulls-eye, while on spurious blobs - a single run pattern
+	 * matching by chance - it is much shorter.
+	 */
+	private int blobQuality(int x, int y) {
+
+		int quality = 0;
+
+		for (int d = -BLOB_QUALITY_RADIUS; d <= BLOB_QUALITY_RADIUS; d++) {
+
+			if (y + d >= 0 && y + d < h && binary.isHorizontalCandidate(x, y + d)) {
+				quality++;
+			}
+
+			if (x + d >= 0 && x + d < w && binary.isVerticalCandidate(x + d, y)) {
+				quality++;
+			}
+		}
+
+		return quality;
+	}
+
+
+
+	/**
+	 * Blob decoded n-th, once sorted by sortDecodeOrder()
+	 */
+	private static int decodeOrderBlob(ScanBand band, int n) {
+		return Integer.MAX_VALUE - (int) band.mDecodeOrder[band.mBlobs.getBlobsCount() - 1 - n];
+	}
+
+
+
+	/**
+	 * Frames in a row the blob decoded n-th has been deferred for
+	 */
+	private static int decodeOrderAge(ScanBand band, int n) {
+		return (int) (band.mDecodeOrder[band.mBlobs.getBlobsCount() - 1 - n] >>> 48);
+	}
+
+
+
+	/**
+	 * Code the band decodes into next: a new one, or one of the band pool in steady state
+	 */
+	private TopCode newSpot(ScanBand band) {
+		return mSteadyState ? band.pooledCode() : new TopCode();
+	}
+
+
+
+	/**
+	 * Decodes each one of "trackedCodes" around its last known position, as given by the code
+	 * center, trying the TRACKING_OFFSETS until it decodes to the same code, and adds the codes
+	 * found to "codesFound". Only the regions around the tracked codes need to be thresholded.
+	 */
+	protected void decodeTrackedCodes(boolean hasRotated, List<TopCode> trackedCodes, List<TopCode> codesFound) {
+
+		if (LOG_EXECUTION_TIMES) {
+			mStartFindCodesTime = System.currentTimeMillis();
+		}
+
+		int testedCount = 0;
+
+		mRegionBand.mPooledCount = 0;
+
+		TopCode spot = newSpot(mRegionBand);
+
+		mDeferredCount = 0;
+
+		for (int n = 0; n < trackedCodes.size(); n++) {
+
+			TopCode tracked = trackedCodes.get(n);
+
+			int i    = trackedX(tracked, hasRotated);
+			int j    = trackedY(tracked, hasRotated);
+			int unit = Math.max(1, Math.round(tracked.getDiameter() / TopCode.WIDTH));
+
+			boolean found = false;
+
+			for (int k = 0; k < TRACKING_OFFSETS.length && !found; k += 2) {
+
+				int x = i + TRACKING_OFFSETS[k] * unit;
+				int y = j + TRACKING_OFFSETS[k + 1] * unit;
+
+				if (x < 1 || x > w - 2 || y < 2 || y >= h - 2) {
+					continue;
+				}
+
+				testedCount++;
+				spot.decode(this, x, y, mRegionBand.mSampleCache, mDecodeSearch);
+
+				found = spot.isValid() && spot.getCode() == tracked.getCode();
+			}
+
+			if (found) {
+
+				if (hasRotated) {
+					rotateSpot(spot);
+				}
+
+				codesFound.add(spot);
+
+				spot = newSpot(mRegionBand);
+			}
+		}
+
+		this.tcount = testedCount;
+
+		if (LOG_EXECUTION_TIMES) {
+			mEndFindCodesTime = System.currentTimeMillis();
+
+			debugLog("Tracking decode execution time(ms): %d, tracked: %d, found: %d", mEndFindCodesTime - mStartFindCodesTime, trackedCodes.size(), codesFound.size());
+		}
+	}
+
+
+
+	/**
+	 * Parallel version of findCodes(): every band decodes its own candidates, and the codes found
+	 * are merged into "spots". A code lying across a band boundary has candidates in both bands,
+	 * so it may be found twice: the band codes overlapping one already merged are dropped. Codes
+	 * repeated elsewhere in the frame are kept, as in findCodes().
+	 */
+	protected List<TopCode> findCodesBands(boolean hasRotated, List<TopCode> spots) {
+
+		int effectiveCandidatesCount = 0;
+
+		this.tcount         = 0;
+		this.mDeferredCount = 0;
+
+		mBandsHasRotated = hasRotated;
+
+		runBandsTasks(mBandsFindCodesTasks);
+
+		for (ScanBand band : mBands) {
+
+			effectiveCandidatesCount += band.mEffectiveCandidates;
+			this.tcount              += band.mTestedCount;
+			this.mDeferredCount      += band.mDeferredCount;
+
+			for (int n = 0; n < band.mSpots.size(); n++) {
+
+				TopCode spot = band.mSpots.get(n);
+
+				if (overlaps(spots, (int) spot.getCenterX(), (int) spot.getCenterY()) != null) {
+					continue;
+				}
+
+				spots.add(spot);
+			}
+		}
+
+		if (TEST_VERTICAL_CANDIDATES) {
+			ccount = effectiveCandidatesCount;
+		}
+
+		if (CANDIDATES_LOG) {
+			debugLog("findCodesBands. Effective candidates count: %d", effectiveCandidatesCount);
+		}
+
+		return spots;
+	}
+
+
+	/**
+	 * Indexed version of Scanner.overlaps(), which needs no iterator
+	 */
+	@Override
+	protected TopCode overlaps(List<TopCode> spots, int x, int y) {
+
+		for (int n = 0; n < spots.size(); n++) {
+
+			TopCode top = spots.get(n);
+
+			if (top.inBullsEye(x, y)) {
+				return top;
+			}
+		}
+
+		return null;
+	}
+
+
+
+	public int getCandidatesCount() {
+		return ccount;
+	}
+
+
+
+	/**
+	 * Candidates blobs the last decode left undecoded, because the decode deadline had passed
+	 */
+	public int getDeferredCount() {
+		return mDeferredCount;
+	}
+
+
+
+	public int getDecodeSearch() {
+		return mDecodeSearch;
+	}
+
+
+
+	public int getThresholdMode() {
+		return mThresholdMode;
+	}
+
+
+
+	/**
+	 * Copies the last thresholded frame to the given buffer, with the binary pixels on bit 24 as
+	 * the scanner used to keep them.
+	 */
+	public void getThresholdedFrame(int[] frame) {
+		binary.unpackTo(frame);
+	}
+
+
+
+	/**
+	 * Dilation of the black regions of the binary image into mWorkingPixels
+	 */
+	protected void morphoDilation() {
+		mMorphology.dilate(binary.mPixels, mWorkingPixels, mMorphoElementSize);
+	}
+
+
+
+	/**
+	 * Erosion of the black regions of the binary image into mWorkingPixels
+	 */
+	protected void morphoErosion() {
+		mMorphology.erode(binary.mPixels, mWorkingPixels, mMorphoElementSize);
+	}
+
+
+
+	/**
+	 * Scans the given luma plane (one byte per pixel, row major), returning the TopCodes found.
+	 * The plane size must match the size the engine has been created for.
+	 */
+	public List<TopCode> scanLuma(byte[] luma, int width, int height) {
+
+		if (width != w || height != h) {
+			throw new IllegalArgumentException(String.format("Luma plane is %d x %d; engine expects %d x %d", width, height, w, h));
+		}
+
+		mBytesSource.setFrame(luma);
+
+		List<TopCode> codesFound = new ArrayList<TopCode>();
+
+		scanProcessing(mBytesSource, false, codesFound, true);
+
+		return codesFound;
+	}
+
+
+
+
+    public void scanProcessing(int[] image, boolean hasRotated, List<TopCode> codesFound, boolean useMorpho) {
+		scanProcessing(planeSource(image), hasRotated, codesFound, useMorpho);
+	}
+
+
+
+	/**
+	 * Scans the frame read from "source" - see LumaSource - adding the codes found to codesFound
+	 */
+	public void scanProcessing(LumaSource source, boolean hasRotated, List<TopCode> codesFound, boolean useMorpho) {
+
+		if (mCoarseEngine != null) {
+			pyramidProcessing(source, hasRotated, codesFound);
+
+			return;
+		}
+
+		scanCandidates(source, useMorpho);
+
+		decodeCandidates(hasRotated, codesFound);
+	}
+
+
+
+	/**
+	 * Pyramid version of scanProcessing(): the luma is downsampled by the pyramid factor and fully
+	 * scanned at that coarse level, where near cards are still large enough to be decoded. Only
+	 * around the coarse candidates too small to decode there - the far cards - is the frame
+	 * scanned again at full resolution, each one as a region sized for codes up to
+	 * PYRAMID_COARSE_MIN_UNIT coarse pixels units, only marking the candidates of those units so
+	 * that the near cards are not decoded again. The coarse codes are then added unless they
+	 * overlap a full resolution one.
+	 *
+	 * The coarse level takes candidates without their 4 neighbors marked too, so that codes down to
+	 * two coarse pixels units still leave a region to scan; smaller codes are not found - see
+	 * mIsolatedCandidates. Morphological operations are not applied, and the coarse level is always
+	 * Wellner thresholded.
+	 */
+	protected void pyramidProcessing(LumaSource source, boolean hasRotated, List<TopCode> codesFound) {
+
+		int factor = mPyramidFactor;
+
+		long startTime = LOG_EXECUTION_TIMES ? System.currentTimeMillis() : 0;
+
+		downsample(source, mCoarsePlane, factor);
+
+		mCoarseCodes.clear();
+
+		mCoarseEngine.scanCandidates(mCoarseEngine.planeSource(mCoarsePlane), false);
+		mCoarseEngine.findCodes(false, mCoarseCodes);
+
+		long coarseTime = LOG_EXECUTION_TIMES ? System.currentTimeMillis() : 0;
+
+		// Far cards: a region around every coarse candidate which did not decode, marking the
+		// candidates of the small units only
+
+		ScanBand coarseBand = mCoarseEngine.mFrameBand;
+
+		int fineMaxUnit = Math.min(maxu, PYRAMID_COARSE_MIN_UNIT * factor + 1);
+
+		int half = (int) Math.ceil(TRACKING_REGION_DIAMETERS * TopCode.WIDTH * fineMaxUnit);
+
+		mFineRegions.clear();
+
+		for (int blob = 0; blob < coarseBand.mMissedCount; blob++) {
+
+			int x = coarseBand.mMissedBlobs[2 * blob] * factor + factor / 2;
+			int y = coarseBand.mMissedBlobs[2 * blob + 1] * factor + factor / 2;
+
+			mFineRegions.add(fineRegion(blob).set(x - half, y - half, x + half + 1, y + half + 1));
+		}
+
+		int fineCount = codesFound.size();
+
+		if (mFineRegions.isEmpty()) {
+			this.ccount = 0;
+			this.tcount = 0;
+		} else {
+			int frameMaxUnit = maxu;
+
+			maxu = fineMaxUnit;
+
+			scanRegionsCandidates(source, false, mFineRegions);
+
+			maxu = frameMaxUnit;
+
+			decodeCandidates(hasRotated, codesFound);
+		}
+
+		fineCount = codesFound.size() - fineCount;
+
+		// Near cards, mapped from the coarse level pixels centers
+
+		for (int n = 0; n < mCoarseCodes.size(); n++) {
+
+			TopCode code = mCoarseCodes.get(n);
+
+			code.setLocation(code.getCenterX() * factor + (factor - 1) / 2.0f, code.getCenterY() * factor + (factor - 1) / 2.0f);
+			code.setDiameter(code.getDiameter() * factor);
+
+			if (hasRotated) {
+				rotateSpot(code);
+			}
+
+			if (overlaps(codesFound, (int) code.getCenterX(), (int) code.getCenterY()) == null) {
+				codesFound.add(code);
+			}
+		}
+
+		this.ccount += mCoarseEngine.getCandidatesCount();
+
+		if (LOG_EXECUTION_TIMES) {
+			debugLog("Pyramid scan execution time(ms): coarse %d, fine %d, coarse codes: %d, fine regions: %d, fine codes: %d",
+					coarseTime - startTime, System.currentTimeMillis() - coarseTime, mCoarseCodes.size(), mFineRegions.size(), fineCount);
+		}
+	}
+
+
+
+	/**
+	 * The n-th fine region of the pyramid scan, taken from mFineRegionsPool
+	 */
+	private ScanRegion fineRegion(int n) {
+
+		if (n == mFineRegionsPool.size()) {
+			mFineRegionsPool.add(new ScanRegion(0, 0, 0, 0));
+		}
+
+		return mFineRegionsPool.get(n);
+	}
+
+
+
+	/**
+	 * Averages every factor x factor block of the frame luma into one coarse pixel of the "coarse"
+	 * scanner input plane; the rows and columns past the last whole block are dropped
+	 */
+	protected void downsample(LumaSource source, int[] coarse, int factor) {
+
+		int coarseWidth  = w / factor;
+		int coarseHeight = h / factor;
+		int area         = factor * factor;
+
+		int[] luma = lumaRow(frameBand());
+		int[] sums = mCoarseSums;
+
+		for (int y = 0; y < coarseHeight; y++) {
+
+			Arrays.fill(sums, 0);
+
+			for (int j = 0; j < factor; j++) {
+
+				source.readLuma((y * factor + j) * w, luma, 0, coarseWidth * factor);
+
+				for (int x = 0, k = 0; x < coarseWidth; x++) {
+					for (int i = 0; i < factor; i++, k++) {
+						sums[x] += luma[k];
+					}
+				}
+			}
+
+			for (int x = 0; x < coarseWidth; x++) {
+				coarse[y * coarseWidth + x] = (sums[x] / area) << 24;
+			}
+		}
+	}
+
+
+
+	/**
+	 * Region of interest version of scanProcessing(): only the given regions - rectangles in the
+	 * same coordinates the codes are returned in, so rotated when hasRotated is - are thresholded
+	 * and scanned for candidates, and only codes inside them are found. The regions are always
+	 * Wellner thresholded, seeding the running sums at every region edge, and have no morphological
+	 * operations; the pixels outside them are taken as white, so bulls-eye runs crossing a region
+	 * edge are not candidates. Codes are decoded in place, so they come in full frame coordinates.
+	 */
+	public void scanProcessing(int[] image, boolean hasRotated, List<TopCode> codesFound, List<ScanRegion> regions) {
+		scanProcessing(planeSource(image), hasRotated, codesFound, regions);
+	}
+
+
+
+	public void scanProcessing(LumaSource source, boolean hasRotated, List<TopCode> codesFound, List<ScanRegion> regions) {
+
+		scanRegionsCandidates(source, hasRotated, regions);
+
+		decodeCandidates(hasRotated, codesFound);
+	}
+
+
+
+	/**
+	 * First half of the region of interest scanProcessing(): thresholds the regions and marks
+	 * their candidates, leaving the rest of the binary image white
+	 */
+	protected void scanRegionsCandidates(LumaSource source, boolean hasRotated, List<ScanRegion> regions) {
+
+		mLumaSource = source;
+
+		if (LOG_EXECUTION_TIMES) {
+			mStartThresholdTime = System.currentTimeMillis();
+		}
+
+		clearRegions();
+
+		for (int n = 0; n < regions.size(); n++) {
+
+			ScanRegion region = regions.get(n);
+
+			if (hasRotated) {
+				addRegion(region.getTop(), h - region.getRight() + 1, region.getBottom(), h - region.getLeft() + 1);
+			} else {
+				addRegion(region.getLeft(), region.getTop(), region.getRight(), region.getBottom());
+			}
+		}
+
+		int area = thresholdRegions();
+
+		long[] pixels = binary.mPixels;
+
+		int words = binary.mWordsPerRow;
+
+		for (int offset = 0; offset < pixels.length; offset += words) {
+			for (int word = offset; word < offset + words - 1; word++) {
+				pixels[word] |= ~mRegionPixels[word];
+			}
+
+			pixels[offset + words - 1] |= ~mRegionPixels[offset + words - 1] & binary.mLastWordMask;
+		}
+
+		if (LOG_EXECUTION_TIMES) {
+			mEndThresholdTime        = System.currentTimeMillis();
+			mStartHorizontalScanTime = mEndThresholdTime;
+		}
+
+		scanCandidatesHorizontal();
+
+		if (LOG_EXECUTION_TIMES) {
+			mEndHorizontalScanTime = System.currentTimeMillis();
+
+			debugLog("Horizontal candidates: %d", ccount);
+		}
+
+		ccount = scanCandidatesVertical();
+
+		if (LOG_EXECUTION_TIMES) {
+			mEndVerticalScanTime = System.currentTimeMillis();
+
+			debugLog("Vertical candidates: %d", ccount);
+
+			debugLog("Regions threshold execution time(ms): %d, regions: %d, pixels: %d", mEndThresholdTime - mStartThresholdTime, regions.size(), area);
+			debugLog("Horizontal scan execution time(ms): %d, Vertical scan execution time(ms): %d", mEndHorizontalScanTime - mStartHorizontalScanTime, mEndVerticalScanTime - mEndHorizontalScanTime);
+		}
+	}
+
+
+
+	/**
+	 * Tracking version of scanProcessing(): instead of scanning the whole frame for candidates,
+	 * re-decodes each one of "trackedCodes" - codes found in previous frames, with the frame
+	 * rotation given by hasRotated - around its last known position, adding the ones still found
+	 * to "codesFound". Only the region around each tracked code is thresholded, always with the
+	 * Wellner threshold and no morphological operations, so the cost follows the tracked codes
+	 * size instead of the frame size; codes not tracked are never found.
+	 */
+	public void trackProcessing(int[] image, boolean hasRotated, List<TopCode> trackedCodes, List<TopCode> codesFound) {
+		trackProcessing(planeSource(image), hasRotated, trackedCodes, codesFound);
+	}
+
+
+
+	public void trackProcessing(LumaSource source, boolean hasRotated, List<TopCode> trackedCodes, List<TopCode> codesFound) {
+
+		thresholdTrackedRegions(source, hasRotated, trackedCodes);
+
+		decodeTrackedCodes(hasRotated, trackedCodes, codesFound);
+	}
+
+
+
+	/**
+	 * First half of trackProcessing(): thresholds the region around each tracked code, leaving
+	 * the rest of the binary image untouched
+	 */
+	protected void thresholdTrackedRegions(LumaSource source, boolean hasRotated, List<TopCode> trackedCodes) {
+
+		mLumaSource = source;
+		this.ccount = 0;
+
+		if (LOG_EXECUTION_TIMES) {
+			mStartThresholdTime = System.currentTimeMillis();
+		}
+
+		clearRegions();
+
+		for (int n = 0; n < trackedCodes.size(); n++) {
+
+			TopCode tracked = trackedCodes.get(n);
+
+			int x    = trackedX(tracked, hasRotated);
+			int y    = trackedY(tracked, hasRotated);
+			int half = (int) Math.ceil(tracked.getDiameter() * TRACKING_REGION_DIAMETERS);
+
+			addRegion(x - half, y - half, x + half + 1, y + half + 1);
+		}
+
+		int area = thresholdRegions();
+
+		if (LOG_EXECUTION_TIMES) {
+			mEndThresholdTime = System.currentTimeMillis();
+
+			debugLog("Tracking threshold execution time(ms): %d, regions: %d, pixels: %d", mEndThresholdTime - mStartThresholdTime, trackedCodes.size(), area);
+		}
+	}
+
+
+
+	/**
+	 * Frame column of a tracked code center, given in display coordinates
+	 */
+	private int trackedX(TopCode tracked, boolean hasRotated) {
+		return Math.round(hasRotated ? tracked.getCenterY() : tracked.getCenterX());
+	}
+
+
+
+	/**
+	 * Frame row of a tracked code center, given in display coordinates
+	 */
+	private int trackedY(TopCode tracked, boolean hasRotated) {
+		return Math.round(hasRotated ? h - tracked.getCenterX() : tracked.getCenterY());
+	}
+
+
+
+	/**
+	 * First half of scanProcessing(): thresholds the image and marks the topcodes candidates,
+	 * leaving both in the binary image. A pipelined scan runs it for the next frame while
+	 * another engine decodes the candidates of the current one.
+	 */
+	protected void scanCandidates(LumaSource source, boolean useMorpho) {
+
+		mLumaSource = source;
+		this.ccount = 0;
+
+		boolean applyMorpho    = mUseMorphoOperations && useMorpho;
+		boolean fusedThreshold = USE_FUSED_SCANNING && (mAccelerator == null) && !applyMorpho;
+
+		// The accelerator also scanning the candidates keeps the frame on its side
+		boolean acceleratedCandidates = mAccelerator instanceof CandidatesAccelerator;
+
+
+        if (mAccelerator != null) {
+			int[] plane = acceleratorPlane(source);
+
+			// The caller plane is only read; the filtered frame comes back into the engine one
+
+			this.data = mAcceleratorPlane;
+
+			if (APPLY_MEDIAN_FILTER) {
+				if (LOG_EXECUTION_TIMES) {
+					mStartMedianFilterTime = System.currentTimeMillis();
+				}
+
+				mAccelerator.loadFrame(plane);
+				mAccelerator.medianFilter();
+
+				if (LOG_EXECUTION_TIMES) {
+					mEndMedianFilterTime = System.currentTimeMillis();
+					mStartThresholdTime  = System.currentTimeMillis();
+				}
+			} else {
+				if (LOG_EXECUTION_TIMES) {
+					mStartThresholdTime = System.currentTimeMillis();
+				}
+
+				mAccelerator.loadFrame(plane);
+			}
+
+			if (mThresholdMode == THRESHOLD_INTEGRAL) {
+				mAccelerator.integralThreshold(mIntegralWindowSize, INTEGRAL_THRESHOLD_PERCENTAGE);
+			} else {
+				mAccelerator.adaptiveThreshold();
+			}
+		} else {
+			if (LOG_EXECUTION_TIMES) {
+				mStartThresholdTime = System.currentTimeMillis();
+			}
+
+			if (!fusedThreshold) {
+				adaptiveThreshold(); // run the adaptive threshold filter
+			}
+		}
+
+		if (applyMorpho) {
+			if (mAccelerator != null) {
+				if (LOG_EXECUTION_TIMES) {
+					mEndThresholdTime = System.currentTimeMillis();
+					mStartClosingTime = System.currentTimeMillis();
+				}
+
+				mAccelerator.morphoClosing();
+
+				if (LOG_EXECUTION_TIMES) {
+					mEndClosingTime   = System.currentTimeMillis();
+					mStartOpeningTime = System.currentTimeMillis();
+				}
+
+				mAccelerator.morphoOpening();
+
+				if (!acceleratedCandidates) {
+					mAccelerator.retrieveFrame(data);
+
+					binary.packFrom(data);
+				}
+
+				if (LOG_EXECUTION_TIMES) {
+					mEndOpeningTime          = System.currentTimeMillis();
+					mStartHorizontalScanTime = System.currentTimeMillis();
+				}
+			} else {
+				if (LOG_EXECUTION_TIMES) {
+					mEndThresholdTime  = System.currentTimeMillis();
+					mStartDilationTime = System.currentTimeMillis();
+				}
+
+				if (mMorphology == null) {
+					mMorphology    = new BinaryMorphology(w, h);
+					mWorkingPixels = new long[binary.mPixels.length];
+				}
+
+				morphoDilation();
+
+				mWorkingPixels = binary.swapPixels(mWorkingPixels);
+
+				if (LOG_EXECUTION_TIMES) {
+					mEndDilationTime  = System.currentTimeMillis();
+					mStartErosionTime = System.currentTimeMillis();
+				}
+
+				morphoErosion();
+
+				mWorkingPixels = binary.swapPixels(mWorkingPixels);
+
+				if (LOG_EXECUTION_TIMES) {
+					mEndErosionTime    = System.currentTimeMillis();
+					mStartErosion2Time = System.currentTimeMillis();
+				}
+
+				morphoErosion();
+
+				mWorkingPixels = binary.swapPixels(mWorkingPixels);
+
+				if (LOG_EXECUTION_TIMES) {
+					mEndErosion2Time    = System.currentTimeMillis();
+					mStartDilation2Time = System.currentTimeMillis();
+				}
+
+				morphoDilation();
+
+				mWorkingPixels = binary.swapPixels(mWorkingPixels);
+
+				if (LOG_EXECUTION_TIMES) {
+					mEndDilation2Time        = System.currentTimeMillis();
+					mStartHorizontalScanTime = System.currentTimeMillis();
+				}
+			}
+		} else {
+			if (LOG_EXECUTION_TIMES) {
+				mEndThresholdTime        = System.currentTimeMillis();
+				mStartHorizontalScanTime = System.currentTimeMillis();
+			}
+
+			if (mAccelerator != null && !acceleratedCandidates) {
+				mAccelerator.retrieveFrame(data);
+
+				binary.packFrom(data);
+			}
+		}
+
+		if (acceleratedCandidates) {
+			((CandidatesAccelerator) mAccelerator).scanCandidates(maxu, binary, mAcceleratedCounts);
+
+			if (LOG_EXECUTION_TIMES) {
+				mEndHorizontalScanTime = System.currentTimeMillis();
+				mStartVerticalScanTime = mEndHorizontalScanTime;
+
+				debugLog("Horizontal candidates: %d", mAcceleratedCounts[0]);
+			}
+
+			ccount = mAcceleratedCounts[1];
+		} else if (mBands != null) {
+			int verticalCandidates = scanCandidatesBands(fusedThreshold);
+
+			if (LOG_EXECUTION_TIMES) {
+				mEndHorizontalScanTime = System.currentTimeMillis();
+				mStartVerticalScanTime = mEndHorizontalScanTime;
+
+				debugLog("Horizontal candidates: %d", ccount);
+			}
+
+			ccount = verticalCandidates;
+		} else if (USE_FUSED_SCANNING) {
+			int verticalCandidates = scanCandidatesFused(fusedThreshold);
+
+			if (LOG_EXECUTION_TIMES) {
+				mEndHorizontalScanTime = System.currentTimeMillis();
+				mStartVerticalScanTime = mEndHorizontalScanTime;
+
+				debugLog("Horizontal candidates: %d", ccount);
+			}
+
+			ccount = verticalCandidates;
+		} else {
+			scanCandidatesHorizontal();
+
+			if (LOG_EXECUTION_TIMES) {
+				mEndHorizontalScanTime = System.currentTimeMillis();
+
+				debugLog("Horizontal candidates: %d", ccount);
+
+				mStartVerticalScanTime = System.currentTimeMillis();
+			}
+
+			ccount = scanCandidatesVertical();
+		}
+
+		if (LOG_EXECUTION_TIMES) {
+			mEndVerticalScanTime = System.currentTimeMillis();
+
+			debugLog("Vertical candidates: %d", ccount);
+
+            debugLog("Threshold execution time(ms): %d", mEndThresholdTime - mStartThresholdTime);
+
+			if (applyMorpho) {
+				if (mAccelerator != null) {
+					debugLog("Closing execution time(ms): %d, Opening execution time(ms): %d",
+							mEndClosingTime - mStartClosingTime, mEndOpeningTime - mStartOpeningTime);
+				} else {
+					debugLog("Closing Dilation execution time(ms): %d, Closing Erosion execution time(ms): %d",
+							mEndDilationTime - mStartDilationTime, mEndErosionTime - mStartErosionTime);
+
+					debugLog("Opening Dilation execution time(ms): %d, Opening Erosion execution time(ms): %d",
+							mEndDilation2Time - mStartDilation2Time, mEndErosion2Time - mStartErosion2Time);
+				}
+			}
+
+			if (APPLY_MEDIAN_FILTER) {
+				debugLog("Median filter execution time(ms): %d", mEndMedianFilterTime - mStartMedianFilterTime);
+			}
+
+			if (acceleratedCandidates) {
+				debugLog("Accelerated candidates scan execution time(ms): %d", mEndHorizontalScanTime - mStartHorizontalScanTime);
+			} else if (mBands != null) {
+				debugLog(fusedThreshold ? "Parallel candidates scan execution time(ms): %d, bands: %d, including threshold"
+				                        : "Parallel candidates scan execution time(ms): %d, bands: %d",
+				         mEndHorizontalScanTime - mStartHorizontalScanTime, mBands.length);
+			} else if (USE_FUSED_SCANNING) {
+				debugLog(fusedThreshold ? "Fused candidates scan execution time(ms): %d, including threshold"
+				                        : "Fused candidates scan execution time(ms): %d",
+				         mEndHorizontalScanTime - mStartHorizontalScanTime);
+			} else {
+				debugLog("Horizontal scan execution time(ms): %d, Vertical scan execution time(ms): %d", mEndHorizontalScanTime - mStartHorizontalScanTime, mEndVerticalScanTime - mStartVerticalScanTime);
+			}
+        }
+    }
+
+
+
+	/**
+	 * Second half of scanProcessing(): decodes the candidates marked in the binary image, adding
+	 * the codes found to "codesFound"
+	 */
+	protected void decodeCandidates(boolean hasRotated, List<TopCode> codesFound) {
+
+		if (LOG_EXECUTION_TIMES) {
+			mStartFindCodesTime = System.currentTimeMillis();
+		}
+
+        // scan for topcodes
+		if (mBands != null) {
+			findCodesBands(hasRotated, codesFound);
+		} else {
+			findCodes(hasRotated, codesFound);
+		}
+
+        if (LOG_EXECUTION_TIMES) {
+            mEndFindCodesTime = System.currentTimeMillis();
+
+            debugLog("FindCodes execution time(ms): %d", mEndFindCodesTime - mStartFindCodesTime);
+        }
+    }
+
+
+
+	/**
+	 * Maps a decoded code from the frame to the rotated display coordinates and orientation, the
+	 * ones handed back when the frame has been rotated
+	 */
+	protected void rotateSpot(TopCode spot) {
+
+		spot.setLocation(h - spot.getCenterY(), spot.getCenterX());
+
+		float newOrientation = (float) (-spot.getOrientation() - Math.PI / 2.0f);
+
+		spot.setOrientation((float) (newOrientation < 0 ? -(2.0f * Math.PI + newOrientation) : -newOrientation));
+	}
+
+
+
+	/**
+	 * Sets the accelerator used for the image filtering stages; null runs them in plain Java.
+	 */
+	public void setAccelerator(ScannerAccelerator accelerator) {
+		if (mAccelerator != null && mAccelerator != accelerator) {
+			mAccelerator.release();
+		}
+
+		mAccelerator = accelerator;
+	}
+
+
+
+	/**
+	 * Sets the System.nanoTime() the following decodes stop at, leaving the rest of the blobs
+	 * undecoded - see DEFER_UNDECODED_BLOBS; blobs are then decoded in order of priority, see
+	 * sortDecodeOrder(). Only the blob being decoded when the deadline passes is finished; the
+	 * candidates scan is not interrupted. NO_DEADLINE decodes every blob, in the frame order.
+	 */
+	public void setDecodeDeadline(long deadline) {
+		mDecodeDeadline = deadline;
+	}
+
+
+
+	/**
+	 * Selects how TopCode decoding searches the unit and arc adjustments:
+	 * TopCode.SEARCH_EXHAUSTIVE, the default, or TopCode.SEARCH_COARSE_TO_FINE - about four times
+	 * fewer readings, but missing some of the codes decoded off their center or on noisy frames
+	 */
+	public void setDecodeSearch(int search) {
+		mDecodeSearch = search;
+
+		if (mCoarseEngine != null) {
+			mCoarseEngine.setDecodeSearch(search);
+		}
+	}
+
+
+
+	/**
+	 * Restricts the codes found to "codes", the ones enrolled in the session: other codes are
+	 * dropped as soon as decoded. Null accepts every valid code.
+	 */
+	public void setEnrolledCodes(int[] codes) {
+		mEnrolledCodes = (codes != null) ? new CodeTable(codes) : null;
+
+		if (mCoarseEngine != null) {
+			mCoarseEngine.mEnrolledCodes = mEnrolledCodes;
+		}
+	}
+
+
+
+	/**
+	 * Selects the threshold mode (THRESHOLD_WELLNER or THRESHOLD_INTEGRAL) and, for the integral
+	 * one, its window size in pixels - zero or less uses the default, a fraction of the image
+	 * width.
+	 */
+	public void setThresholdMode(int thresholdMode, int integralWindowSize) {
+		mThresholdMode = thresholdMode;
+
+		if (integralWindowSize > 0) {
+			mIntegralWindowSize = integralWindowSize;
+		} else {
+			mIntegralWindowSize = w / INTEGRAL_THRESHOLD_WINDOW_DIVISOR;
+		}
+	}
+
+
+
+	public void setMorphoOperations(boolean useMorphoOperations, int morphoElementSize) {
+		mUseMorphoOperations = useMorphoOperations;
+		mMorphoElementSize   = morphoElementSize;
+	}
+
+
+
+	/**
+	 * Splits the threshold, candidates scans and decoding of each frame among "bands" threads,
+	 * each one working on a horizontal band of the frame (the vertical scan on a band of columns
+	 * instead). One or less goes back to the sequential scan, releasing the threads. The Wellner
+	 * threshold of the bands approximates the sequential one, see WELLNER_BAND_WARMUP_ROWS.
+	 */
+	public void setParallelBands(int bands) {
+
+		if (mBandWorkers != null) {
+			mBandWorkers.shutdown();
+
+			mBandWorkers = null;
+			mBands       = null;
+		}
+
+		if (bands <= 1) {
+			return;
+		}
+
+		int words = binary.mWordsPerRow;
+
+		bands = Math.min(bands, Math.min(h, words));
+
+		mBands = new ScanBand[bands];
+
+		mBandsScanTasks         = new ArrayList<Runnable>(bands);
+		mBandsVerticalScanTasks = new ArrayList<Runnable>(bands);
+		mBandsFindCodesTasks    = new ArrayList<Runnable>(bands);
+
+		for (int i = 0; i < bands; i++) {
+			final ScanBand band = new ScanBand(i * h / bands, (i + 1) * h / bands, i * words / bands, (i + 1) * words / bands);
+
+			mBands[i] = band;
+
+			mBandsScanTasks.add(new Runnable() {
+				@Override
+				public void run() {
+					scanBand(band);
+				}
+			});
+
+			mBandsVerticalScanTasks.add(new Runnable() {
+				@Override
+				public void run() {
+					scanBandVertical(band);
+				}
+			});
+
+			mBandsFindCodesTasks.add(new Runnable() {
+				@Override
+				public void run() {
+					band.mSpots.clear();
+
+					findCodes(mBandsHasRotated, band.mSpots, band);
+				}
+			});
+		}
+
+		mBandWorkers = new BandWorkers(bands);
+	}
+
+
+
+	public int getPyramidFactor() {
+		return mPyramidFactor;
+	}
+
+
+
+	/**
+	 * Scans the frames as a two levels pyramid, with the coarse level downsampled by "factor" -
+	 * see pyramidProcessing(). One or less goes back to the full resolution scan, the default: the
+	 * pyramid scan is only faster when most cards are near, and slower when most are far.
+	 */
+	public void setPyramidFactor(int factor) {
+
+		if (factor <= 1) {
+			mPyramidFactor = 1;
+			mCoarseEngine  = null;
+			mCoarsePlane   = null;
+			mCoarseSums    = null;
+
+			return;
+		}
+
+		mPyramidFactor = factor;
+		mCoarseEngine  = new ScannerEngine(w / factor, h / factor);
+		mCoarsePlane   = new int[(w / factor) * (h / factor)];
+		mCoarseSums    = new int[w / factor];
+
+		mCoarseEngine.setDecodeSearch(mDecodeSearch);
+		mCoarseEngine.setSteadyState(mSteadyState);
+		mCoarseEngine.mEnrolledCodes = mEnrolledCodes;
+		mCoarseEngine.mLogDiscarded  = true;
+
+		mCoarseEngine.mIsolatedCandidates = true;
+	}
+
+
+
+	/**
+	 * Scans in steady state: once the first frames have grown the buffers, a scan allocates
+	 * nothing. The codes found are taken from pools owned by the engine, so they only stay valid
+	 * until the next scan, and their debug log messages are only formatted by drainLog().
+	 */
+	public void setSteadyState(boolean steadyState) {
+		mSteadyState = steadyState;
+
+		if (steadyState && mDeferredLog == null) {
+			mDeferredLog = new LogRing(DEFERRED_LOG_CAPACITY);
+		}
+
+		if (mCoarseEngine != null) {
+			mCoarseEngine.setSteadyState(steadyState);
+		}
+	}
+
+
+
+	public boolean isSteadyState() {
+		return mSteadyState;
+	}
+
+
+
+	public int getParallelBands() {
+		return (mBands != null) ? mBands.length : 1;
+	}
+
+
+
+
+	/**
+	 * Checks the black, white, black runs found by the candidates scan state machines against
+	 * the TopCode bulls-eye proportions
+	 */
+	protected boolean isBullsEyeRun(int b1, int w1, int b2) {
+
+		return (b1 >= 2 && b2 >= 2) // less than 2 pixels... not interested
+			&& b1 <= maxu && b2 <= maxu && w1 <= (maxu + maxu)
+			&& Math.abs(b1 + b2 - w1) <= (b1 + b2)
+			&& Math.abs(b1 + b2 - w1) <= w1
+			&& Math.abs(b1 - b2) <= b1
+			&& Math.abs(b1 - b2) <= b2;
+	}
+
+
+
+	/**
+	 * Single pass version of scanCandidatesHorizontal() and scanCandidatesVertical(), which
+	 * optionally also runs the adaptive threshold: every row is thresholded (when requested) and
+	 * immediately scanned, horizontally and against the previous row for the columns state
+	 * machines. This way the frame is read only once, row by row, instead of once per stage.
+	 *
+	 * Candidates marking is exactly the same as the separated stages; the horizontal candidates
+	 * count is left in ccount and the vertical candidates count is returned.
+	 */
+	protected int scanCandidatesFused(boolean applyThreshold) {
+
+		ScanBand band = frameBand();
+
+		int verticalCandidates = 0;
+
+		this.ccount = 0;
+
+		if (applyThreshold) {
+			prepareThreshold();
+			prepareBandThreshold(band);
+		}
+
+		resetColumnsState(band);
+
+		for (int j = 0; j < h; j++) {
+
+			if (applyThreshold) {
+				thresholdRow(j, band);
+			}
+
+			ccount += scanRowHorizontal(j);
+
+			verticalCandidates += scanRowVertical(j, band);
+		}
+
+		return verticalCandidates;
+	}
+
+
+
+	/**
+	 * Parallel version of scanCandidatesFused(), in two phases: every band thresholds (when
+	 * requested) and horizontally scans its rows, and then, once the whole frame is thresholded,
+	 * vertically scans its columns.
+	 *
+	 * As in scanCandidatesFused(), the horizontal candidates count is left in ccount and the
+	 * vertical candidates count is returned.
+	 */
+	protected int scanCandidatesBands(boolean applyThreshold) {
+
+		int verticalCandidates = 0;
+
+		this.ccount = 0;
+
+		if (applyThreshold) {
+			prepareThreshold();
+		}
+
+		mBandsApplyThreshold = applyThreshold;
+
+		runBandsTasks(mBandsScanTasks);
+		runBandsTasks(mBandsVerticalScanTasks);
+
+		for (ScanBand band : mBands) {
+			ccount             += band.mHorizontalCandidates;
+			verticalCandidates += band.mVerticalCandidates;
+		}
+
+		return verticalCandidates;
+	}
+
+
+
+	/**
+	 * First parallel scan phase of a band: threshold (when requested) and horizontal scan of its
+	 * rows
+	 */
+	protected void scanBand(ScanBand band) {
+
+		int candidates = 0;
+
+		if (mBandsApplyThreshold) {
+			prepareBandThreshold(band);
+		}
+
+		for (int j = band.mStartRow; j < band.mEndRow; j++) {
+
+			if (mBandsApplyThreshold) {
+				thresholdRow(j, band);
+			}
+
+			candidates += scanRowHorizontal(j);
+		}
+
+		band.mHorizontalCandidates = candidates;
+	}
+
+
+
+	/**
+	 * Second parallel scan phase of a band: vertical scan of its columns, through all the rows
+	 */
+	protected void scanBandVertical(ScanBand band) {
+
+		int candidates = 0;
+
+		resetColumnsState(band);
+
+		for (int j = 0; j < h; j++) {
+			candidates += scanRowVertical(j, band);
+		}
+
+		band.mVerticalCandidates = candidates;
+	}
+
+
+
+	/**
+	 * Runs the given bands tasks, returning once all of them are done
+	 */
+	private void runBandsTasks(List<Runnable> tasks) {
+		mBandWorkers.run(tasks);
+	}
+
+
+
+	protected void scanCandidatesHorizontal() {
+
+		this.ccount = 0;
+
+		for (int j = 0; j < h; j++) {
+			ccount += scanRowHorizontal(j);
+		}
+	}
+
+
+
+	/**
+	 * Vertically look for topcades candidates in the image
+	 */
+	protected int scanCandidatesVertical() {
+
+		ScanBand band = frameBand();
+
+		int candidates = 0;
+
+		resetColumnsState(band);
+
+		for (int j = 0; j < h; j++) {
+			candidates += scanRowVertical(j, band);
+		}
+
+		return candidates;
+	}
+
+
+
+	private void resetColumnsState(ScanBand band) {
+
+		if (band.mColumnsState == null || band.mColumnsState.length != 4 * w) {
+			band.mColumnsState = new int[4 * w];
+		} else {
+			Arrays.fill(band.mColumnsState, 0);
+		}
+	}
+
+
+
+	/**
+	 * Runs the horizontal black, white, black state machine over row j, marking its horizontal
+	 * candidates. Only the color transitions are visited: they are found 64 pixels at a time by
+	 * comparing each word with itself shifted by one pixel, and the run lengths are the distances
+	 * between them. The pixel before the row start is taken as white.
+	 *
+	 * Returns the number of candidates marked.
+	 */
+	protected int scanRowHorizontal(int j) {
+
+		long[] pixels     = binary.mPixels;
+		long[] candidates = binary.mHorizontalCandidates;
+
+		int words  = binary.mWordsPerRow;
+		int offset = j * words;
+
+		int level = 0, runStart = 0, b1 = 0, w1 = 0, b2, dk;
+		int count = 0;
+
+		long previous = -1L;
+
+		Arrays.fill(candidates, offset, offset + words, 0);
+
+		for (int word = 0; word < words; word++) {
+
+			long current     = pixels[offset + word];
+			long transitions = current ^ ((current << 1) | (previous >>> BinaryImage.WORD_MASK));
+
+			if (word == words - 1) {
+				transitions &= binary.mLastWordMask;
+			}
+
+			while (transitions != 0) {
+
+				int bit = Long.numberOfTrailingZeros(transitions);
+				int x   = (word << BinaryImage.WORD_SHIFT) + bit;
+
+				transitions &= transitions - 1;
+
+				if (((current >>> bit) & 0x01) == 0) {
+
+					// White to black: first black region, or second one after the bulls-eye
+
+					if (level == 0) {
+						level = 1;
+					} else {
+						w1 = x - runStart;
+
+						level = 3;
+					}
+				} else {
+
+					// Black to white
+
+					if (level == 1) {
+						b1 = x - runStart;
+
+						level = 2;
+					} else {
+						b2 = x - runStart;
+
+						// This could be a top code
+
+						if (isBullsEyeRun(b1, w1, b2)) {
+							dk = x - (1 + b2 + (w1 / 2));
+
+							markCandidate(candidates, offset, dk - 1);
+							markCandidate(candidates, offset, dk);
+							markCandidate(candidates, offset, dk + 1);
+
+							count += 3; // count candidate codes
+						}
+
+						b1 = b2;
+
+						level = 2;
+					}
+				}
+
+				runStart = x;
+			}
+
+			previous = current;
+		}
+
+		return count;
+	}
+
+
+
+	/**
+	 * Advances the vertical state machines of the band columns through row j, marking the vertical
+	 * candidates found - always on already scanned rows. As in scanRowHorizontal(), only the
+	 * columns whose color changed from the previous row are visited; the row before the first
+	 * one is taken as white.
+	 *
+	 * Returns the number of candidates marked.
+	 */
+	protected int scanRowVertical(int j, ScanBand band) {
+
+		long[] pixels     = binary.mPixels;
+		long[] candidates = binary.mVerticalCandidates;
+
+		int words  = binary.mWordsPerRow;
+		int offset = j * words;
+
+		int[] columnsState = band.mColumnsState;
+
+		int level, runStart, b1, w1, b2, dk, state;
+		int count = 0;
+
+		Arrays.fill(candidates, offset + band.mStartWord, offset + band.mEndWord, 0);
+
+		for (int word = band.mStartWord; word < band.mEndWord; word++) {
+
+			long current     = pixels[offset + word];
+			long transitions = current ^ ((j > 0) ? pixels[offset - words + word] : -1L);
+
+			if (word == words - 1) {
+				transitions &= binary.mLastWordMask;
+			}
+
+			while (transitions != 0) {
+
+				int bit = Long.numberOfTrailingZeros(transitions);
+				int x   = (word << BinaryImage.WORD_SHIFT) + bit;
+
+				transitions &= transitions - 1;
+
+				state = x << 2;
+
+				level    = columnsState[state];
+				runStart = columnsState[state + 1];
+				b1       = columnsState[state + 2];
+				w1       = columnsState[state + 3];
+
+				if (((current >>> bit) & 0x01) == 0) {
+					if (level == 0) {
+						level = 1;
+					} else {
+						w1 = j - runStart;
+
+						level = 3;
+					}
+				} else {
+					if (level == 1) {
+						b1 = j - runStart;
+
+						level = 2;
+					} else {
+						b2 = j - runStart;
+
+						if (isBullsEyeRun(b1, w1, b2)) {
+							dk = j - (1 + b2 + (w1 / 2));
+
+							markCandidate(candidates, (dk - 1) * words, x);
+							markCandidate(candidates, dk * words, x);
+							markCandidate(candidates, (dk + 1) * words, x);
+
+							count += 3; // count candidate codes
+						}
+
+						b1 = b2;
+
+						level = 2;
+					}
+				}
+
+				columnsState[state]     = level;
+				columnsState[state + 1] = j;
+				columnsState[state + 2] = b1;
+				columnsState[state + 3] = w1;
+			}
+		}
+
+		return count;
+	}
+
+
+
+	private static void markCandidate(long[] candidates, int rowOffset, int x) {
+		candidates[rowOffset + (x >> BinaryImage.WORD_SHIFT)] |= 1L << (x & BinaryImage.WORD_MASK);
+	}
+
+
+
+	/**
+	 * Integral (Bradley & Roth) threshold of row j: every pixel is compared against the average of
+	 * the window centered on it, clipped to the image, taken from the summed-area table.
+	 */
+	protected void integralThresholdRow(int j, ScanBand band) {
+
+		int half   = mIntegralWindowSize / 2;
+		int stride = w + 1;
+
+		int top    = Math.max(0, j - half) * stride;
+		int bottom = (Math.min(h - 1, j + half) + 1) * stride;
+		int rows   = (bottom - top) / stride;
+
+		int[] luma = lumaRow(band);
+
+		mLumaSource.readLuma(j * w, luma, 0, w);
+
+		long[] pixels = binary.mPixels;
+
+		int wordOffset = j * binary.mWordsPerRow;
+		long bits = 0;
+
+		for (int i = 0; i < w; i++) {
+
+			int left  = Math.max(0, i - half);
+			int right = Math.min(w - 1, i + half) + 1;
+
+			int count = (right - left) * rows;
+			int sum   = mIntegralImage[bottom + right] - mIntegralImage[top + right] - mIntegralImage[bottom + left] + mIntegralImage[top + left];
+
+			// White unless more than INTEGRAL_THRESHOLD_PERCENTAGE below the average
+
+			if ((long) luma[i] * count * 100 > (long) sum * (100 - INTEGRAL_THRESHOLD_PERCENTAGE)) {
+				bits |= 1L << (i & BinaryImage.WORD_MASK);
+			}
+
+			if ((i & BinaryImage.WORD_MASK) == BinaryImage.WORD_MASK) {
+				pixels[wordOffset + (i >> BinaryImage.WORD_SHIFT)] = bits;
+
+				bits = 0;
+			}
+		}
+
+		if ((w & BinaryImage.WORD_MASK) != 0) {
+			pixels[wordOffset + (w >> BinaryImage.WORD_SHIFT)] = bits;
+		}
+	}
+
+
+
+	/**
+	 * Gets the current threshold mode ready for the frame, before any band is thresholded
+	 */
+	protected void prepareThreshold() {
+
+		if (mThresholdMode == THRESHOLD_INTEGRAL) {
+			buildIntegralImage();
+		}
+	}
+
+
+
+	/**
+	 * Gets the current threshold mode ready for thresholdRow() calls over the band rows, from its
+	 * first row on. Bands other than the first one seed the Wellner running sums by thresholding
+	 * the rows just above them, without storing the result - an approximation of the whole frame
+	 * running sums, see WELLNER_BAND_WARMUP_ROWS.
+	 */
+	protected void prepareBandThreshold(ScanBand band) {
+
+		if (mThresholdMode == THRESHOLD_WELLNER) {
+			if (band.mRowSums == null || band.mRowSums.length != w) {
+				band.mRowSums = new int[w];
+			}
+
+			band.mThresholdSum = WELLNER_INITIAL_SUM;
+
+			for (int j = Math.max(0, band.mStartRow - WELLNER_BAND_WARMUP_ROWS); j < band.mStartRow; j++) {
+				wellnerThresholdRow(j, band, false);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Adds the [left, right) x [top, bottom) region, clipped to the frame, to the ones thresholded
+	 * by the next thresholdRegions()
+	 */
+	protected void addRegion(int left, int top, int right, int bottom) {
+
+		int words = binary.mWordsPerRow;
+
+		int startRow    = Math.max(0, top);
+		int endRow      = Math.min(h, bottom);
+		int startColumn = Math.max(0, left);
+		int endColumn   = Math.min(w, right);
+
+		if (startColumn >= endColumn) {
+			return;
+		}
+
+		int startWord = startColumn >> BinaryImage.WORD_SHIFT;
+		int lastWord  = (endColumn - 1) >> BinaryImage.WORD_SHIFT;
+
+		long startMask = -1L << (startColumn & BinaryImage.WORD_MASK);
+		long lastMask  = -1L >>> (BinaryImage.WORD_MASK - ((endColumn - 1) & BinaryImage.WORD_MASK));
+
+		for (int j = startRow; j < endRow; j++) {
+
+			int offset = j * words;
+
+			if (startWord == lastWord) {
+				mRegionPixels[offset + startWord] |= startMask & lastMask;
+			} else {
+				mRegionPixels[offset + startWord] |= startMask;
+
+				for (int word = startWord + 1; word < lastWord; word++) {
+					mRegionPixels[offset + word] = -1L;
+				}
+
+				mRegionPixels[offset + lastWord] |= lastMask;
+			}
+		}
+	}
+
+
+
+	/**
+	 * Forgets the regions added so far
+	 */
+	protected void clearRegions() {
+
+		if (mRegionPixels == null || mRegionPixels.length != binary.mPixels.length) {
+			mRegionPixels = new long[binary.mPixels.length];
+		} else {
+			Arrays.fill(mRegionPixels, 0);
+		}
+	}
+
+
+
+	/**
+	 * Whether row j pixels [first, last) are all covered by the regions
+	 */
+	private boolean isRegionCovered(int j, int first, int last) {
+
+		int offset = j * binary.mWordsPerRow;
+
+		for (int i = first; i < last; ) {
+			int word = i >> BinaryImage.WORD_SHIFT;
+			int end  = Math.min(last, (word + 1) << BinaryImage.WORD_SHIFT);
+
+			long mask = (-1L << (i & BinaryImage.WORD_MASK)) & (-1L >>> (BinaryImage.WORD_MASK - ((end - 1) & BinaryImage.WORD_MASK)));
+
+			if ((mRegionPixels[offset + word] & mask) != mask) {
+				return false;
+			}
+
+			i = end;
+		}
+
+		return true;
+	}
+
+
+
+	/**
+	 * Wellner thresholds the union of the regions added since clearRegions(), returning the pixels
+	 * thresholded; the rest of the binary image is left untouched. Overlapping and adjacent regions
+	 * are thresholded once, each row as runs of consecutive covered pixels: every run running sum
+	 * is seeded from the pixels on its left - or, for a run starting a row right after one ending
+	 * the row above, carried over from it, as the whole frame threshold does - and the row above
+	 * it is run first, for its sums, unless already covered. This way the result closely follows
+	 * the whole frame threshold, and a whole frame region gives it bit for bit.
+	 */
+	protected int thresholdRegions() {
+
+		int words = binary.mWordsPerRow;
+
+		ScanBand band = mRegionBand;
+
+		if (band.mRowSums == null || band.mRowSums.length != w) {
+			band.mRowSums = new int[w];
+		}
+
+		int area = 0;
+
+		// Running sum at the end of the row above, when its last run reached the right edge; the
+		// first row starts as the whole frame threshold does
+
+		boolean carried = true;
+		int carriedSum  = WELLNER_INITIAL_SUM;
+
+		for (int j = 0; j < h; j++) {
+
+			int offset = j * words;
+			int word   = 0;
+
+			boolean rowCarried = false;
+
+			long covered = mRegionPixels[offset];
+
+			while (true) {
+
+				// Next run start: first covered pixel from here on
+
+				while (covered == 0 && ++word < words) {
+					covered = mRegionPixels[offset + word];
+				}
+
+				if (covered == 0) {
+					break;
+				}
+
+				int first = (word << BinaryImage.WORD_SHIFT) + Long.numberOfTrailingZeros(covered);
+
+				// Run end: first uncovered pixel from the start on
+
+				long uncovered = ~covered & (-1L << (first & BinaryImage.WORD_MASK));
+
+				while (uncovered == 0 && ++word < words) {
+					uncovered = ~mRegionPixels[offset + word];
+				}
+
+				int last = (uncovered == 0) ? w : Math.min(w, (word << BinaryImage.WORD_SHIFT) + Long.numberOfTrailingZeros(uncovered));
+
+				if (j > 0 && !isRegionCovered(j - 1, first, last)) {
+					band.mThresholdSum = wellnerSeedSum(j - 1, first, band);
+
+					wellnerThresholdRow(j - 1, band, false, first, last);
+				}
+
+				band.mThresholdSum = (first == 0 && carried) ? carriedSum : wellnerSeedSum(j, first, band);
+
+				wellnerThresholdRow(j, band, true, first, last);
+
+				area += last - first;
+
+				if (last >= w) {
+					rowCarried = true;
+					carriedSum = band.mThresholdSum;
+				}
+
+				if (uncovered == 0 || last >= w) {
+					break;
+				}
+
+				covered = mRegionPixels[offset + word] & (-1L << (last & BinaryImage.WORD_MASK));
+			}
+
+			carried = rowCarried;
+		}
+
+		return area;
+	}
+
+
+
+	/**
+	 * Thresholds row j with the current threshold mode; the band rows must be thresholded in order
+	 * after prepareBandThreshold().
+	 */
+	protected void thresholdRow(int j, ScanBand band) {
+
+		if (mThresholdMode == THRESHOLD_INTEGRAL) {
+			integralThresholdRow(j, band);
+		} else {
+			wellnerThresholdRow(j, band, true);
+		}
+	}
+
+
+
+	/**
+	 * Wellner adaptive threshold of row j, left-to-right, packing its binary pixels 64 at a time -
+	 * only updating the band running sums when "store" is false. Besides the running sum carried
+	 * from the previous row's end, it only needs the previous row's sums, kept in the band.
+	 */
+	protected void wellnerThresholdRow(int j, ScanBand band, boolean store) {
+		wellnerThresholdRow(j, band, store, 0, w);
+	}
+
+
+
+	/**
+	 * Wellner adaptive threshold of row j pixels [first, last), starting from the band running
+	 * sum; the previous row's sums are only needed for those pixels, and the binary pixels around
+	 * them are left untouched.
+	 */
+	protected void wellnerThresholdRow(int j, ScanBand band, boolean store, int first, int last) {
+
+		int[] rowSums = band.mRowSums;
+		int[] luma    = lumaRow(band);
+
+		int a;
+		int threshold, sum = band.mThresholdSum;
+		int s = 30;
+
+		mLumaSource.readLuma(j * w + first, luma, first, last - first);
+
+		double f = 0.975;
+
+		long[] pixels = binary.mPixels;
+
+		int wordOffset = j * binary.mWordsPerRow;
+		long bits = 0;
+
+		for (int i = first; i < last; i++) {
+
+			// ----------------------------------------
+			// Calculate sum as an approximate sum
+			// of the last s pixels
+			// ----------------------------------------
+
+			a = luma[i];
+
+			sum += a - (sum / s);
+
+			// ----------------------------------------
+			// Factor in sum from the previous row
+			// ----------------------------------------
+
+			if (j > 0) {
+				threshold = (sum + rowSums[i]) / (2 * s);
+			} else {
+				threshold = sum / s;
+			}
+
+			rowSums[i] = sum;
+
+			// ----------------------------------------
+			// Compare the average sum to current pixel
+			// to decide black or white
+			// ----------------------------------------
+
+			if (a >= threshold * f) {
+				bits |= 1L << (i & BinaryImage.WORD_MASK);
+			}
+
+			if ((i & BinaryImage.WORD_MASK) == BinaryImage.WORD_MASK) {
+				if (store) {
+					long mask = -1L << (Math.max(first, i - BinaryImage.WORD_MASK) & BinaryImage.WORD_MASK);
+					int index = wordOffset + (i >> BinaryImage.WORD_SHIFT);
+
+					pixels[index] = (pixels[index] & ~mask) | bits;
+				}
+
+				bits = 0;
+			}
+		}
+
+		if (store && (last & BinaryImage.WORD_MASK) != 0) {
+			int word  = last >> BinaryImage.WORD_SHIFT;
+			long mask = (-1L << (Math.max(first, word << BinaryImage.WORD_SHIFT) & BinaryImage.WORD_MASK)) & ((1L << (last & BinaryImage.WORD_MASK)) - 1);
+			int index = wordOffset + word;
+
+			pixels[index] = (pixels[index] & ~mask) | bits;
+		}
+
+		band.mThresholdSum = sum;
+	}
+
+
+
+	/**
+	 * Wellner running sum of row j just before "column", approximated by running it over the
+	 * WELLNER_REGION_WARMUP_COLUMNS pixels on its left, from the first one's steady state
+	 */
+	protected int wellnerSeedSum(int j, int column, ScanBand band) {
+
+		int s = 30;
+		int start = Math.max(0, column - WELLNER_REGION_WARMUP_COLUMNS);
+
+		int[] luma = lumaRow(band);
+
+		// A run starting at column 0 still needs its first pixel
+		mLumaSource.readLuma(j * w + start, luma, start, Math.max(1, column - start));
+
+		int sum = luma[start] * s;
+
+		for (int i = start; i < column; i++) {
+			sum += luma[i] - (sum / s);
+		}
+
+		return sum;
+	}
+
+
+
+	protected void threshold() {
+
+		mLumaSource = planeSource(data);
+
+		adaptiveThreshold();
+
+		scanCandidatesHorizontal();
+
+		if (CANDIDATES_LOG) {
+			debugLog("Original candidates: %d", ccount);
+		}
+		
+		if (TEST_VERTICAL_CANDIDATES) {
+			ccount = scanCandidatesVertical();
+			
+			if (CANDIDATES_LOG) {
+				debugLog("Vertical candidates: %d", ccount);
+			}
+		}
+	}
+}
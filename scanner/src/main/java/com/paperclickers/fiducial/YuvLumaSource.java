@@ -0,0 +1,88 @@
+/*
+ * Paperclickers - Affordable solution for classroom response system.
+ *
+ * Copyright (C) 2015-2017 Eduardo Valle Jr <dovalle@dca.fee.unicamp.br>
+ * Copyright (C) 2015-2017 Eduardo Seiti de Oliveira <eduseiti@dca.fee.unicamp.br>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package com.paperclickers.fiducial;
+
+
+/**
+ * Luma of a YUV420SP (NV21) camera preview frame, read straight from its Y plane - the first
+ * width * height bytes - or of any plane of one luma byte per pixel. The video black level of 16
+ * is taken off camera frames; planes of plain luma use a black level of 0.
+ *
+ * @author Eduardo Seiti de Oliveira
+ */
+
+public class YuvLumaSource implements LumaSource {
+
+	public static final int BLACK_LEVEL = 16;
+
+
+	final int mBlackLevel;
+
+	byte[] mFrame;
+
+
+
+	public YuvLumaSource() {
+		this(null, BLACK_LEVEL);
+	}
+
+
+
+	public YuvLumaSource(byte[] frame) {
+		this(frame, BLACK_LEVEL);
+	}
+
+
+
+	public YuvLumaSource(byte[] frame, int blackLevel) {
+		mFrame      = frame;
+		mBlackLevel = blackLevel;
+	}
+
+
+
+	public byte[] getFrame() {
+		return mFrame;
+	}
+
+
+
+	@Override
+	public void readLuma(int offset, int[] luma, int lumaOffset, int count) {
+
+		byte[] frame   = mFrame;
+		int blackLevel = mBlackLevel;
+
+		for (int i = 0; i < count; i++) {
+			int y = (frame[offset + i] & 0xff) - blackLevel;
+
+			luma[lumaOffset + i] = (y < 0) ? 0 : y;
+		}
+	}
+
+
+
+	public void setFrame(byte[] frame) {
+		mFrame = frame;
+	}
+}